@@ -0,0 +1,22 @@
+package com.cpsgpartners.azure.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ Runs the JMH benchmarks with the gc profiler always on, so every result is reported with its allocation rate (gc.alloc.rate.norm is bytes per
+ operation). Takes the regular JMH command line, i.e. a benchmark regex, -f, -wi, -i or -rf json.
+
+ for example,
+
+ java -jar target/benchmarks.jar Storage -f 1
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
@@ -0,0 +1,143 @@
+package com.cpsgpartners.azure.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Invocation.Builder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cpsgpartners.azure.common.SharedKeySigner;
+import com.cpsgpartners.azure.documentdb.DocumentDB;
+import com.cpsgpartners.azure.documentdb.DocumentDB.ETag;
+import com.cpsgpartners.azure.documentdb.DocumentDB.ETagMode;
+
+/*
+ DocumentDB.setHeaders, the date, version, consistency, session token and master key signature added to every DocumentDB request. request() is
+ measured on its own so its cost can be subtracted. The legacy methods are the setHeaders and signature of the original DocumentDB, a Mac,
+ SecretKeySpec and String.format per request, kept here so signatures per second can be compared before and after SharedKeySigner.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentDBBenchmark {
+
+	DocumentDB db;
+	WebTarget target;
+	String path;
+	ETag etag;
+	SharedKeySigner signer;
+	String date;
+
+	@Setup
+	public void setup() {
+		db = new DocumentDB(Fixtures.ACCOUNT, Fixtures.MASTER_KEY, DocumentDB.ConsistencyLevel.Session);
+		path = "/dbs/" + Fixtures.DB + "/colls/" + Fixtures.COLL + "/docs/" + Fixtures.DOC + "/";
+		target = db.getTransport().target(String.format(DocumentDB.AZURE_DOCUMENTDB_ENDPOINT, Fixtures.ACCOUNT)).path(path);
+		etag = new ETag(ETagMode.MATCH, "\"00000100-0000-0000-0000-000000000000\"");
+		signer = new SharedKeySigner(Fixtures.MASTER_KEY);
+		date = SharedKeySigner.currentDate();
+	}
+
+	@TearDown
+	public void tearDown() {
+		db.getTransport().close();
+	}
+
+	@Benchmark
+	public Builder request() {
+		return target.request();
+	}
+
+	@Benchmark
+	public Builder setHeaders() {
+		return db.setHeaders(target.request(), path, "GET", "docs", Fixtures.DOC, null);
+	}
+
+	@Benchmark
+	public Builder setHeadersIfMatch() {
+		return db.setHeaders(target.request(), path, "PUT", "docs", Fixtures.DOC, etag);
+	}
+
+	@Benchmark
+	public Builder legacySetHeaders() {
+		return legacySetHeaders(target.request(), "GET", "docs", Fixtures.DOC, null);
+	}
+
+	@Benchmark
+	public String signature() {
+		StringBuilder stringToSign = signer.stringToSign();
+		stringToSign.append("GET").append('\n').append("docs").append('\n').append(Fixtures.DOC).append('\n').append(date).append('\n').append('\n');
+		return signer.signLowerCase(stringToSign);
+	}
+
+	@Benchmark
+	public String legacySignature() {
+		try {
+			return legacySignature(Fixtures.MASTER_KEY, "GET", "docs", Fixtures.DOC, date);
+		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
+			throw new WebApplicationException(e);
+		}
+	}
+
+	//DocumentDB.setHeaders before SharedKeySigner, without the session token lookup as the benchmark has no session
+	static Builder legacySetHeaders(Builder builder, String verb, String resourceType, String resourceId, ETag etag) throws WebApplicationException {
+		try {
+			ZonedDateTime currentTime = ZonedDateTime.now(ZoneId.of("GMT"));
+			String date = DocumentDB.RFC1123_DATE_TIME.format(currentTime);
+			builder.header("x-ms-date", date);
+			builder.header("x-ms-version", DocumentDB.AZURE_DOCUMENTDB_VERSION);
+			builder.accept(MediaType.APPLICATION_JSON_TYPE);
+			if (etag != null) {
+				switch (etag.getMode()) {
+				case MATCH:
+					builder.header(HttpHeaders.IF_MATCH, etag.getValue());
+					break;
+				case NO_MATCH:
+					builder.header(HttpHeaders.IF_NONE_MATCH, etag.getValue());
+					break;
+				}
+			}
+			String signature = legacySignature(Fixtures.MASTER_KEY, verb, resourceType, resourceId, date);
+			builder.header("Authorization", URLEncoder.encode(String.format("type=master&ver=1.0&sig=%s", signature), "UTF-8"));
+			builder.header("x-ms-consistency-level", DocumentDB.ConsistencyLevel.Session.name());
+			return builder;
+		} catch (NoSuchAlgorithmException | InvalidKeyException | UnsupportedEncodingException e) {
+			throw new WebApplicationException(e);
+		}
+	}
+
+	static String legacySignature(String masterKey, String verb, String resourceType, String resourceId, String date) throws NoSuchAlgorithmException, InvalidKeyException {
+		String stringToSign = String.format("%s\n%s\n%s\n%s\n%s\n", verb, resourceType, resourceId, date, "").toLowerCase();
+		Mac sha256_HMAC = Mac.getInstance("HMACSHA256");
+		SecretKeySpec secret_key = new SecretKeySpec(Base64.getDecoder().decode(masterKey), "HmacSHA256");
+		sha256_HMAC.init(secret_key);
+		return Base64.getEncoder().encodeToString(sha256_HMAC.doFinal(stringToSign.getBytes()));
+	}
+
+}
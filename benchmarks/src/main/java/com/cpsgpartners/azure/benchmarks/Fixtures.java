@@ -0,0 +1,31 @@
+package com.cpsgpartners.azure.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+//account, key and response bodies shared by the benchmarks, nothing is sent over the network
+class Fixtures {
+
+	static final String ACCOUNT = "account";
+	static final String MASTER_KEY = Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef".getBytes());
+	static final String DB = "d9RzAA==";
+	static final String COLL = "d9RzAJRFKgw=";
+	static final String DOC = "d9RzAJRFKgwBAAAAAAAAAA==";
+
+	//a DocumentDB query page of the given number of documents
+	static byte[] page(int documents) {
+		StringBuilder sb = new StringBuilder("{\"_rid\":\"").append(COLL).append("\",\"Documents\":[");
+		for (int i = 0; i < documents; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"id\":\"doc").append(i).append("\",\"name\":\"Product ").append(i).append(" \\\"special\\\" édition\",\"price\":").append(i).append(".99,\"quantity\":").append(i * 7)
+					.append(",\"tags\":[\"a\",\"b\",\"c\"],\"address\":{\"street\":\"").append(i).append(" Main St\",\"city\":\"Springfield\",\"zip\":\"12345\"},\"active\":true,\"notes\":null")
+					.append(",\"_rid\":\"").append(DOC).append("\",\"_ts\":1430000000,\"_self\":\"dbs/").append(DB).append("/colls/").append(COLL).append("/docs/").append(DOC)
+					.append("/\",\"_etag\":\"\\\"00000100-0000-0000-0000-000000000000\\\"\",\"_attachments\":\"attachments/\"}");
+		}
+		sb.append("],\"_count\":").append(documents).append('}');
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+}
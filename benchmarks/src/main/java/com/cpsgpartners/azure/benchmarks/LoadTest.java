@@ -0,0 +1,305 @@
+package com.cpsgpartners.azure.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.ws.rs.WebApplicationException;
+
+import com.cpsgpartners.azure.common.Transport;
+import com.cpsgpartners.azure.documentdb.DocumentBatcher;
+import com.cpsgpartners.azure.documentdb.DocumentDB;
+import com.cpsgpartners.azure.documentdb.PreparedQuery;
+import com.cpsgpartners.azure.documentdb.QueryCache;
+import com.cpsgpartners.azure.documentdb.ReadCoalescer;
+import com.cpsgpartners.azure.documentdb.ReadEndpoints;
+import com.cpsgpartners.azure.search.Search;
+import com.cpsgpartners.azure.search.Search.SearchQuery;
+import com.cpsgpartners.azure.standin.DocumentDBStandIn;
+import com.cpsgpartners.azure.standin.SearchStandIn;
+import com.cpsgpartners.azure.standin.StandIn;
+import com.cpsgpartners.azure.standin.StorageStandIn;
+import com.cpsgpartners.azure.storage.Storage;
+import com.cpsgpartners.azure.storage.Storage.BlobFile;
+
+/*
+ Closed loop load test of the DocumentDB, Storage and Search clients against the in-process stand-ins. Each thread issues the operation back to back
+ for the duration after a warm up, then the throughput, the latency percentiles of the successful operations and the failures by status are reported
+ together with the stand-in request and throttle counts and the Transport connection statistics.
+
+ Options, all optional:
+ 	--service documentdb|storage|search		(documentdb)
+ 	--operation read|write|query|lookup|batch	(read, query is not available for storage, lookup is a parameterized documentdb query of one document,
+ 											batch is a documentdb read by id through a DocumentBatcher shared by the threads)
+ 	--prepared true							(documentdb lookup through a PreparedQuery)
+ 	--coalesce true							(documentdb concurrent identical reads and queries share one request, i.e. with --documents 10)
+ 	--threads 16 --duration 30 --warmup 5	(seconds)
+ 	--latency 2-10							(stand-in latency in milliseconds, a single value for a fixed latency)
+ 	--spikes 0.02:200						(fraction of requests delayed by a further latency spike in milliseconds)
+ 	--throttle 0.01							(fraction of requests answered 429)
+ 	--payload 1024							(bytes per document or blob)
+ 	--documents 1000						(seeded documents or blobs, also the query page size for documentdb)
+ 	--compression true						(gzip responses and, for storage, uploads)
+ 	--replicas 2							(documentdb read endpoints, stand-in replicas with the same latency)
+ 	--hedge 5								(documentdb hedge delay in milliseconds, requires replicas)
+ 	--query-cache 30000						(documentdb query cache time to live in milliseconds)
+
+ Run with: java -cp target/benchmarks.jar com.cpsgpartners.azure.benchmarks.LoadTest --service documentdb --operation query --threads 32
+ */
+public class LoadTest {
+
+	static final String MASTER_KEY = Fixtures.MASTER_KEY;
+
+	interface Operation {
+		void run() throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+		}
+		String service = options.getOrDefault("service", "documentdb");
+		String operation = options.getOrDefault("operation", "read");
+		int threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+		int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+		int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+		String[] latency = options.getOrDefault("latency", "0").split("-");
+		String[] spikes = options.getOrDefault("spikes", "0:0").split(":");
+		double throttle = Double.parseDouble(options.getOrDefault("throttle", "0"));
+		int payload = Integer.parseInt(options.getOrDefault("payload", "1024"));
+		int documents = Integer.parseInt(options.getOrDefault("documents", "1000"));
+		boolean compression = Boolean.parseBoolean(options.getOrDefault("compression", "false"));
+		int replicas = Integer.parseInt(options.getOrDefault("replicas", "0"));
+		long hedge = Long.parseLong(options.getOrDefault("hedge", "-1"));
+		long queryCache = Long.parseLong(options.getOrDefault("query-cache", "-1"));
+		boolean prepared = Boolean.parseBoolean(options.getOrDefault("prepared", "false"));
+		boolean coalesce = Boolean.parseBoolean(options.getOrDefault("coalesce", "false"));
+
+		//a losing hedged read keeps its connection until it completes
+		int connections = hedge >= 0 ? threads * 2 : threads;
+		Transport transport = new Transport(new Transport.Config().setMaxConnectionsPerHost(connections).setMaxTotalConnections(connections * (replicas + 1)).setCompression(compression));
+		StandIn standIn = "storage".equals(service) ? new StorageStandIn() : "search".equals(service) ? new SearchStandIn() : new DocumentDBStandIn();
+		try {
+			standIn.start();
+			Operation op;
+			DocumentDB db = null;
+			switch (service) {
+			case "documentdb":
+				db = new DocumentDB(standIn.getUri(), MASTER_KEY, DocumentDB.ConsistencyLevel.Session, transport);
+				if (queryCache >= 0) {
+					db.setQueryCache(new QueryCache(QueryCache.DEFAULT_MAX_PAGES, queryCache));
+				}
+				if (coalesce) {
+					db.setReadCoalescer(new ReadCoalescer().setQueries(true));
+				}
+				op = documentDB((DocumentDBStandIn) standIn, db, operation, payload, documents, prepared);
+				break;
+			case "storage":
+				op = storage((StorageStandIn) standIn, new Storage(standIn.getUri(), Fixtures.ACCOUNT, MASTER_KEY, transport).setCompressUploads(compression), operation, payload, documents);
+				break;
+			case "search":
+				op = search((SearchStandIn) standIn, new Search(standIn.getUri(), MASTER_KEY, transport), operation, payload, documents);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown service " + service);
+			}
+			//set after seeding so only the load is delayed and throttled
+			standIn.setLatency(Long.parseLong(latency[0]), Long.parseLong(latency[latency.length - 1])).setSpikes(Double.parseDouble(spikes[0]), Long.parseLong(spikes[1])).setThrottleRate(throttle)
+					.setCompressResponses(compression);
+			if (db != null && replicas > 0) {
+				List<URI> readEndpoints = new ArrayList<URI>();
+				for (int i = 0; i < replicas; i++) {
+					readEndpoints.add(standIn.addReplica(Long.parseLong(latency[0]), Long.parseLong(latency[latency.length - 1])));
+				}
+				db.setReadEndpoints(new ReadEndpoints(readEndpoints).setHedgeDelay(hedge));
+			}
+
+			System.out.format("%s %s: %d threads, %ds warm up, %ds, latency %sms, spikes %s, throttle %.3f, payload %,d bytes, %,d documents, compression %b, replicas %d, hedge %dms%n", service, operation,
+					threads, warmup, duration, options.getOrDefault("latency", "0"), options.getOrDefault("spikes", "none"), throttle, payload, documents, compression, replicas, hedge);
+			run(op, threads, warmup, false);
+			long requests = standIn.getRequests();
+			long throttled = standIn.getThrottled();
+			Recorder[] recorders = run(op, threads, duration, true);
+			report(recorders, duration, standIn.getRequests() - requests, standIn.getThrottled() - throttled);
+			System.out.println(transport.getStats());
+			if (transport.getCompression() != null) {
+				System.out.println(transport.getCompression());
+			}
+			if (db != null && db.getReadEndpoints() != null) {
+				System.out.println(db.getReadEndpoints());
+			}
+			if (db != null && db.getQueryCache() != null) {
+				System.out.println(db.getQueryCache());
+			}
+			if (db != null && db.getReadCoalescer() != null) {
+				System.out.println(db.getReadCoalescer());
+			}
+		} finally {
+			transport.close();
+			standIn.close();
+		}
+	}
+
+	static Operation documentDB(DocumentDBStandIn standIn, DocumentDB db, String operation, int payload, int documents, boolean prepared) {
+		String dbRid = db.createDatabase("load").getString("_rid");
+		String collRid = db.createCollection(dbRid, "documents").getString("_rid");
+		List<String> docRids = standIn.seedDocuments(dbRid, collRid, documents, payload);
+		String padding = StandIn.padding(payload - 100);
+		switch (operation) {
+		case "read":
+			return () -> db.getDocument(dbRid, collRid, docRids.get(ThreadLocalRandom.current().nextInt(docRids.size())), JsonObject.class);
+		case "write":
+			return () -> db.createDocument(dbRid, collRid, Json.createObjectBuilder().add("payload", padding).build(), JsonObject.class, null);
+		case "query":
+			return () -> db.queryDocuments(dbRid, collRid, "SELECT * FROM c", null, d -> {
+			}, documents, null);
+		case "lookup":
+			if (prepared) {
+				PreparedQuery lookup = new PreparedQuery("SELECT * FROM c WHERE c.sequence = @sequence");
+				return () -> db.queryDocuments(dbRid, collRid, lookup, JsonObject.class, 10, null, ThreadLocalRandom.current().nextInt(documents));
+			}
+			return () -> {
+				Map<String, String> parameters = new HashMap<String, String>();
+				parameters.put("@sequence", String.valueOf(ThreadLocalRandom.current().nextInt(documents)));
+				db.queryDocuments(dbRid, collRid, "SELECT * FROM c WHERE c.sequence = @sequence", parameters, JsonObject.class, 10, null);
+			};
+		case "batch":
+			List<String> ids = new ArrayList<String>(documents);
+			db.forEachDocument(dbRid, collRid, "SELECT * FROM c", null, documents, d -> ids.add(((JsonObject) d).getString("id")));
+			DocumentBatcher batcher = new DocumentBatcher(db, dbRid, collRid);
+			return () -> batcher.getDocument(ids.get(ThreadLocalRandom.current().nextInt(ids.size()))).join();
+		default:
+			throw new IllegalArgumentException("Unknown documentdb operation " + operation);
+		}
+	}
+
+	static Operation storage(StorageStandIn standIn, Storage storage, String operation, int payload, int documents) {
+		for (int i = 0; i < documents; i++) {
+			standIn.seedBlob("load", "blob" + i, payload);
+		}
+		byte[] content = StandIn.padding(payload).getBytes();
+		switch (operation) {
+		case "read":
+			return () -> {
+				BlobFile blob = storage.getBlob("load", "blob" + ThreadLocalRandom.current().nextInt(documents));
+				try (InputStream is = blob.content) {
+					byte[] buffer = new byte[8192];
+					while (is.read(buffer) != -1) {
+					}
+				}
+			};
+		case "write":
+			return () -> storage.createOrUpdateBlob("load", "upload" + ThreadLocalRandom.current().nextInt(documents), new BlobFile(new ByteArrayInputStream(content), "upload.bin", "application/octet-stream"));
+		default:
+			throw new IllegalArgumentException("Unknown storage operation " + operation);
+		}
+	}
+
+	static Operation search(SearchStandIn standIn, Search search, String operation, int payload, int documents) {
+		standIn.seedDocuments("load", documents, payload);
+		String padding = StandIn.padding(payload - 50);
+		switch (operation) {
+		case "read":
+			return () -> search.lookupDocument("load", String.valueOf(ThreadLocalRandom.current().nextInt(documents)));
+		case "write":
+			return () -> search.processDocuments("load", Json.createObjectBuilder().add("value", Json.createArrayBuilder().add(
+					Json.createObjectBuilder().add("@search.action", "upload").add("id", String.valueOf(ThreadLocalRandom.current().nextInt(documents))).add("name", "updated").add("description", padding)))
+					.build());
+		case "query":
+			return () -> search.searchDocuments("load", new SearchQuery().setSearch("document " + ThreadLocalRandom.current().nextInt(10)).setTop(10));
+		default:
+			throw new IllegalArgumentException("Unknown search operation " + operation);
+		}
+	}
+
+	static Recorder[] run(Operation op, int threads, int seconds, boolean record) throws InterruptedException {
+		Recorder[] recorders = new Recorder[threads];
+		CountDownLatch done = new CountDownLatch(threads);
+		long end = System.nanoTime() + seconds * 1000000000L;
+		for (int t = 0; t < threads; t++) {
+			Recorder recorder = recorders[t] = new Recorder();
+			Thread thread = new Thread(() -> {
+				try {
+					while (System.nanoTime() < end) {
+						long start = System.nanoTime();
+						try {
+							op.run();
+							if (record) {
+								recorder.record(System.nanoTime() - start);
+							}
+						} catch (Exception e) {
+							if (record) {
+								recorder.fail(e);
+							}
+						}
+					}
+				} finally {
+					done.countDown();
+				}
+			}, "load-" + t);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		done.await();
+		return recorders;
+	}
+
+	static void report(Recorder[] recorders, int seconds, long requests, long throttled) {
+		int count = 0;
+		for (Recorder recorder : recorders) {
+			count += recorder.count;
+		}
+		long[] latencies = new long[count];
+		int offset = 0;
+		Map<String, Integer> failures = new TreeMap<String, Integer>();
+		for (Recorder recorder : recorders) {
+			System.arraycopy(recorder.latencies, 0, latencies, offset, recorder.count);
+			offset += recorder.count;
+			recorder.failures.forEach((k, v) -> failures.merge(k, v, Integer::sum));
+		}
+		Arrays.sort(latencies);
+		System.out.format("operations: %,d  throughput: %,.0f ops/s  failures: %s%n", count, count / (double) seconds, failures);
+		System.out.format("stand-in requests: %,d  throttled: %,d%n", requests, throttled);
+		if (count > 0) {
+			System.out.format("latency ms  p50: %.2f  p90: %.2f  p99: %.2f  p99.9: %.2f  max: %.2f%n", percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99), percentile(latencies, 99.9),
+					latencies[count - 1] / 1e6);
+		}
+	}
+
+	static double percentile(long[] sorted, double percentile) {
+		int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+	}
+
+	//per thread so recording is not contended
+	static class Recorder {
+		long[] latencies = new long[1 << 14];
+		int count;
+		final Map<String, Integer> failures = new HashMap<String, Integer>();
+
+		void record(long nanos) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = nanos;
+		}
+
+		void fail(Exception e) {
+			String reason = e instanceof WebApplicationException && ((WebApplicationException) e).getResponse() != null ? "HTTP " + ((WebApplicationException) e).getResponse().getStatus()
+					: e.getClass().getSimpleName();
+			failures.merge(reason, 1, Integer::sum);
+		}
+	}
+
+}
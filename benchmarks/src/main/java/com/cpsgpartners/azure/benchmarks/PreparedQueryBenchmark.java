@@ -0,0 +1,67 @@
+package com.cpsgpartners.azure.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonWriter;
+import javax.json.JsonWriterFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cpsgpartners.azure.documentdb.PreparedQuery;
+
+/*
+ Request body of a parameterized DocumentDB query: the JsonObject of the query and parameters that queryDocuments builds and the JSON-P
+ MessageBodyWriter then writes, here with a cached writer factory, against PreparedQuery splicing the values into its pre-encoded body.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PreparedQueryBenchmark {
+
+	static final String QUERY = "SELECT * FROM c WHERE c.type = @type AND c.sequence = @sequence";
+
+	JsonWriterFactory writerFactory;
+	PreparedQuery prepared;
+
+	@Setup
+	public void setup() {
+		writerFactory = Json.createWriterFactory(Collections.<String, Object> emptyMap());
+		prepared = new PreparedQuery(QUERY);
+	}
+
+	@Benchmark
+	public byte[] jsonObject() {
+		int sequence = ThreadLocalRandom.current().nextInt(100000);
+		JsonObject query = Json.createObjectBuilder().add("query", QUERY)
+				.add("parameters", Json.createArrayBuilder().add(Json.createObjectBuilder().add("name", "@type").add("value", "order")).add(Json.createObjectBuilder().add("name", "@sequence").add("value", sequence)))
+				.build();
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		try (JsonWriter writer = writerFactory.createWriter(os)) {
+			writer.writeObject(query);
+		}
+		return os.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] prepared() {
+		return prepared.body("order", ThreadLocalRandom.current().nextInt(100000));
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.cpsgpartners.azure.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+
+import org.jboss.resteasy.plugins.providers.jackson.ResteasyJackson2Provider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cpsgpartners.azure.documentdb.JQueryResult;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/*
+ JQueryResult deserialization of a query page through the Jackson JAX-RS provider, the path readEntity(JQueryResult.genericType(...)) takes, into
+ a bean and into maps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryResultBenchmark {
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Product {
+		public String id;
+		public String name;
+		public double price;
+		public int quantity;
+		public List<String> tags;
+		public Map<String, String> address;
+		public boolean active;
+		public String notes;
+	}
+
+	static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+	@Param({ "10", "100" })
+	int documents;
+
+	byte[] page;
+	ResteasyJackson2Provider provider;
+	GenericType<JQueryResult<Product>> productType;
+	@SuppressWarnings("rawtypes")
+	GenericType<JQueryResult<Map>> mapType;
+
+	@Setup
+	public void setup() {
+		page = Fixtures.page(documents);
+		provider = new ResteasyJackson2Provider();
+		productType = JQueryResult.genericType(Product.class);
+		mapType = JQueryResult.genericType(Map.class);
+	}
+
+	@Benchmark
+	public Object bean() throws IOException {
+		return read(productType);
+	}
+
+	@Benchmark
+	public Object map() throws IOException {
+		return read(mapType);
+	}
+
+	@SuppressWarnings("unchecked")
+	Object read(GenericType<?> type) throws IOException {
+		return provider.readFrom((Class<Object>) type.getRawType(), type.getType(), NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<String, String>(), new ByteArrayInputStream(page));
+	}
+
+}
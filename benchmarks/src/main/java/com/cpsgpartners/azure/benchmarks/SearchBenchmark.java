@@ -0,0 +1,59 @@
+package com.cpsgpartners.azure.benchmarks;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cpsgpartners.azure.search.Search;
+import com.cpsgpartners.azure.search.Search.SearchQuery;
+
+/*
+ The request URL Search.searchDocuments builds for a simple and a fully specified query.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+	Search search;
+	SearchQuery simple;
+	SearchQuery full;
+
+	@Setup
+	public void setup() {
+		search = new Search(Fixtures.ACCOUNT, Fixtures.MASTER_KEY);
+		simple = new SearchQuery().setSearch("springfield");
+		full = new SearchQuery().setSearch("special edition").setSearchMode(SearchQuery.Mode.ALL).setSearchFields("name", "notes").setSkip(20).setTop(10).setCount(true)
+				.setOrderBy("price desc", "name").setSelect("id", "name", "price").setFacet("tags").setFilter("price lt 100 and active eq true").setHighlight("name");
+	}
+
+	@TearDown
+	public void tearDown() {
+		search.getTransport().close();
+	}
+
+	@Benchmark
+	public URI simpleQuery() {
+		return search.searchTarget("products", simple).getUri();
+	}
+
+	@Benchmark
+	public URI fullQuery() {
+		return search.searchTarget("products", full).getUri();
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.cpsgpartners.azure.benchmarks;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Invocation.Builder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cpsgpartners.azure.storage.Storage;
+
+/*
+ Storage.setSharedKeyLiteHeader for a blob upload, Storage.canonicalize of its headers and Storage.sharedAccessURL in the short and long date
+ formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+
+	Storage storage;
+	WebTarget target;
+	URI uri;
+	MultivaluedMap<String, Object> signedHeaders;
+	ZonedDateTime start;
+	Duration expiry;
+
+	@Setup
+	public void setup() {
+		storage = new Storage(Fixtures.ACCOUNT, Fixtures.MASTER_KEY);
+		target = storage.getTransport().target(String.format(Storage.AZURE_STORAGE_ENDPOINT, Fixtures.ACCOUNT)).path("container").path("folder/blob.json");
+		uri = target.getUri();
+		signedHeaders = headers();
+		signedHeaders.add("x-ms-date", "Tue, 21 Apr 2015 16:11:13 GMT");
+		signedHeaders.add("x-ms-version", Storage.AZURE_STORAGE_VERSION);
+		start = ZonedDateTime.of(2015, 4, 21, 16, 0, 0, 0, ZoneId.of("GMT"));
+		expiry = Duration.ofHours(1);
+	}
+
+	@TearDown
+	public void tearDown() {
+		storage.getTransport().close();
+	}
+
+	static MultivaluedMap<String, Object> headers() {
+		MultivaluedMap<String, Object> headers = new MultivaluedHashMap<String, Object>();
+		headers.add("x-ms-blob-type", "BlockBlob");
+		headers.add("x-ms-blob-content-type", "application/json");
+		headers.add("x-ms-meta-Owner", "benchmark");
+		return headers;
+	}
+
+	@Benchmark
+	public Builder setSharedKeyLiteHeader() {
+		Builder builder = target.request();
+		storage.setSharedKeyLiteHeader(uri, builder, "PUT", "application/json", headers());
+		return builder;
+	}
+
+	@Benchmark
+	public StringBuilder canonicalize() {
+		StringBuilder stringToSign = new StringBuilder(256);
+		Storage.canonicalize(stringToSign, signedHeaders);
+		return stringToSign;
+	}
+
+	@Benchmark
+	public String sharedAccessURL() {
+		return storage.sharedAccessURL("container", "folder/blob.json", "r", start, expiry, false);
+	}
+
+	@Benchmark
+	public String sharedAccessURLLongFormat() {
+		return storage.sharedAccessURL("container", "folder/blob.json", "r", start, expiry, true);
+	}
+
+}
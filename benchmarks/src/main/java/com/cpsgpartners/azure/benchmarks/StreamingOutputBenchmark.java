@@ -0,0 +1,235 @@
+package com.cpsgpartners.azure.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cpsgpartners.azure.documentdb.AzureStreamingOutput;
+import com.cpsgpartners.azure.documentdb.ParsedAzureStreamingOutput;
+
+/*
+ AzureStreamingOutput pass-through and ParsedAzureStreamingOutput copy and projection of a query page into a discarding stream, so only the
+ streaming itself is measured and allocated. legacyPassThrough is the 1 KB buffer and BufferedWriter copy of the original AzureStreamingOutput,
+ the baseline of passThrough, and legacyParsedCopy the JsonParser and JsonGenerator re-emission of the original ParsedAzureStreamingOutput, the
+ baseline of parsedCopy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamingOutputBenchmark {
+
+	@Param({ "100", "1000" })
+	int documents;
+
+	byte[] page;
+	ParsedAzureStreamingOutput copy;
+	ParsedAzureStreamingOutput projected;
+
+	@Setup
+	public void setup() {
+		page = Fixtures.page(documents);
+		copy = new ParsedAzureStreamingOutput(null);
+		projected = new ParsedAzureStreamingOutput(null).setDropSystemProperties(true).setInclude("id", "name", "price", "tags", "address.city").setRename("name", "displayName");
+	}
+
+	@Benchmark
+	public long passThrough() throws IOException {
+		DiscardingOutputStream os = new DiscardingOutputStream();
+		AzureStreamingOutput.write(new ByteArrayInputStream(page), "token", os);
+		return os.count;
+	}
+
+	@Benchmark
+	public long legacyPassThrough() throws IOException {
+		DiscardingOutputStream os = new DiscardingOutputStream();
+		legacyPassThrough(new ByteArrayInputStream(page), "token", os);
+		return os.count;
+	}
+
+	@Benchmark
+	public long parsedCopy() throws IOException {
+		DiscardingOutputStream os = new DiscardingOutputStream();
+		copy.write(new ByteArrayInputStream(page), "token", os);
+		return os.count;
+	}
+
+	@Benchmark
+	public long legacyParsedCopy() throws IOException {
+		DiscardingOutputStream os = new DiscardingOutputStream();
+		legacyParsedCopy(new ByteArrayInputStream(page), "token", os);
+		return os.count;
+	}
+
+	@Benchmark
+	public long parsedProjection() throws IOException {
+		DiscardingOutputStream os = new DiscardingOutputStream();
+		projected.write(new ByteArrayInputStream(page), "token", os);
+		return os.count;
+	}
+
+	//AzureStreamingOutput.write before the rework, reading the page from a stream rather than a Response
+	static void legacyPassThrough(InputStream is, String continuationAzureToken, OutputStream os) throws IOException {
+		try {
+			if (continuationAzureToken != null) {
+				//read the first, character,
+				if (is.read() != -1) {
+
+					Writer writer = new BufferedWriter(new OutputStreamWriter(os));
+					writer.write("{");
+
+					if (continuationAzureToken != null) {
+						writer.write("_continuation: \"");
+						writer.write(continuationAzureToken);
+						writer.write("\",");
+					}
+					writer.flush();
+
+				}
+
+			}
+			byte[] buffer = new byte[1024];
+			int bytesRead;
+			while ((bytesRead = is.read(buffer)) != -1) // test for EOF or end reached
+			{
+				os.write(buffer, 0, bytesRead);
+			}
+		} finally {
+			is.close();
+		}
+		os.flush();
+		os.close();
+	}
+
+	//ParsedAzureStreamingOutput.write before the tokenizer, reading the page from a stream rather than a Response
+	static void legacyParsedCopy(InputStream is, String continuationAzureToken, OutputStream os) throws IOException {
+		try {
+			JsonGenerator jg = Json.createGenerator(os);
+
+			JsonParser jr = Json.createParser(is);
+
+			//insert continuation at the beginning
+			if (continuationAzureToken != null && jr.hasNext()) {
+				Event event = jr.next();
+				if (Event.START_OBJECT == event) {
+					jg.writeStartObject();
+					jg.write("_continuation", continuationAzureToken);
+				}
+			}
+
+			// Clone the rest.
+			String currentKey = null;
+			while (jr.hasNext()) {
+				Event event = jr.next();
+				switch (event) {
+				case END_ARRAY:
+					jg.writeEnd();
+					break;
+				case END_OBJECT:
+					jg.writeEnd();
+					break;
+				case KEY_NAME:
+					currentKey = jr.getString();
+					break;
+				case START_ARRAY:
+					if (currentKey != null) {
+						jg.writeStartArray(currentKey);
+						currentKey = null;
+					} else
+						jg.writeStartArray();
+					break;
+				case START_OBJECT:
+					if (currentKey != null) {
+						jg.writeStartObject(currentKey);
+						currentKey = null;
+					} else
+						jg.writeStartObject();
+					break;
+				case VALUE_FALSE:
+					if (currentKey != null) {
+						jg.write(currentKey, false);
+						currentKey = null;
+					} else
+						jg.write(false);
+					break;
+				case VALUE_NULL:
+					if (currentKey != null) {
+						jg.writeNull(currentKey);
+						currentKey = null;
+					} else
+						jg.writeNull();
+					break;
+				case VALUE_NUMBER:
+					if (currentKey != null) {
+						jg.write(currentKey, jr.getBigDecimal());
+						currentKey = null;
+					} else
+						jg.write(jr.getBigDecimal());
+					break;
+				case VALUE_STRING:
+					if (currentKey != null) {
+						jg.write(currentKey, jr.getString());
+						currentKey = null;
+					} else
+						jg.write(jr.getString());
+					break;
+				case VALUE_TRUE:
+					if (currentKey != null) {
+						jg.write(currentKey, true);
+						currentKey = null;
+					} else
+						jg.write(true);
+					break;
+				default:
+					break;
+				}
+			}
+			//the original never flushed the generator and lost the tail it buffered, flushed so both write the whole page
+			jg.flush();
+		} finally {
+			is.close();
+		}
+		os.flush();
+		os.close();
+	}
+
+	//keeps the output buffer out of the allocation figures
+	static class DiscardingOutputStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+import javax.ws.rs.client.WebTarget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ The cached ResourceLink of a feed and a document, and DocumentDB.parse, against the String.format path, WebTarget chain and
+ DOCUMENTDB_URI_PATTERN regex the original DocumentDB ran for every request. The legacy methods also derive the signing path and lease URI
+ the original operation method took from the target. In the documentdb package as the links are not public.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResourceLinkBenchmark {
+
+	static final String ACCOUNT = "account";
+	static final String MASTER_KEY = Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef".getBytes());
+	static final String DB = "d9RzAA==";
+	static final String COLL = "d9RzAJRFKgw=";
+	static final String DOC = "d9RzAJRFKgwBAAAAAAAAAA==";
+	static final String SELF = "dbs/" + DB + "/colls/" + COLL + "/docs/" + DOC + "/";
+
+	DocumentDB db;
+	WebTarget endpoint;
+
+	@Setup
+	public void setup() {
+		db = new DocumentDB(ACCOUNT, MASTER_KEY, DocumentDB.ConsistencyLevel.Session);
+		endpoint = db.getTransport().target(String.format(DocumentDB.AZURE_DOCUMENTDB_ENDPOINT, ACCOUNT));
+	}
+
+	@TearDown
+	public void tearDown() {
+		db.getTransport().close();
+	}
+
+	@Benchmark
+	public ResourceLink feed() {
+		return db.collection(DB, COLL).docs;
+	}
+
+	@Benchmark
+	public void legacyFeed(Blackhole bh) {
+		legacy(endpoint, String.format("/dbs/%s/colls/%s/docs/", DB, COLL), bh);
+	}
+
+	@Benchmark
+	public ResourceLink document() {
+		return db.collection(DB, COLL).document(DOC);
+	}
+
+	@Benchmark
+	public void legacyDocument(Blackhole bh) {
+		legacy(endpoint, String.format("/dbs/%s/colls/%s/docs/%s/", DB, COLL, DOC), bh);
+	}
+
+	@Benchmark
+	public DocumentDB.Id parse() {
+		return DocumentDB.parse(SELF);
+	}
+
+	@Benchmark
+	public DocumentDB.Id legacyParse() {
+		Matcher m = DocumentDB.DOCUMENTDB_URI_PATTERN.matcher(SELF);
+		if (m.matches()) {
+			return new DocumentDB.Id(m.group(1) != null ? m.group(1) : "", m.group(3) != null ? m.group(3) : "", m.group(5) != null ? m.group(5) : "", m.group(6) != null ? m.group(6) : "",
+					m.group(8) != null ? m.group(8) : "");
+		}
+		return null;
+	}
+
+	//the target, signing path and lease URI the original operation method derived for each request
+	static void legacy(WebTarget endpoint, String path, Blackhole bh) {
+		WebTarget target = endpoint.path(path);
+		bh.consume(target.getUri().getPath());
+		bh.consume(target.getUri());
+	}
+
+}
@@ -0,0 +1,423 @@
+package com.cpsgpartners.azure.standin;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+
+/**
+ Local stand-in for the DocumentDB REST API subset used by DocumentDB: databases, collections, documents, attachments, stored procedures, triggers
+ and user defined functions can be created, read, replaced, listed and deleted by _rid or id, and documents queried with paging through
+ x-ms-max-item-count and x-ms-continuation. Queries only support a single WHERE r.field = value or r.field IN (values) condition, anything else
+ returns every document of the collection. Stored procedures, triggers and functions are stored but executing a stored procedure echoes its input.
+ Attachments posted with a non JSON content type keep the raw media, which is read with Range support and replaced through its /media/{mediaId}
+ link. Resources are kept in memory, and If-Match and If-None-Match are honored.
+
+ for example,
+
+ DocumentDBStandIn standIn = new DocumentDBStandIn();
+ standIn.setLatency(1, 5).start();
+ DocumentDB db = new DocumentDB(standIn.getUri(), masterKey, ConsistencyLevel.Session, transport);
+ String dbRid = db.createDatabase("load").getString("_rid");
+ String collRid = db.createCollection(dbRid, "orders").getString("_rid");
+ List<String> docRids = standIn.seedDocuments(dbRid, collRid, 10000, 1024);
+
+ */
+public class DocumentDBStandIn extends StandIn {
+
+	static final Map<String, String> FEEDS = new HashMap<String, String>();
+	static final Map<String, String[]> CHILDREN = new HashMap<String, String[]>();
+	static {
+		FEEDS.put("dbs", "Databases");
+		FEEDS.put("colls", "DocumentCollections");
+		FEEDS.put("docs", "Documents");
+		FEEDS.put("attachments", "Attachments");
+		FEEDS.put("sprocs", "StoredProcedures");
+		FEEDS.put("triggers", "Triggers");
+		FEEDS.put("udfs", "UserDefinedFunctions");
+		FEEDS.put("users", "Users");
+		FEEDS.put("permissions", "Permissions");
+		CHILDREN.put("dbs", new String[] { "colls", "users" });
+		CHILDREN.put("colls", new String[] { "docs", "sprocs", "triggers", "udfs" });
+		CHILDREN.put("docs", new String[] { "attachments" });
+		CHILDREN.put("users", new String[] { "permissions" });
+	}
+
+	static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+	static final Pattern WHERE = Pattern.compile("(?is).*\\bWHERE\\s+\\w+\\.(\\w+)\\s*(=|IN)\\s*(\\(.*\\)|\\S+)\\s*$");
+
+	static class Resource {
+		final String rid;
+		final String id;
+		final String etag;
+		final JsonObject json;
+		final String text;
+
+		Resource(String rid, String id, String etag, JsonObject json) {
+			this.rid = rid;
+			this.id = id;
+			this.etag = etag;
+			this.json = json;
+			this.text = write(json);
+		}
+	}
+
+	static class Media {
+		final String contentType;
+		final byte[] content;
+
+		Media(String contentType, byte[] content) {
+			this.contentType = contentType;
+			this.content = content;
+		}
+	}
+
+	//resources by feed path, i.e. dbs/{dbRid}/colls, and _rid
+	private final Map<String, NavigableMap<String, Resource>> feeds = new ConcurrentHashMap<String, NavigableMap<String, Resource>>();
+	//raw attachment media by media id
+	private final Map<String, Media> media = new ConcurrentHashMap<String, Media>();
+	private final AtomicLong rids = new AtomicLong();
+	private final AtomicLong lsn = new AtomicLong();
+
+	public DocumentDBStandIn() {
+		this(0);
+	}
+
+	public DocumentDBStandIn(int port) {
+		super(port);
+		feeds.put("dbs", new ConcurrentSkipListMap<String, Resource>());
+	}
+
+	//adds documents with an id, a sequence number and a payload field padded so each document is about payloadBytes long, returns their _rids
+	public List<String> seedDocuments(String dbResourceId, String collectionResId, int count, int payloadBytes) {
+		NavigableMap<String, Resource> docs = feeds.get("dbs/" + dbResourceId + "/colls/" + collectionResId + "/docs");
+		if (docs == null) {
+			throw new IllegalArgumentException("Unknown collection dbs/" + dbResourceId + "/colls/" + collectionResId);
+		}
+		String payload = padding(payloadBytes - 200);
+		List<String> seeded = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			JsonObject document = Json.createObjectBuilder().add("id", UUID.randomUUID().toString()).add("sequence", i).add("payload", payload).build();
+			seeded.add(create(docs, "dbs/" + dbResourceId + "/colls/" + collectionResId + "/docs", "docs", document).rid);
+		}
+		return seeded;
+	}
+
+	@Override
+	protected String authorizationHeader() {
+		return "Authorization";
+	}
+
+	@Override
+	protected Reply serve(Request request) {
+		String path = request.path;
+		while (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		while (path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		String[] segments = path.isEmpty() ? new String[0] : path.split("/");
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = decode(segments[i]);
+		}
+		if (segments.length == 0) {
+			return error(404, "NotFound", "Unknown path");
+		}
+		if ("media".equals(segments[0])) {
+			return segments.length == 2 ? media(request, segments[1]) : error(404, "NotFound", "Unknown path");
+		}
+		//resolves names to _rids so feed keys are always _rid based
+		StringBuilder feedPath = new StringBuilder();
+		Resource resource = null;
+		for (int i = 0; i + 1 < segments.length; i += 2) {
+			NavigableMap<String, Resource> feed = feeds.get(feedPath.append(segments[i]).toString());
+			resource = feed != null ? find(feed, segments[i + 1]) : null;
+			if (resource == null) {
+				return error(404, "NotFound", "Resource Not Found");
+			}
+			if (i + 2 < segments.length) {
+				feedPath.append('/').append(resource.rid).append('/');
+			}
+		}
+		String type = segments[segments.length % 2 == 0 ? segments.length - 2 : segments.length - 1];
+		if (!FEEDS.containsKey(type)) {
+			return error(404, "NotFound", "Unknown resource type " + type);
+		}
+		if (segments.length % 2 == 1) {
+			String key = feedPath.append(type).toString();
+			NavigableMap<String, Resource> feed = feeds.get(key);
+			if (feed == null) {
+				return error(404, "NotFound", "Resource Not Found");
+			}
+			return feed(request, key, type, feed, resource);
+		}
+		return resource(request, feedPath.toString(), type, resource);
+	}
+
+	private Reply feed(Request request, String key, String type, NavigableMap<String, Resource> feed, Resource owner) {
+		switch (request.method) {
+		case "GET":
+			return page(request, type, feed.values(), owner);
+		case "POST":
+			if ("true".equalsIgnoreCase(request.header("x-ms-documentdb-isquery"))) {
+				return page(request, type, query(feed, read(request.body())), owner);
+			}
+			String contentType = request.header("Content-Type");
+			if ("attachments".equals(type) && contentType != null && !contentType.startsWith("application/json")) {
+				return createMedia(request, key, type, feed, contentType);
+			}
+			JsonObject body = read(request.body());
+			String id = body.getString("id", UUID.randomUUID().toString());
+			if (find(feed, id) != null) {
+				return error(409, "Conflict", "Resource with specified id or name already exists");
+			}
+			return ok(201, create(feed, key, type, body));
+		default:
+			return error(405, "MethodNotAllowed", request.method);
+		}
+	}
+
+	private Reply resource(Request request, String feedPath, String type, Resource resource) {
+		NavigableMap<String, Resource> feed = feeds.get(feedPath);
+		switch (request.method) {
+		case "GET":
+		case "HEAD":
+			if (resource.etag.equals(request.header("If-None-Match"))) {
+				return new Reply(304, null).header("ETag", resource.etag);
+			}
+			return ok(200, resource);
+		case "PUT":
+			if (!matches(request, resource)) {
+				return error(412, "PreconditionFailed", "Operation cannot be performed because one of the specified precondition is not met");
+			}
+			JsonObject body = read(request.body());
+			Resource replaced = resource(body, body.getString("id", resource.id), resource.rid, self(feedPath, resource.rid), type);
+			feed.put(resource.rid, replaced);
+			return ok(200, replaced);
+		case "DELETE":
+			if (!matches(request, resource)) {
+				return error(412, "PreconditionFailed", "Operation cannot be performed because one of the specified precondition is not met");
+			}
+			feed.remove(resource.rid);
+			if ("attachments".equals(type) && resource.json.getString("media", "").startsWith("/media/")) {
+				media.remove(resource.json.getString("media").substring(7));
+			}
+			String prefix = feedPath + "/" + resource.rid + "/";
+			feeds.keySet().removeIf(k -> k.startsWith(prefix));
+			return new Reply(204, null).header("x-ms-request-charge", "1").header("x-ms-session-token", "0:" + lsn.incrementAndGet());
+		case "POST":
+			if (!"sprocs".equals(type)) {
+				return error(405, "MethodNotAllowed", request.method);
+			}
+			return new Reply(200, "application/json", request.body.length > 0 ? request.body() : "{}").header("x-ms-request-charge", "1");
+		default:
+			return error(405, "MethodNotAllowed", request.method);
+		}
+	}
+
+	private Reply createMedia(Request request, String key, String type, NavigableMap<String, Resource> feed, String contentType) {
+		String id = request.header("Slug") != null ? request.header("Slug") : UUID.randomUUID().toString();
+		if (find(feed, id) != null) {
+			return error(409, "Conflict", "Resource with specified id or name already exists");
+		}
+		String mediaId = rid();
+		media.put(mediaId, new Media(contentType, request.body));
+		return ok(201, create(feed, key, type, Json.createObjectBuilder().add("id", id).add("contentType", contentType).add("media", "/media/" + mediaId).build()));
+	}
+
+	private Reply media(Request request, String mediaId) {
+		Media stored = media.get(mediaId);
+		if (stored == null) {
+			return error(404, "NotFound", "Resource Not Found");
+		}
+		switch (request.method) {
+		case "GET":
+		case "HEAD":
+			Matcher m = request.header("Range") != null ? RANGE.matcher(request.header("Range").trim()) : null;
+			if (m == null || !m.matches() || (m.group(1).isEmpty() && m.group(2).isEmpty())) {
+				return new Reply(200, stored.content).header("Content-Type", stored.contentType).header("Accept-Ranges", "bytes").header("x-ms-request-charge", "1");
+			}
+			int total = stored.content.length;
+			//bytes=-{n} is the last n bytes
+			int first = m.group(1).isEmpty() ? Math.max(0, total - Integer.parseInt(m.group(2))) : Integer.parseInt(m.group(1));
+			int last = m.group(1).isEmpty() || m.group(2).isEmpty() ? total - 1 : (int) Math.min(total - 1L, Long.parseLong(m.group(2)));
+			if (first >= total || first > last) {
+				return new Reply(416, null).header("Content-Range", "bytes */" + total);
+			}
+			return new Reply(206, Arrays.copyOfRange(stored.content, first, last + 1)).header("Content-Type", stored.contentType).header("Content-Range", "bytes " + first + "-" + last + "/" + total)
+					.header("x-ms-request-charge", "1");
+		case "PUT":
+			String contentType = request.header("Content-Type");
+			media.put(mediaId, new Media(contentType != null ? contentType : stored.contentType, request.body));
+			return new Reply(200, "application/json", "{\"id\":\"" + mediaId + "\"}").header("x-ms-request-charge", "1").header("x-ms-session-token", "0:" + lsn.incrementAndGet());
+		default:
+			return error(405, "MethodNotAllowed", request.method);
+		}
+	}
+
+	private Resource create(NavigableMap<String, Resource> feed, String key, String type, JsonObject body) {
+		String rid = rid();
+		Resource resource = resource(body, body.getString("id", rid), rid, self(key, rid), type);
+		String[] children = CHILDREN.get(type);
+		if (children != null) {
+			for (String child : children) {
+				feeds.put(key + "/" + rid + "/" + child, new ConcurrentSkipListMap<String, Resource>());
+			}
+		}
+		feed.put(rid, resource);
+		return resource;
+	}
+
+	private Resource resource(JsonObject body, String id, String rid, String self, String type) {
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		for (Map.Entry<String, JsonValue> entry : body.entrySet()) {
+			if (!entry.getKey().startsWith("_")) {
+				builder.add(entry.getKey(), entry.getValue());
+			}
+		}
+		String etag = "\"" + UUID.randomUUID() + "\"";
+		builder.add("id", id).add("_rid", rid).add("_self", self).add("_etag", etag).add("_ts", System.currentTimeMillis() / 1000);
+		String[] children = CHILDREN.get(type);
+		if (children != null) {
+			for (String child : children) {
+				builder.add("_" + child, child + "/");
+			}
+		}
+		return new Resource(rid, id, etag, builder.build());
+	}
+
+	private Reply page(Request request, String type, Iterable<Resource> resources, Resource owner) {
+		int max = request.header("x-ms-max-item-count") != null ? Integer.parseInt(request.header("x-ms-max-item-count")) : 100;
+		if (max <= 0) {
+			max = 100;
+		}
+		int skip = request.header("x-ms-continuation") != null ? Integer.parseInt(request.header("x-ms-continuation")) : 0;
+		StringBuilder page = new StringBuilder("{\"_rid\":\"").append(owner != null ? owner.rid : "").append("\",\"").append(FEEDS.get(type)).append("\":[");
+		int index = 0;
+		int count = 0;
+		boolean more = false;
+		for (Resource resource : resources) {
+			if (index++ < skip) {
+				continue;
+			}
+			if (count == max) {
+				more = true;
+				break;
+			}
+			if (count++ > 0) {
+				page.append(',');
+			}
+			page.append(resource.text);
+		}
+		page.append("],\"_count\":").append(count).append('}');
+		return new Reply(200, "application/json", page.toString()).header("x-ms-item-count", count).header("x-ms-continuation", more ? String.valueOf(skip + count) : null)
+				.header("x-ms-request-charge", Math.max(1, count)).header("x-ms-session-token", "0:" + lsn.get());
+	}
+
+	//the documents matching the single condition of the query
+	private static List<Resource> query(NavigableMap<String, Resource> feed, JsonObject query) {
+		List<Resource> matches = new ArrayList<Resource>();
+		Map<String, JsonValue> parameters = new HashMap<String, JsonValue>();
+		JsonArray parameterList = query.getJsonArray("parameters");
+		if (parameterList != null) {
+			for (JsonValue value : parameterList) {
+				JsonObject parameter = (JsonObject) value;
+				parameters.put(parameter.getString("name"), parameter.get("value"));
+			}
+		}
+		Matcher m = WHERE.matcher(query.getString("query", ""));
+		if (!m.matches()) {
+			matches.addAll(feed.values());
+			return matches;
+		}
+		List<String> values = new ArrayList<String>();
+		String operand = m.group(3);
+		for (String value : "=".equals(m.group(2)) ? new String[] { operand } : operand.substring(1, operand.length() - 1).split(",")) {
+			value = value.trim();
+			JsonValue parameter = parameters.get(value);
+			if (parameter != null) {
+				values.add(parameter instanceof JsonString ? ((JsonString) parameter).getString() : parameter.toString());
+			} else {
+				values.add(value.replaceAll("^['\"]|['\"]$", ""));
+			}
+		}
+		for (Resource resource : feed.values()) {
+			JsonValue field = resource.json.get(m.group(1));
+			if (field != null && values.contains(field instanceof JsonString ? ((JsonString) field).getString() : field.toString())) {
+				matches.add(resource);
+			}
+		}
+		return matches;
+	}
+
+	private Reply ok(int status, Resource resource) {
+		return new Reply(status, "application/json", resource.text).header("ETag", resource.etag).header("x-ms-request-charge", "1").header("x-ms-session-token", "0:" + lsn.incrementAndGet());
+	}
+
+	private static Reply error(int status, String code, String message) {
+		return new Reply(status, "application/json", "{\"code\":\"" + code + "\",\"message\":\"" + message + "\"}");
+	}
+
+	private static boolean matches(Request request, Resource resource) {
+		String ifMatch = request.header("If-Match");
+		return ifMatch == null || ifMatch.equals(resource.etag);
+	}
+
+	private static Resource find(NavigableMap<String, Resource> feed, String ridOrId) {
+		Resource resource = feed.get(ridOrId);
+		if (resource == null) {
+			for (Resource candidate : feed.values()) {
+				if (candidate.id.equals(ridOrId)) {
+					return candidate;
+				}
+			}
+		}
+		return resource;
+	}
+
+	private static String self(String feedPath, String rid) {
+		return feedPath + "/" + rid + "/";
+	}
+
+	//URL safe so _rids never contain a /
+	private String rid() {
+		return Base64.getUrlEncoder().encodeToString(ByteBuffer.allocate(8).putLong(rids.incrementAndGet()).array());
+	}
+
+	private static JsonObject read(String json) {
+		try (JsonReader reader = Json.createReader(new StringReader(json.isEmpty() ? "{}" : json))) {
+			return reader.readObject();
+		}
+	}
+
+	private static String write(JsonObject json) {
+		StringWriter sw = new StringWriter();
+		try (JsonWriter writer = Json.createWriter(sw)) {
+			writer.writeObject(json);
+		}
+		return sw.toString();
+	}
+
+}
@@ -0,0 +1,265 @@
+package com.cpsgpartners.azure.standin;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ Local stand-in for the Search REST API subset used by Search: indexes can be created, read, listed, updated and deleted, documents uploaded,
+ merged and deleted in batches, looked up by key, searched and suggested. Search matches documents with a string field containing the search text,
+ ignoring case, or every document for * or no search text, and honors $top, $skip, $count and $select. Suggest matches string fields starting
+ with the search text. The api-key header must be present but is not verified.
+
+ for example,
+
+ SearchStandIn standIn = new SearchStandIn();
+ standIn.start();
+ Search search = new Search(standIn.getUri(), apiKey, transport);
+ standIn.seedDocuments("products", 1000, 512);
+
+ */
+public class SearchStandIn extends StandIn {
+
+	static class Index {
+		final JsonObject definition;
+		final String key;
+		//documents by key
+		final NavigableMap<String, JsonObject> documents = new ConcurrentSkipListMap<String, JsonObject>();
+
+		Index(JsonObject definition) {
+			this.definition = definition;
+			String key = "id";
+			if (definition.getJsonArray("fields") != null) {
+				for (JsonValue value : definition.getJsonArray("fields")) {
+					JsonObject field = (JsonObject) value;
+					if (field.getBoolean("key", false)) {
+						key = field.getString("name");
+					}
+				}
+			}
+			this.key = key;
+		}
+	}
+
+	private final Map<String, Index> indexes = new ConcurrentHashMap<String, Index>();
+
+	public SearchStandIn() {
+		this(0);
+	}
+
+	public SearchStandIn(int port) {
+		super(port);
+	}
+
+	//adds documents with an id key, a name and a description padded so each document is about payloadBytes long, creating the index if needed
+	public void seedDocuments(String indexName, int count, int payloadBytes) {
+		Index index = indexes.computeIfAbsent(indexName, n -> new Index(Json.createObjectBuilder().add("name", n)
+				.add("fields", Json.createArrayBuilder().add(Json.createObjectBuilder().add("name", "id").add("type", "Edm.String").add("key", true))
+						.add(Json.createObjectBuilder().add("name", "name").add("type", "Edm.String")).add(Json.createObjectBuilder().add("name", "description").add("type", "Edm.String")))
+				.build()));
+		String description = padding(payloadBytes - 50);
+		for (int i = 0; i < count; i++) {
+			String id = String.valueOf(i);
+			index.documents.put(id, Json.createObjectBuilder().add(index.key, id).add("name", "document " + i).add("description", description).build());
+		}
+	}
+
+	@Override
+	protected String authorizationHeader() {
+		return "api-key";
+	}
+
+	@Override
+	protected Reply serve(Request request) {
+		String path = request.path.startsWith("/") ? request.path.substring(1) : request.path;
+		String[] segments = path.isEmpty() ? new String[0] : path.split("/");
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = decode(segments[i]);
+		}
+		if (segments.length == 0 || !"indexes".equals(segments[0])) {
+			return error(404, "Unknown path");
+		}
+		if (segments.length == 1) {
+			switch (request.method) {
+			case "GET":
+				JsonArrayBuilder value = Json.createArrayBuilder();
+				for (Index index : indexes.values()) {
+					value.add(index.definition);
+				}
+				return json(200, Json.createObjectBuilder().add("value", value).build());
+			case "POST":
+				JsonObject definition = read(request.body());
+				if (indexes.putIfAbsent(definition.getString("name"), new Index(definition)) != null) {
+					return error(409, "Index already exists");
+				}
+				return json(201, definition);
+			default:
+				return error(405, request.method);
+			}
+		}
+		Index index = indexes.get(segments[1]);
+		if (segments.length == 2) {
+			switch (request.method) {
+			case "GET":
+				return index != null ? json(200, index.definition) : error(404, "No index with the name '" + segments[1] + "' was found");
+			case "PUT":
+				Index updated = new Index(read(request.body()));
+				if (index != null) {
+					updated.documents.putAll(index.documents);
+				}
+				return indexes.put(segments[1], updated) != null ? new Reply(204, null) : json(201, updated.definition);
+			case "DELETE":
+				return indexes.remove(segments[1]) != null ? new Reply(204, null) : error(404, "No index with the name '" + segments[1] + "' was found");
+			default:
+				return error(405, request.method);
+			}
+		}
+		if (index == null) {
+			return error(404, "No index with the name '" + segments[1] + "' was found");
+		}
+		if (!"docs".equals(segments[2])) {
+			return error(404, "Unknown path");
+		}
+		if (segments.length == 3) {
+			return search(request, index);
+		}
+		if (segments.length == 4 && "index".equals(segments[3]) && "POST".equals(request.method)) {
+			return index(request, index);
+		}
+		if (segments.length == 4 && "suggest".equals(segments[3])) {
+			return suggest(request, index);
+		}
+		JsonObject document = index.documents.get(segments[3]);
+		return document != null ? json(200, select(document, request.query.get("$select"))) : error(404, "Document not found");
+	}
+
+	private Reply index(Request request, Index index) {
+		JsonArrayBuilder results = Json.createArrayBuilder();
+		for (JsonValue value : read(request.body()).getJsonArray("value")) {
+			JsonObject action = (JsonObject) value;
+			String key = action.getString(index.key);
+			JsonObjectBuilder document = Json.createObjectBuilder();
+			JsonObject existing = index.documents.get(key);
+			String type = action.getString("@search.action", "upload");
+			if ("merge".equals(type) || "mergeOrUpload".equals(type)) {
+				if (existing != null) {
+					copy(existing, document);
+				} else if ("merge".equals(type)) {
+					results.add(Json.createObjectBuilder().add("key", key).add("status", false).add("errorMessage", "Document not found."));
+					continue;
+				}
+			}
+			if ("delete".equals(type)) {
+				index.documents.remove(key);
+			} else {
+				copy(action, document);
+				index.documents.put(key, document.build());
+			}
+			results.add(Json.createObjectBuilder().add("key", key).add("status", true).addNull("errorMessage"));
+		}
+		return json(200, Json.createObjectBuilder().add("value", results).build());
+	}
+
+	private Reply search(Request request, Index index) {
+		String search = request.query.get("search");
+		boolean all = search == null || search.trim().isEmpty() || "*".equals(search.trim());
+		int skip = request.query.containsKey("$skip") ? Integer.parseInt(request.query.get("$skip")) : 0;
+		int top = request.query.containsKey("$top") ? Integer.parseInt(request.query.get("$top")) : 50;
+		List<JsonObject> matches = new ArrayList<JsonObject>();
+		for (JsonObject document : index.documents.values()) {
+			if (all || contains(document, search.toLowerCase(Locale.ROOT))) {
+				matches.add(document);
+			}
+		}
+		JsonArrayBuilder value = Json.createArrayBuilder();
+		for (int i = skip; i < matches.size() && i < skip + top; i++) {
+			JsonObjectBuilder result = Json.createObjectBuilder().add("@search.score", 1.0);
+			copy(select(matches.get(i), request.query.get("$select")), result);
+			value.add(result);
+		}
+		JsonObjectBuilder results = Json.createObjectBuilder();
+		if ("true".equals(request.query.get("$count"))) {
+			results.add("@odata.count", matches.size());
+		}
+		return json(200, results.add("value", value).build());
+	}
+
+	private Reply suggest(Request request, Index index) {
+		String search = request.query.getOrDefault("search", "").toLowerCase(Locale.ROOT);
+		int top = request.query.containsKey("$top") ? Integer.parseInt(request.query.get("$top")) : 5;
+		JsonArrayBuilder value = Json.createArrayBuilder();
+		int count = 0;
+		for (JsonObject document : index.documents.values()) {
+			if (count == top) {
+				break;
+			}
+			for (Map.Entry<String, JsonValue> field : document.entrySet()) {
+				if (field.getValue() instanceof JsonString && ((JsonString) field.getValue()).getString().toLowerCase(Locale.ROOT).startsWith(search)) {
+					value.add(Json.createObjectBuilder().add("@search.text", field.getValue()).add(index.key, document.get(index.key)));
+					count++;
+					break;
+				}
+			}
+		}
+		return json(200, Json.createObjectBuilder().add("value", value).build());
+	}
+
+	private static boolean contains(JsonObject document, String search) {
+		for (JsonValue value : document.values()) {
+			if (value instanceof JsonString && ((JsonString) value).getString().toLowerCase(Locale.ROOT).contains(search)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static JsonObject select(JsonObject document, String select) {
+		if (select == null || select.isEmpty()) {
+			return document;
+		}
+		JsonObjectBuilder selected = Json.createObjectBuilder();
+		for (String field : select.split(",")) {
+			JsonValue value = document.get(field.trim());
+			if (value != null) {
+				selected.add(field.trim(), value);
+			}
+		}
+		return selected.build();
+	}
+
+	private static void copy(JsonObject from, JsonObjectBuilder to) {
+		for (Map.Entry<String, JsonValue> entry : from.entrySet()) {
+			if (!entry.getKey().startsWith("@")) {
+				to.add(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private static Reply json(int status, JsonObject json) {
+		return new Reply(status, "application/json; odata.metadata=none", json.toString());
+	}
+
+	private static Reply error(int status, String message) {
+		return new Reply(status, "application/json", "{\"error\":{\"code\":\"\",\"message\":\"" + message.replace("\"", "'") + "\"}}");
+	}
+
+	private static JsonObject read(String json) {
+		try (JsonReader reader = Json.createReader(new StringReader(json))) {
+			return reader.readObject();
+		}
+	}
+
+}
@@ -0,0 +1,316 @@
+package com.cpsgpartners.azure.standin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ Base of the local HTTP stand-ins for the Azure REST services, built on the JDK HttpServer and bound to the loopback address. Every request is
+ delayed by a random latency between the configured minimum and maximum, a fraction of them by a further latency spike, and a configurable fraction
+ of the requests is answered with 429 Too Many Requests and an x-ms-retry-after-ms header instead of being served, so client retries and throttling
+ behaviour can be load tested. Replicas are further endpoints serving the same resources with their own latency, standing in for read regions or
+ slow replicas. Responses can be gzip encoded for clients that accept it. Authorization headers must be present but signatures are not verified.
+
+ for example,
+
+ try (DocumentDBStandIn standIn = new DocumentDBStandIn()) {
+ 	standIn.setLatency(2, 10).setThrottleRate(0.01).start();
+ 	DocumentDB db = new DocumentDB(standIn.getUri(), masterKey, ConsistencyLevel.Session, transport);
+ 	...
+ }
+
+ */
+public abstract class StandIn implements AutoCloseable {
+
+	public static class Request {
+		final String method;
+		final String path;
+		final Map<String, String> query;
+		final Headers headers;
+		final byte[] body;
+
+		Request(String method, String path, Map<String, String> query, Headers headers, byte[] body) {
+			this.method = method;
+			this.path = path;
+			this.query = query;
+			this.headers = headers;
+			this.body = body;
+		}
+
+		String header(String name) {
+			return headers.getFirst(name);
+		}
+
+		String body() {
+			return new String(body, StandardCharsets.UTF_8);
+		}
+	}
+
+	public static class Reply {
+		final int status;
+		final Map<String, String> headers = new LinkedHashMap<String, String>();
+		final byte[] body;
+
+		Reply(int status, byte[] body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		Reply(int status, String contentType, String body) {
+			this(status, body.getBytes(StandardCharsets.UTF_8));
+			header("Content-Type", contentType);
+		}
+
+		Reply header(String name, Object value) {
+			if (value != null) {
+				headers.put(name, value.toString());
+			}
+			return this;
+		}
+	}
+
+	private final int port;
+	private HttpServer server;
+	private final List<HttpServer> replicas = new ArrayList<HttpServer>();
+	private ExecutorService executor;
+	private volatile long minLatency;
+	private volatile long maxLatency;
+	private volatile double spikeRate;
+	private volatile long spikeLatency;
+	private volatile double throttleRate;
+	private volatile long retryAfter = 10;
+	private volatile boolean compressResponses;
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder throttled = new LongAdder();
+
+	//0 binds a free port
+	protected StandIn(int port) {
+		this.port = port;
+	}
+
+	//milliseconds added to every request, uniformly distributed between min and max
+	public StandIn setLatency(long minMillis, long maxMillis) {
+		this.minLatency = minMillis;
+		this.maxLatency = Math.max(minMillis, maxMillis);
+		return this;
+	}
+
+	//fraction of the requests, 0 to 1, on any endpoint delayed by a further spike of milliseconds, i.e. a replica that is occasionally slow
+	public StandIn setSpikes(double spikeRate, long spikeMillis) {
+		this.spikeRate = spikeRate;
+		this.spikeLatency = spikeMillis;
+		return this;
+	}
+
+	//fraction of the requests, 0 to 1, answered with 429
+	public StandIn setThrottleRate(double throttleRate) {
+		this.throttleRate = throttleRate;
+		return this;
+	}
+
+	//x-ms-retry-after-ms of the 429 responses
+	public StandIn setRetryAfter(long retryAfterMillis) {
+		this.retryAfter = retryAfterMillis;
+		return this;
+	}
+
+	//responses are gzip encoded when the request accepts gzip
+	public StandIn setCompressResponses(boolean compressResponses) {
+		this.compressResponses = compressResponses;
+		return this;
+	}
+
+	public synchronized StandIn start() throws IOException {
+		if (server == null) {
+			//otherwise the separately written headers and body wait for the client's delayed ACK
+			if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+				System.setProperty("sun.net.httpserver.nodelay", "true");
+			}
+			AtomicInteger threads = new AtomicInteger();
+			executor = Executors.newCachedThreadPool(r -> {
+				Thread thread = new Thread(r, getClass().getSimpleName() + "-" + threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+			server.setExecutor(executor);
+			server.createContext("/", exchange -> handle(exchange, minLatency, maxLatency));
+			server.start();
+		}
+		return this;
+	}
+
+	//another endpoint serving the same resources, delayed between min and max milliseconds instead of the configured latency
+	public synchronized URI addReplica(long minMillis, long maxMillis) throws IOException {
+		start();
+		long max = Math.max(minMillis, maxMillis);
+		HttpServer replica = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+		replica.setExecutor(executor);
+		replica.createContext("/", exchange -> handle(exchange, minMillis, max));
+		replica.start();
+		replicas.add(replica);
+		return uri(replica);
+	}
+
+	public URI getUri() {
+		return uri(server);
+	}
+
+	private static URI uri(HttpServer server) {
+		InetSocketAddress address = server.getAddress();
+		return URI.create("http://" + address.getHostString() + ":" + address.getPort());
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	public long getThrottled() {
+		return throttled.sum();
+	}
+
+	@Override
+	public synchronized void close() {
+		if (server != null) {
+			server.stop(0);
+			for (HttpServer replica : replicas) {
+				replica.stop(0);
+			}
+			replicas.clear();
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	//the stand-in response of a request that was neither delayed out nor throttled
+	protected abstract Reply serve(Request request) throws IOException;
+
+	//name of the header that has to be present on every request
+	protected abstract String authorizationHeader();
+
+	void handle(HttpExchange exchange, long minLatency, long maxLatency) throws IOException {
+		requests.increment();
+		try {
+			byte[] body = read(exchange.getRequestBody());
+			delay(minLatency, maxLatency);
+			Reply reply;
+			if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate) {
+				throttled.increment();
+				reply = new Reply(429, "application/json", "{\"code\":\"TooManyRequests\",\"message\":\"Request rate is large\"}").header("x-ms-retry-after-ms", retryAfter);
+			} else if (exchange.getRequestHeaders().getFirst(authorizationHeader()) == null) {
+				reply = new Reply(401, "application/json", "{\"code\":\"Unauthorized\",\"message\":\"Missing " + authorizationHeader() + " header\"}");
+			} else {
+				URI uri = exchange.getRequestURI();
+				reply = serve(new Request(exchange.getRequestMethod(), uri.getRawPath(), query(uri.getRawQuery()), exchange.getRequestHeaders(), body));
+			}
+			String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			if (compressResponses && accept != null && accept.contains("gzip") && reply.body != null && reply.body.length > 0 && !reply.headers.containsKey("Content-Encoding")) {
+				reply = gzip(reply);
+			}
+			send(exchange, reply);
+		} catch (RuntimeException e) {
+			send(exchange, new Reply(500, "text/plain", String.valueOf(e)));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void delay(long minLatency, long maxLatency) {
+		long latency = maxLatency > minLatency ? ThreadLocalRandom.current().nextLong(minLatency, maxLatency + 1) : minLatency;
+		if (spikeRate > 0 && ThreadLocalRandom.current().nextDouble() < spikeRate) {
+			latency += spikeLatency;
+		}
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static void send(HttpExchange exchange, Reply reply) throws IOException {
+		Headers headers = exchange.getResponseHeaders();
+		for (Map.Entry<String, String> header : reply.headers.entrySet()) {
+			headers.set(header.getKey(), header.getValue());
+		}
+		boolean empty = reply.body == null || reply.body.length == 0 || "HEAD".equals(exchange.getRequestMethod()) || reply.status == 204 || reply.status == 304;
+		exchange.sendResponseHeaders(reply.status, empty ? -1 : reply.body.length);
+		if (!empty) {
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(reply.body);
+			}
+		}
+	}
+
+	private static Reply gzip(Reply reply) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(reply.body.length / 4 + 64);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bos)) {
+			gzip.write(reply.body);
+		}
+		Reply compressed = new Reply(reply.status, bos.toByteArray());
+		compressed.headers.putAll(reply.headers);
+		return compressed.header("Content-Encoding", "gzip");
+	}
+
+	private static byte[] read(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = is.read(buffer)) != -1) {
+			bos.write(buffer, 0, read);
+		}
+		return bos.toByteArray();
+	}
+
+	static Map<String, String> query(String rawQuery) {
+		Map<String, String> query = new HashMap<String, String>();
+		if (rawQuery != null) {
+			for (String pair : rawQuery.split("&")) {
+				int eq = pair.indexOf('=');
+				query.put(decode(eq < 0 ? pair : pair.substring(0, eq)), eq < 0 ? "" : decode(pair.substring(eq + 1)));
+			}
+		}
+		return query;
+	}
+
+	static String decode(String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	//a string of the given number of ASCII characters used to size generated documents and blobs
+	public static String padding(int size) {
+		char[] padding = new char[Math.max(0, size)];
+		for (int i = 0; i < padding.length; i++) {
+			padding[i] = (char) ('a' + i % 26);
+		}
+		return new String(padding);
+	}
+
+}
@@ -0,0 +1,170 @@
+package com.cpsgpartners.azure.standin;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ Local stand-in for the Blob service REST API subset used by Storage: containers can be created, read, listed and deleted, and block blobs put,
+ read and deleted. Blobs are kept in memory as uploaded with their content type, content disposition and content encoding. Only the presence of
+ the Authorization header is checked, the SharedKeyLite signature is not verified.
+
+ for example,
+
+ StorageStandIn standIn = new StorageStandIn();
+ standIn.start();
+ Storage storage = new Storage(standIn.getUri(), "account", masterKey, transport);
+ standIn.seedBlob("images", "logo.png", 64 * 1024);
+
+ */
+public class StorageStandIn extends StandIn {
+
+	static final DateTimeFormatter RFC1123_DATE_TIME = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+
+	static class Blob {
+		final byte[] content;
+		final String contentType;
+		final String contentDisposition;
+		final String contentEncoding;
+		final String etag = "\"0x" + Long.toHexString(UUID.randomUUID().getMostSignificantBits()).toUpperCase() + "\"";
+		final String lastModified = RFC1123_DATE_TIME.format(ZonedDateTime.now(ZoneId.of("GMT")));
+
+		Blob(byte[] content, String contentType, String contentDisposition, String contentEncoding) {
+			this.content = content;
+			this.contentType = contentType;
+			this.contentDisposition = contentDisposition;
+			this.contentEncoding = contentEncoding;
+		}
+	}
+
+	//blobs by name of each container by name
+	private final Map<String, NavigableMap<String, Blob>> containers = new ConcurrentHashMap<String, NavigableMap<String, Blob>>();
+
+	public StorageStandIn() {
+		this(0);
+	}
+
+	public StorageStandIn(int port) {
+		super(port);
+	}
+
+	//adds a blob of the given size, creating the container if needed
+	public void seedBlob(String containerName, String blobName, int size) {
+		containers.computeIfAbsent(containerName, c -> new ConcurrentSkipListMap<String, Blob>()).put(blobName,
+				new Blob(padding(size).getBytes(StandardCharsets.US_ASCII), "application/octet-stream", "attachment; filename=\"" + blobName + "\"", null));
+	}
+
+	@Override
+	protected String authorizationHeader() {
+		return "Authorization";
+	}
+
+	@Override
+	protected Reply serve(Request request) {
+		String path = request.path.startsWith("/") ? request.path.substring(1) : request.path;
+		int slash = path.indexOf('/');
+		String containerName = decode(slash < 0 ? path : path.substring(0, slash));
+		String blobName = slash < 0 || slash == path.length() - 1 ? null : decode(path.substring(slash + 1));
+		if (containerName.isEmpty()) {
+			if ("GET".equals(request.method) && "list".equals(request.query.get("comp"))) {
+				return listContainers();
+			}
+			return error(400, "InvalidUri", "The requested URI does not represent any resource on the server.");
+		}
+		if (blobName == null) {
+			return container(request, containerName);
+		}
+		return blob(request, containerName, blobName);
+	}
+
+	private Reply container(Request request, String containerName) {
+		NavigableMap<String, Blob> container = containers.get(containerName);
+		switch (request.method) {
+		case "PUT":
+			if (containers.putIfAbsent(containerName, new ConcurrentSkipListMap<String, Blob>()) != null) {
+				return error(409, "ContainerAlreadyExists", "The specified container already exists.");
+			}
+			return new Reply(201, null).header("x-ms-request-id", UUID.randomUUID());
+		case "GET":
+		case "HEAD":
+			if (container == null) {
+				return error(404, "ContainerNotFound", "The specified container does not exist.");
+			}
+			if ("list".equals(request.query.get("comp"))) {
+				return listBlobs(containerName, container);
+			}
+			return new Reply(200, null).header("x-ms-request-id", UUID.randomUUID());
+		case "DELETE":
+			if (containers.remove(containerName) == null) {
+				return error(404, "ContainerNotFound", "The specified container does not exist.");
+			}
+			return new Reply(202, null).header("x-ms-request-id", UUID.randomUUID());
+		default:
+			return error(405, "UnsupportedHttpVerb", request.method);
+		}
+	}
+
+	private Reply blob(Request request, String containerName, String blobName) {
+		NavigableMap<String, Blob> container = containers.get(containerName);
+		if (container == null) {
+			return error(404, "ContainerNotFound", "The specified container does not exist.");
+		}
+		switch (request.method) {
+		case "PUT":
+			//stored as sent, a gzip encoded upload is served gzip encoded
+			String encoding = request.header("x-ms-blob-content-encoding") != null ? request.header("x-ms-blob-content-encoding") : request.header("Content-Encoding");
+			Blob created = new Blob(request.body, request.header("Content-Type"), request.header("x-ms-blob-content-disposition"), encoding);
+			container.put(blobName, created);
+			return new Reply(201, null).header("ETag", created.etag).header("Last-Modified", created.lastModified);
+		case "GET":
+		case "HEAD":
+			Blob blob = container.get(blobName);
+			if (blob == null) {
+				return error(404, "BlobNotFound", "The specified blob does not exist.");
+			}
+			return new Reply(200, blob.content).header("Content-Type", blob.contentType).header("Content-Disposition", blob.contentDisposition).header("Content-Encoding", blob.contentEncoding)
+					.header("ETag", blob.etag).header("Last-Modified", blob.lastModified).header("x-ms-blob-type", "BlockBlob");
+		case "DELETE":
+			if (container.remove(blobName) == null) {
+				return error(404, "BlobNotFound", "The specified blob does not exist.");
+			}
+			return new Reply(202, null);
+		default:
+			return error(405, "UnsupportedHttpVerb", request.method);
+		}
+	}
+
+	private Reply listContainers() {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?><EnumerationResults><Containers>");
+		for (String name : new TreeSet<String>(containers.keySet())) {
+			xml.append("<Container><Name>").append(escape(name)).append("</Name></Container>");
+		}
+		return new Reply(200, "application/xml", xml.append("</Containers><NextMarker /></EnumerationResults>").toString());
+	}
+
+	private Reply listBlobs(String containerName, NavigableMap<String, Blob> container) {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?><EnumerationResults ContainerName=\"").append(escape(containerName)).append("\"><Blobs>");
+		for (Map.Entry<String, Blob> entry : container.entrySet()) {
+			xml.append("<Blob><Name>").append(escape(entry.getKey())).append("</Name><Properties><Content-Length>").append(entry.getValue().content.length)
+					.append("</Content-Length><BlobType>BlockBlob</BlobType></Properties></Blob>");
+		}
+		return new Reply(200, "application/xml", xml.append("</Blobs><NextMarker /></EnumerationResults>").toString());
+	}
+
+	private static Reply error(int status, String code, String message) {
+		return new Reply(status, "application/xml", "<?xml version=\"1.0\" encoding=\"utf-8\"?><Error><Code>" + code + "</Code><Message>" + message + "</Message></Error>");
+	}
+
+	private static String escape(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+}
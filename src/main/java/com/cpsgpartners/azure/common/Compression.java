@@ -0,0 +1,202 @@
+package com.cpsgpartners.azure.common;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.Priorities;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.Configurable;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ Opt-in gzip content coding for the JAX-RS client of a Transport, enabled with Transport.Config.setCompression.
+
+ Every request asks for gzip responses with Accept-Encoding and gzip responses are decompressed as the entity is read, so a streamed query page
+ is never buffered compressed or uncompressed. Request bodies are only compressed when the request has the GZIP_PROPERTY property, as the Azure
+ services do not decode compressed requests: Storage uses it for blob uploads with setCompressUploads, which stores the blob gzip encoded. The
+ decoder runs ahead of, and the encoder after, the entity coders an implementation may register itself, for example RESTEasy's gzip
+ interceptors, so an entity is never coded twice. The byte counts show what compression saved on the wire.
+
+ for example,
+
+ Transport transport = new Transport(new Transport.Config().setCompression(true));
+ DocumentDB db = new DocumentDB("account", masterKey, ConsistencyLevel.Session, transport);
+ ...
+ System.out.println(transport.getCompression());
+
+ */
+public class Compression {
+
+	public static final String GZIP = "gzip";
+	//request property, Boolean.TRUE gzip encodes the request entity
+	public static final String GZIP_PROPERTY = "com.cpsgpartners.azure.gzip";
+
+	private final LongAdder responses = new LongAdder();
+	private final LongAdder responseWireBytes = new LongAdder();
+	private final LongAdder responseBytes = new LongAdder();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder requestWireBytes = new LongAdder();
+	private final LongAdder requestBytes = new LongAdder();
+
+	Compression() {
+	}
+
+	void register(Configurable<?> configurable) {
+		configurable.register(new AcceptEncodingFilter(), Priorities.HEADER_DECORATOR);
+		configurable.register(new Decoder(), Priorities.ENTITY_CODER - 100);
+		configurable.register(new Encoder(), Priorities.ENTITY_CODER + 100);
+	}
+
+	//gzip responses read
+	public long getResponses() {
+		return responses.sum();
+	}
+
+	//compressed bytes of the gzip responses read
+	public long getResponseWireBytes() {
+		return responseWireBytes.sum();
+	}
+
+	//decompressed bytes of the gzip responses read
+	public long getResponseBytes() {
+		return responseBytes.sum();
+	}
+
+	//gzip encoded requests sent
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	public long getRequestWireBytes() {
+		return requestWireBytes.sum();
+	}
+
+	public long getRequestBytes() {
+		return requestBytes.sum();
+	}
+
+	//bytes that did not cross the wire in either direction
+	public long getBytesSaved() {
+		return getResponseBytes() - getResponseWireBytes() + getRequestBytes() - getRequestWireBytes();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("gzip responses: %d (%d of %d bytes) requests: %d (%d of %d bytes) saved: %d bytes", getResponses(), getResponseWireBytes(), getResponseBytes(), getRequests(),
+				getRequestWireBytes(), getRequestBytes(), getBytesSaved());
+	}
+
+	class AcceptEncodingFilter implements ClientRequestFilter {
+		@Override
+		public void filter(ClientRequestContext requestContext) throws IOException {
+			if (!requestContext.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+				requestContext.getHeaders().putSingle(HttpHeaders.ACCEPT_ENCODING, GZIP);
+			}
+		}
+	}
+
+	class Decoder implements ReaderInterceptor {
+		@Override
+		public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException {
+			String encoding = context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+			if (encoding == null || !GZIP.equalsIgnoreCase(encoding.trim())) {
+				return context.proceed();
+			}
+			//decoded here, so any later decoder leaves the entity alone
+			context.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+			responses.increment();
+			context.setInputStream(new CountingInputStream(new GZIPInputStream(new CountingInputStream(context.getInputStream(), responseWireBytes), 8192), responseBytes));
+			return context.proceed();
+		}
+	}
+
+	class Encoder implements WriterInterceptor {
+		@Override
+		public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+			if (!Boolean.TRUE.equals(context.getProperty(GZIP_PROPERTY))) {
+				context.proceed();
+				return;
+			}
+			//set here rather than by the caller, after any implementation coder has looked for it
+			context.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, GZIP);
+			context.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+			requests.increment();
+			OutputStream os = context.getOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(new CountingOutputStream(os, requestWireBytes), 8192);
+			context.setOutputStream(new CountingOutputStream(gzip, requestBytes));
+			try {
+				context.proceed();
+				gzip.finish();
+			} finally {
+				context.setOutputStream(os);
+			}
+		}
+	}
+
+	static class CountingInputStream extends FilterInputStream {
+		private final LongAdder count;
+
+		CountingInputStream(InputStream in, LongAdder count) {
+			super(in);
+			this.count = count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count.increment();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count.add(read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count.add(skipped);
+			return skipped;
+		}
+	}
+
+	static class CountingOutputStream extends FilterOutputStream {
+		private final LongAdder count;
+
+		CountingOutputStream(OutputStream out, LongAdder count) {
+			super(out);
+			this.count = count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count.increment();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count.add(len);
+		}
+	}
+
+}
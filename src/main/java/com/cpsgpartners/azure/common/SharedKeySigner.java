@@ -0,0 +1,143 @@
+package com.cpsgpartners.azure.common;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.Locale;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.ws.rs.WebApplicationException;
+
+/**
+ HMAC-SHA256 signer shared by the DocumentDB master key and Storage shared key authorization schemes.
+
+ The master key is decoded once per signer and every thread keeps its own initialized Mac together with the scratch buffers used to build and encode the
+ string to sign, so signing a request only allocates the resulting signature string. The RFC1123 request date is formatted at most once per second.
+
+ for example,
+
+ StringBuilder stringToSign = signer.stringToSign();
+ stringToSign.append(verb).append('\n')...
+ String signature = signer.sign(stringToSign);
+
+ */
+public class SharedKeySigner {
+
+	public static final String ALGORITHM = "HmacSHA256";
+
+	//DateTimeFormatter.RFC_1123_DATE_TIME does not pad the date as required by Azure
+	public static final DateTimeFormatter RFC1123_DATE_TIME = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+
+	private static final ZoneId GMT = ZoneId.of("GMT");
+
+	private static volatile CachedDate cachedDate = new CachedDate(Long.MIN_VALUE, null);
+
+	private final SecretKeySpec key;
+	private final ThreadLocal<State> state;
+
+	public SharedKeySigner(String masterKey) throws WebApplicationException {
+		this.key = new SecretKeySpec(Base64.getDecoder().decode(masterKey), ALGORITHM);
+		//fail fast on an unusable key instead of on the first request
+		State initial = new State(key);
+		this.state = ThreadLocal.withInitial(() -> new State(key));
+		this.state.set(initial);
+	}
+
+	//cleared per thread buffer, only valid until the next call on the same thread
+	public StringBuilder stringToSign() {
+		StringBuilder sb = state.get().stringToSign;
+		sb.setLength(0);
+		return sb;
+	}
+
+	public String sign(CharSequence stringToSign) throws WebApplicationException {
+		return sign(stringToSign, false);
+	}
+
+	//DocumentDB signs the lower case form of the verb, resource type, resource id and date
+	public String signLowerCase(CharSequence stringToSign) throws WebApplicationException {
+		return sign(stringToSign, true);
+	}
+
+	private String sign(CharSequence stringToSign, boolean lowerCase) throws WebApplicationException {
+		State s = state.get();
+		int length = s.encode(stringToSign, lowerCase);
+		try {
+			s.mac.update(s.bytes, 0, length);
+			s.mac.doFinal(s.digest, 0);
+		} catch (GeneralSecurityException e) {
+			throw new WebApplicationException(e);
+		}
+		int encoded = Base64.getEncoder().encode(s.digest, s.signature);
+		return new String(s.signature, 0, encoded, StandardCharsets.US_ASCII);
+	}
+
+	public static String currentDate() {
+		long second = System.currentTimeMillis() / 1000;
+		CachedDate current = cachedDate;
+		if (current.second != second) {
+			current = new CachedDate(second, RFC1123_DATE_TIME.format(Instant.ofEpochSecond(second).atZone(GMT)));
+			cachedDate = current;
+		}
+		return current.value;
+	}
+
+	private static class CachedDate {
+		final long second;
+		final String value;
+
+		CachedDate(long second, String value) {
+			this.second = second;
+			this.value = value;
+		}
+	}
+
+	private static class State {
+		final Mac mac;
+		final StringBuilder stringToSign = new StringBuilder(256);
+		final byte[] digest;
+		final byte[] signature;
+		byte[] bytes = new byte[256];
+
+		State(SecretKeySpec key) throws WebApplicationException {
+			try {
+				mac = Mac.getInstance(ALGORITHM);
+				mac.init(key);
+			} catch (GeneralSecurityException e) {
+				throw new WebApplicationException(e);
+			}
+			digest = new byte[mac.getMacLength()];
+			signature = new byte[(digest.length + 2) / 3 * 4];
+		}
+
+		int encode(CharSequence value, boolean lowerCase) {
+			int length = value.length();
+			if (bytes.length < length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			for (int i = 0; i < length; i++) {
+				char c = value.charAt(i);
+				if (c >= 0x80) {
+					//non ASCII resource ids are rare, take the slow path
+					String str = lowerCase ? value.toString().toLowerCase(Locale.ROOT) : value.toString();
+					byte[] utf8 = str.getBytes(StandardCharsets.UTF_8);
+					if (bytes.length < utf8.length) {
+						bytes = new byte[utf8.length];
+					}
+					System.arraycopy(utf8, 0, bytes, 0, utf8.length);
+					return utf8.length;
+				}
+				if (lowerCase && c >= 'A' && c <= 'Z') {
+					c += 'a' - 'A';
+				}
+				bytes[i] = (byte) c;
+			}
+			return length;
+		}
+	}
+
+}
@@ -0,0 +1,609 @@
+package com.cpsgpartners.azure.common;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.client.Invocation.Builder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.jboss.resteasy.client.jaxrs.ClientHttpEngine;
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.jboss.resteasy.client.jaxrs.engines.ApacheHttpClient4Engine;
+
+/**
+ Shared JAX-RS client and per host connection accounting for the DocumentDB, Storage and Search utility classes.
+
+ A single Transport can be passed to any number of client instances (for example one per tenant account) so they share one JAX-RS Client, and with it one
+ connection pool and TLS session cache, instead of each instance creating its own. The JAX-RS 2.0 client API does not expose the connector's pool, so the
+ Transport bounds the number of concurrent requests per host itself, which bounds the connections the connector needs, and tracks the connections
+ returned with keep-alive so reuse can be verified. A request holds its connection slot until its response entity has been read to the end or the
+ Response is closed, so a streamed or unread Response counts against the limit for as long as it keeps its connection.
+
+ The connector pool and timeouts are set on the ClientBuilder through the implementation in use, overriding any set on it before it is handed to
+ the Transport. With RESTEasy the pool is sized to the per host limit and setMaxTotalConnections, without which RESTEasy's default single
+ connection manager fails concurrent requests, and waits for a pooled connection no longer than the lease timeout. Connections idle for longer
+ than setIdleTimeout are closed before a lease is granted, so a request is not sent on a connection the server or a load balancer has likely
+ dropped, and PoolStats reports the idle connections kept by the pool. With Jersey the timeouts are passed as properties and its default
+ connector opens connections as needed, keeping up to the JDK's http.maxConnections alive per host and closing them after the server's keep-alive
+ timeout, so the idle timeout does not apply and the idle count is not known. A ClientBuilder of any other implementation is rejected.
+
+ for example,
+
+ Transport transport = new Transport(new Transport.Config().setMaxConnectionsPerHost(50).setReadTimeout(30000));
+ DocumentDB tenantA = new DocumentDB("tenanta", keyA, ConsistencyLevel.Session, transport);
+ DocumentDB tenantB = new DocumentDB("tenantb", keyB, ConsistencyLevel.Session, transport);
+
+ */
+public class Transport implements AutoCloseable {
+
+	public static final String JERSEY_CONNECT_TIMEOUT = "jersey.config.client.connectTimeout";
+	public static final String JERSEY_READ_TIMEOUT = "jersey.config.client.readTimeout";
+
+	//request property carrying the Lease of a request, see Lease.bind
+	static final String LEASE_PROPERTY = Transport.class.getName() + ".lease";
+
+	public static class Config {
+
+		int maxConnectionsPerHost = 20;
+		Map<String, Integer> hostMaxConnections = new ConcurrentHashMap<String, Integer>();
+		int maxTotalConnections = 200;
+		long leaseTimeout = 60000;
+		long idleTimeout = 60000;
+		int connectTimeout = -1;
+		int readTimeout = -1;
+		boolean compression;
+
+		public Config setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+			this.maxConnectionsPerHost = maxConnectionsPerHost;
+			return this;
+		}
+
+		public Config setMaxConnections(String host, int maxConnections) {
+			this.hostMaxConnections.put(host, maxConnections);
+			return this;
+		}
+
+		//connections to all hosts together, only the RESTEasy pool applies it
+		public Config setMaxTotalConnections(int maxTotalConnections) {
+			this.maxTotalConnections = maxTotalConnections;
+			return this;
+		}
+
+		//milliseconds to wait for a free connection, -1 waits indefinitely and one leaked Response can then block every caller of the host
+		public Config setLeaseTimeout(long leaseTimeout) {
+			this.leaseTimeout = leaseTimeout;
+			return this;
+		}
+
+		//milliseconds a pooled connection may stay idle before it is closed, -1 keeps idle connections open, only the RESTEasy pool applies it
+		public Config setIdleTimeout(long idleTimeout) {
+			this.idleTimeout = idleTimeout;
+			return this;
+		}
+
+		public Config setConnectTimeout(int connectTimeout) {
+			this.connectTimeout = connectTimeout;
+			return this;
+		}
+
+		public Config setReadTimeout(int readTimeout) {
+			this.readTimeout = readTimeout;
+			return this;
+		}
+
+		//gzip responses are requested and decompressed while streamed, see Compression
+		public Config setCompression(boolean compression) {
+			this.compression = compression;
+			return this;
+		}
+
+		int maxConnections(String host) {
+			Integer max = hostMaxConnections.get(host);
+			return max != null ? max : maxConnectionsPerHost;
+		}
+
+		int maxConnections() {
+			int max = maxConnectionsPerHost;
+			for (int hostMax : hostMaxConnections.values()) {
+				max = Math.max(max, hostMax);
+			}
+			return max;
+		}
+
+	}
+
+	public static class PoolStats {
+		private final String host;
+		private final int max;
+		private final int leased;
+		private final int idle;
+		private final int pending;
+		private final long requests;
+		private final long keepAlive;
+		private final long closed;
+		private final long failed;
+
+		PoolStats(String host, int max, int leased, int idle, int pending, long requests, long keepAlive, long closed, long failed) {
+			this.host = host;
+			this.max = max;
+			this.leased = leased;
+			this.idle = idle;
+			this.pending = pending;
+			this.requests = requests;
+			this.keepAlive = keepAlive;
+			this.closed = closed;
+			this.failed = failed;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public int getMax() {
+			return max;
+		}
+
+		public int getLeased() {
+			return leased;
+		}
+
+		//connections kept open in the connector's pool for reuse, -1 when the connector does not expose its pool
+		public int getIdle() {
+			return idle;
+		}
+
+		public int getPending() {
+			return pending;
+		}
+
+		public long getRequests() {
+			return requests;
+		}
+
+		//responses that left the connection open for reuse
+		public long getKeepAlive() {
+			return keepAlive;
+		}
+
+		//responses with Connection: close, a high value means connections are not being reused
+		public long getClosed() {
+			return closed;
+		}
+
+		//requests that failed before a response was received, i.e. connect or read timeouts, not counted as keep-alive or closed
+		public long getFailed() {
+			return failed;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s max: %d leased: %d idle: %d pending: %d requests: %d keep-alive: %d closed: %d failed: %d", host, max, leased, idle, pending, requests, keepAlive, closed,
+					failed);
+		}
+
+	}
+
+	private final Client client;
+	private final Config config;
+	private final Compression compression;
+	//null unless the connector's pool is known, see Resteasy.connector
+	private final Connector connector;
+	private final Map<String, HostPool> pools = new ConcurrentHashMap<String, HostPool>();
+
+	public Transport() {
+		this(new Config());
+	}
+
+	public Transport(Config config) {
+		this(ClientBuilder.newBuilder(), config);
+	}
+
+	public Transport(ClientBuilder builder, Config config) {
+		this.config = config;
+		configure(builder, config);
+		this.compression = config.compression ? new Compression() : null;
+		if (compression != null) {
+			compression.register(builder);
+		}
+		builder.register(new LeaseFilter());
+		this.client = builder.build();
+		this.connector = resteasy(builder.getClass()) ? Resteasy.connector(client, config) : null;
+	}
+
+	//the JAX-RS 2.0 ClientBuilder has no pool or timeout settings, they are set through the implementation's own
+	static void configure(ClientBuilder builder, Config config) {
+		if (resteasy(builder.getClass())) {
+			Resteasy.configure(builder, config);
+		} else if (builder.getClass().getName().startsWith("org.glassfish.jersey.")) {
+			if (config.connectTimeout >= 0) {
+				builder.property(JERSEY_CONNECT_TIMEOUT, config.connectTimeout);
+			}
+			if (config.readTimeout >= 0) {
+				builder.property(JERSEY_READ_TIMEOUT, config.readTimeout);
+			}
+		} else {
+			throw new IllegalArgumentException(String.format("the connection pool and timeouts of %s cannot be configured, use a RESTEasy or Jersey ClientBuilder", builder.getClass().getName()));
+		}
+	}
+
+	//by name so the RESTEasy classes are only loaded when RESTEasy is the implementation in use
+	static boolean resteasy(Class<?> builderClass) {
+		for (Class<?> c = builderClass; c != null; c = c.getSuperclass()) {
+			if ("org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder".equals(c.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static class Resteasy {
+
+		static void configure(ClientBuilder builder, Config config) {
+			ResteasyClientBuilder resteasy = (ResteasyClientBuilder) builder;
+			int perHost = config.maxConnections();
+			resteasy.connectionPoolSize(Math.max(perHost, config.maxTotalConnections)).maxPooledPerRoute(perHost);
+			//a lease has been granted before the connector is asked for a connection, this only bounds a pool exhausted outside the Transport
+			if (config.leaseTimeout >= 0) {
+				resteasy.connectionCheckoutTimeout(config.leaseTimeout, TimeUnit.MILLISECONDS);
+			}
+			if (config.connectTimeout >= 0) {
+				resteasy.establishConnectionTimeout(config.connectTimeout, TimeUnit.MILLISECONDS);
+			}
+			if (config.readTimeout >= 0) {
+				resteasy.socketTimeout(config.readTimeout, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		//the pool of the default engine, null when an engine of the application's own was set on the builder
+		static Connector connector(Client client, Config config) {
+			ClientHttpEngine engine = ((ResteasyClient) client).httpEngine();
+			if (!(engine instanceof ApacheHttpClient4Engine)) {
+				return null;
+			}
+			@SuppressWarnings("deprecation")
+			ClientConnectionManager manager = ((ApacheHttpClient4Engine) engine).getHttpClient().getConnectionManager();
+			if (!(manager instanceof PoolingClientConnectionManager)) {
+				return null;
+			}
+			PoolingClientConnectionManager pool = (PoolingClientConnectionManager) manager;
+			return new Connector() {
+
+				final AtomicLong nextEviction = new AtomicLong();
+
+				@Override
+				public int idle(URI uri) {
+					boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+					int defaultPort = secure ? 443 : 80;
+					int idle = pool.getStats(new HttpRoute(new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()), null, secure)).getAvailable();
+					//routes are keyed by the port as written in the request URI, with or without the default port
+					if (uri.getPort() < 0 || uri.getPort() == defaultPort) {
+						int other = uri.getPort() < 0 ? defaultPort : -1;
+						idle += pool.getStats(new HttpRoute(new HttpHost(uri.getHost(), other, uri.getScheme()), null, secure)).getAvailable();
+					}
+					return idle;
+				}
+
+				//at most twice per idle timeout, connections are not picked up any sooner than idle connections would be
+				@Override
+				public void evictIdle() {
+					long idleTimeout = config.idleTimeout;
+					if (idleTimeout < 0) {
+						return;
+					}
+					long now = System.currentTimeMillis();
+					long next = nextEviction.get();
+					if (now >= next && nextEviction.compareAndSet(next, now + Math.max(idleTimeout / 2, 1000))) {
+						pool.closeExpiredConnections();
+						pool.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+					}
+				}
+
+			};
+		}
+
+	}
+
+	//the connector's own pool, as far as the implementation in use exposes it
+	interface Connector {
+
+		int idle(URI uri);
+
+		void evictIdle();
+
+	}
+
+	public Client getClient() {
+		return client;
+	}
+
+	//null unless compression is enabled in the Config
+	public Compression getCompression() {
+		return compression;
+	}
+
+	public WebTarget target(String uri) {
+		return client.target(uri);
+	}
+
+	public Lease lease(URI uri) throws WebApplicationException {
+		CompletableFuture<Lease> lease = leaseAsync(uri);
+		try {
+			if (config.leaseTimeout < 0) {
+				return lease.get();
+			}
+			return lease.get(config.leaseTimeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			if (!lease.cancel(false)) {
+				//granted while timing out
+				lease.join().close();
+			}
+			throw new WebApplicationException(String.format("timed out waiting for a connection to %s", uri.getHost()), Response.Status.SERVICE_UNAVAILABLE);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if (!lease.cancel(false)) {
+				lease.join().close();
+			}
+			throw new WebApplicationException(e);
+		} catch (ExecutionException e) {
+			throw new WebApplicationException(e.getCause());
+		}
+	}
+
+	//completes once a connection slot for the host is available, without blocking the calling thread
+	public CompletableFuture<Lease> leaseAsync(URI uri) {
+		String host = hostKey(uri);
+		HostPool pool = pools.get(host);
+		if (pool == null) {
+			pool = pools.computeIfAbsent(host, h -> new HostPool(h, uri, config.maxConnections(uri.getHost())));
+		}
+		if (connector != null) {
+			connector.evictIdle();
+		}
+		return pool.lease();
+	}
+
+	public PoolStats getStats(URI uri) {
+		HostPool pool = pools.get(hostKey(uri));
+		return pool != null ? pool.stats() : null;
+	}
+
+	public Collection<PoolStats> getStats() {
+		List<PoolStats> stats = new ArrayList<PoolStats>(pools.size());
+		for (HostPool pool : pools.values()) {
+			stats.add(pool.stats());
+		}
+		return stats;
+	}
+
+	@Override
+	public void close() {
+		client.close();
+	}
+
+	static String hostKey(URI uri) {
+		return uri.getPort() > 0 ? uri.getHost() + ":" + uri.getPort() : uri.getHost();
+	}
+
+	public class Lease implements AutoCloseable {
+
+		private static final int NEW = 0;
+		private static final int SENT = 1;
+		private static final int ABANDONED = 2;
+
+		private final HostPool pool;
+		private final AtomicBoolean released = new AtomicBoolean();
+		//NEW until the request is sent or the lease abandoned, whichever comes first
+		private final AtomicInteger state = new AtomicInteger(NEW);
+		private volatile boolean reusable;
+
+		Lease(HostPool pool) {
+			this.pool = pool;
+		}
+
+		//the connection slot is returned once the response entity has been read to the end or the Response is closed, or as soon as the response
+		//arrives when it has no entity
+		public Builder bind(Builder builder) {
+			return builder.property(LEASE_PROPERTY, this);
+		}
+
+		//for a request given up on, i.e. a cancelled asynchronous request. The slot is returned at once unless the request has already been sent,
+		//in which case it is returned when the response is released or the request fails. A request not yet sent is aborted.
+		public void abandon() {
+			if (state.compareAndSet(NEW, ABANDONED)) {
+				close();
+			}
+		}
+
+		boolean send() {
+			return state.compareAndSet(NEW, SENT) || state.get() == SENT;
+		}
+
+		void received(ClientResponseContext response) {
+			//whether the connector can keep the connection alive
+			String connection = response.getHeaderString("Connection");
+			reusable = connection == null || !"close".equalsIgnoreCase(connection.trim());
+			InputStream entity = response.getEntityStream();
+			if (entity == null) {
+				release();
+			} else {
+				response.setEntityStream(new LeasedInputStream(entity, this));
+			}
+		}
+
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				pool.release(reusable ? HostPool.KEEP_ALIVE : HostPool.CLOSED);
+			}
+		}
+
+		//returns the connection slot after a failed request, or of a lease not used for a request
+		@Override
+		public void close() {
+			if (released.compareAndSet(false, true)) {
+				pool.release(state.get() == SENT ? HostPool.FAILED : HostPool.UNUSED);
+			}
+		}
+
+	}
+
+	class LeaseFilter implements ClientRequestFilter, ClientResponseFilter {
+
+		@Override
+		public void filter(ClientRequestContext requestContext) throws IOException {
+			Object lease = requestContext.getProperty(LEASE_PROPERTY);
+			if (lease instanceof Lease && !((Lease) lease).send()) {
+				//not a response, the caller gave up on the request and a 503 would read as one from the service
+				throw new CancellationException(String.format("request to %s abandoned before it was sent", requestContext.getUri().getHost()));
+			}
+		}
+
+		@Override
+		public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) throws IOException {
+			Object lease = requestContext.getProperty(LEASE_PROPERTY);
+			if (lease instanceof Lease) {
+				((Lease) lease).received(responseContext);
+			}
+		}
+
+	}
+
+	static class LeasedInputStream extends FilterInputStream {
+
+		private final Lease lease;
+
+		LeasedInputStream(InputStream in, Lease lease) {
+			super(in);
+			this.lease = lease;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b < 0) {
+				lease.release();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n < 0) {
+				lease.release();
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				lease.release();
+			}
+		}
+
+	}
+
+	class HostPool {
+		static final int KEEP_ALIVE = 0;
+		static final int CLOSED = 1;
+		static final int FAILED = 2;
+		static final int UNUSED = 3;
+
+		final String host;
+		final URI uri;
+		final int max;
+		final ArrayDeque<CompletableFuture<Lease>> pending = new ArrayDeque<CompletableFuture<Lease>>();
+		final AtomicLong requests = new AtomicLong();
+		final AtomicLong keepAlive = new AtomicLong();
+		final AtomicLong closed = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		int leased;
+
+		HostPool(String host, URI uri, int max) {
+			this.host = host;
+			this.uri = uri;
+			this.max = max;
+		}
+
+		CompletableFuture<Lease> lease() {
+			CompletableFuture<Lease> lease = new CompletableFuture<Lease>();
+			synchronized (this) {
+				if (leased >= max) {
+					pending.add(lease);
+					return lease;
+				}
+				leased++;
+			}
+			requests.incrementAndGet();
+			lease.complete(new Lease(this));
+			return lease;
+		}
+
+		void release(int outcome) {
+			if (outcome == KEEP_ALIVE) {
+				keepAlive.incrementAndGet();
+			} else if (outcome == CLOSED) {
+				closed.incrementAndGet();
+			} else if (outcome == FAILED) {
+				failed.incrementAndGet();
+			}
+			CompletableFuture<Lease> next;
+			while (true) {
+				synchronized (this) {
+					next = pending.poll();
+					if (next == null) {
+						leased--;
+						return;
+					}
+				}
+				//hand the slot straight to the next waiter unless it gave up
+				requests.incrementAndGet();
+				if (next.complete(new Lease(this))) {
+					return;
+				}
+				requests.decrementAndGet();
+			}
+		}
+
+		PoolStats stats() {
+			int idle = connector != null ? connector.idle(uri) : -1;
+			synchronized (this) {
+				pending.removeIf(f -> f.isDone());
+				return new PoolStats(host, max, leased, idle, pending.size(), requests.get(), keepAlive.get(), closed.get(), failed.get());
+			}
+		}
+
+	}
+
+}
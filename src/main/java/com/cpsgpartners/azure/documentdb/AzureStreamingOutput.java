@@ -1,25 +1,33 @@
 package com.cpsgpartners.azure.documentdb;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 
 /**
  This utility class is used to stream the Azure DocumentDB REST response directly through to another REST client without buffering it in the intermediary server.
- This class also has the additional option to convert the continuation token header into the JSON 
- 
+ This class also has the additional option to convert the continuation token header into the JSON
+
  for example,
- 
+
  Response queryResult = db.queryDocuments(...
  return Response.ok(new AzureStreamingOutput(queryResult)).build();
- 
+
+ or without holding the request thread while DocumentDB executes the query,
+
+ public void query(@Suspended AsyncResponse asyncResponse) {
+ 	AzureStreamingOutput.resume(asyncResponse, db.queryDocumentsAsync(..., Response.class, ...));
+ }
+
+ The body is copied through pooled 64 KB buffers without being decoded.
  */
 public class AzureStreamingOutput implements StreamingOutput {
 
@@ -29,38 +37,68 @@ public class AzureStreamingOutput implements StreamingOutput {
 		this.response = response;
 	}
 
+	//resumes the suspended request with the DocumentDB response once it arrives, the DocumentDB response is closed if the request was already cancelled or timed out
+	public static void resume(AsyncResponse asyncResponse, CompletableFuture<Response> response) {
+		response.whenComplete((r, t) -> {
+			if (t != null) {
+				asyncResponse.resume(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+			} else if (!asyncResponse.resume(Response.ok(new AzureStreamingOutput(r), MediaType.APPLICATION_JSON_TYPE).build())) {
+				r.close();
+			}
+		});
+	}
+
 	@Override
 	public void write(OutputStream os) throws IOException, WebApplicationException {
 		final String continuationAzureToken = response.getHeaderString("x-ms-continuation");
 
 		if (response.hasEntity()) {
 			try (InputStream is = response.readEntity(InputStream.class)) {
-				if (continuationAzureToken != null) {
-					//read the first, character, 
-					if (is.read() != -1) {
-
-						Writer writer = new BufferedWriter(new OutputStreamWriter(os));
-						writer.write("{");
-
-						if (continuationAzureToken != null) {
-							writer.write("_continuation: \"");
-							writer.write(continuationAzureToken);
-							writer.write("\",");
-						}
-						writer.flush();
-
-					}
+				write(is, continuationAzureToken, os);
+				return;
+			}
+		}
+		os.flush();
+		os.close();
+	}
 
+	public static void write(InputStream is, String continuationAzureToken, OutputStream os) throws IOException {
+		if (continuationAzureToken != null) {
+			//only the opening brace and the first significant character are read one at a time, to place the continuation and its comma
+			int first = significant(is);
+			if (first == '{') {
+				int next = significant(is);
+				JsonWriter jw = new JsonWriter(os, new byte[128]);
+				jw.startObject().key("_continuation").value(continuationAzureToken);
+				jw.flush();
+				if (next != '}' && next != -1) {
+					os.write(',');
 				}
-				byte[] buffer = new byte[1024];
-				int bytesRead;
-				while ((bytesRead = is.read(buffer)) != -1) // test for EOF or end reached
-				{
-					os.write(buffer, 0, bytesRead);
+				if (next != -1) {
+					os.write(next);
 				}
+			} else if (first != -1) {
+				os.write(first);
+			}
+		}
+		byte[] buffer = BufferPool.DEFAULT.acquire();
+		try {
+			int bytesRead;
+			while ((bytesRead = is.read(buffer)) != -1) {
+				os.write(buffer, 0, bytesRead);
 			}
+		} finally {
+			BufferPool.DEFAULT.release(buffer);
 		}
 		os.flush();
 		os.close();
 	}
+
+	private static int significant(InputStream is) throws IOException {
+		int c;
+		do {
+			c = is.read();
+		} while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+		return c;
+	}
 }
@@ -0,0 +1,34 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+//bounded pool of large copy buffers so proxying multi megabyte responses does not allocate a new buffer for every request
+class BufferPool {
+
+	static final BufferPool DEFAULT = new BufferPool(64 * 1024, 64);
+
+	private final int bufferSize;
+	private final ArrayBlockingQueue<byte[]> buffers;
+
+	BufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.buffers = new ArrayBlockingQueue<byte[]>(maxPooled);
+	}
+
+	byte[] acquire() {
+		byte[] buffer = buffers.poll();
+		return buffer != null ? buffer : new byte[bufferSize];
+	}
+
+	//buffers beyond the pool size are left to the garbage collector
+	void release(byte[] buffer) {
+		if (buffer.length == bufferSize) {
+			buffers.offer(buffer);
+		}
+	}
+
+	int getBufferSize() {
+		return bufferSize;
+	}
+
+}
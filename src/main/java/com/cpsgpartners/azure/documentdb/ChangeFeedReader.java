@@ -0,0 +1,212 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.json.JsonValue;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Invocation.Builder;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import com.cpsgpartners.azure.documentdb.DocumentDB.ETag;
+import com.cpsgpartners.azure.documentdb.DocumentDB.ETagMode;
+import com.cpsgpartners.azure.documentdb.DocumentDB.RequestHandler;
+import com.cpsgpartners.azure.documentdb.DocumentDB.ResponseHandler;
+
+/**
+ Reads the documents of a collection that were created or replaced since the last read, using the DocumentDB incremental feed (A-IM: Incremental feed)
+ rather than querying the whole collection.
+
+ Each page of changes is handed to the consumer as one batch and the checkpoint, the ETag of the page, is then written to the checkpoint file so a
+ restarted reader resumes after the last batch that was fully processed. A batch can be delivered again if the process stops after the consumer
+ returned but before the checkpoint was written, so consumers should be idempotent. The checkpoint file is replaced atomically and is never left half
+ written. Deletes are not reported by the incremental feed.
+
+ The checkpoint is sent both as x-ms-continuation and as If-None-Match. The 2015-04-08 x-ms-version DocumentDB sends with every other request does
+ not serve the incremental feed, so the reader's requests carry DEFAULT_VERSION instead, or the version given to setVersion.
+
+ for example,
+
+ ChangeFeedReader reader = new ChangeFeedReader(db, dbId, collId, Paths.get("orders.checkpoint")).setPageSize(500);
+ long changed = reader.drain(batch -> index(batch));
+
+ */
+public class ChangeFeedReader {
+
+	public static final String DEFAULT_VERSION = "2017-02-22";
+
+	private final DocumentDB db;
+	private final String dbResourceId;
+	private final String collectionResId;
+	private final Path checkpointFile;
+	private int pageSize = -1;
+	private volatile String version = DEFAULT_VERSION;
+	private volatile String checkpoint;
+
+	public ChangeFeedReader(DocumentDB db, String dbResourceId, String collectionResId, Path checkpointFile) throws WebApplicationException {
+		this.db = db;
+		this.dbResourceId = dbResourceId;
+		this.collectionResId = collectionResId;
+		this.checkpointFile = checkpointFile;
+		this.checkpoint = load(checkpointFile);
+	}
+
+	//x-ms-max-item-count of each batch, -1 for the service default
+	public ChangeFeedReader setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	//x-ms-version of the incremental feed requests
+	public ChangeFeedReader setVersion(String version) {
+		if (version == null || version.isEmpty()) {
+			throw new IllegalArgumentException("version is required");
+		}
+		this.version = version;
+		return this;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	//null before the first batch, the reader then starts from the beginning of the collection
+	public String getCheckpoint() {
+		return checkpoint;
+	}
+
+	public Path getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	//reads the next batch of changes, false when there were none
+	public synchronized boolean poll(Consumer<? super List<JsonValue>> consumer) throws WebApplicationException {
+		IncrementalFeedResponse feedResponse = new IncrementalFeedResponse();
+		String current = checkpoint;
+		Response response = db.operation(db.collection(dbResourceId, collectionResId).docs, new IncrementalFeedRequest(current, pageSize, version), feedResponse, "GET", current != null ? new ETag(ETagMode.NO_MATCH, current) : null, Response.Status.OK, null, Response.class);
+		List<JsonValue> batch = new ArrayList<JsonValue>();
+		try {
+			if (response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode() || !response.hasEntity()) {
+				return false;
+			}
+			try (InputStream is = response.readEntity(InputStream.class)) {
+				DocumentReader.read(is, batch::add);
+			} catch (IOException e) {
+				throw new WebApplicationException(e);
+			}
+		} finally {
+			response.close();
+		}
+		if (!batch.isEmpty()) {
+			consumer.accept(batch);
+		}
+		if (feedResponse.checkpoint != null && !feedResponse.checkpoint.equals(current)) {
+			store(checkpointFile, feedResponse.checkpoint);
+			checkpoint = feedResponse.checkpoint;
+		}
+		return !batch.isEmpty();
+	}
+
+	//reads batches until there are no more changes, returns the number of changed documents
+	public long drain(Consumer<? super List<JsonValue>> consumer) throws WebApplicationException {
+		long[] changed = new long[1];
+		while (poll(batch -> {
+			changed[0] += batch.size();
+			consumer.accept(batch);
+		})) {
+		}
+		return changed[0];
+	}
+
+	static class IncrementalFeedRequest implements RequestHandler {
+		final String checkpoint;
+		final int pageSize;
+		final String version;
+
+		IncrementalFeedRequest(String checkpoint, int pageSize, String version) {
+			this.checkpoint = checkpoint;
+			this.pageSize = pageSize;
+			this.version = version;
+		}
+
+		@Override
+		public void handle(Builder builder) {
+			builder.header("A-IM", "Incremental feed");
+			//replaces the version set by DocumentDB.setHeaders, the version is not part of the signature
+			builder.header("x-ms-version", null).header("x-ms-version", version);
+			if (checkpoint != null) {
+				builder.header("x-ms-continuation", checkpoint);
+			}
+			if (pageSize > 0) {
+				builder.header("x-ms-max-item-count", pageSize);
+			}
+		}
+	}
+
+	static class IncrementalFeedResponse implements ResponseHandler {
+		String checkpoint;
+
+		@Override
+		public void handle(Response response) {
+			checkpoint = response.getHeaderString(HttpHeaders.ETAG);
+			if (checkpoint == null) {
+				checkpoint = response.getHeaderString("x-ms-continuation");
+			}
+		}
+	}
+
+	static String load(Path file) throws WebApplicationException {
+		if (file == null || !Files.exists(file)) {
+			return null;
+		}
+		try {
+			String value = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+			return value.isEmpty() ? null : value;
+		} catch (IOException e) {
+			throw new WebApplicationException(e);
+		}
+	}
+
+	//written to a temporary file in the same directory, forced to disk and then moved over the checkpoint file
+	static void store(Path file, String value) throws WebApplicationException {
+		if (file == null) {
+			return;
+		}
+		Path directory = file.toAbsolutePath().getParent();
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer bytes = ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+				while (bytes.hasRemaining()) {
+					channel.write(bytes);
+				}
+				channel.force(true);
+			}
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			temp = null;
+		} catch (IOException e) {
+			throw new WebApplicationException(e);
+		} finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e) {
+					//the failure that got us here is more interesting
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,263 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+/**
+ Batches point reads of documents of one collection by id: the ids requested within the batch window, or until flush is called, are read with a
+ single SELECT * FROM c WHERE c.id IN (...) query instead of one getDocument request each. Every caller's future is completed with its own document
+ as soon as the query page arrives. Ids the query did not return, i.e. a _rid instead of an id, a document not found or a page cut short by the
+ service, fall back to a getDocument point read, so a missing document fails its future with 404 Not Found as getDocument would, and so do all
+ the ids of a query that returned no page at all. A failed query fails every future of the batch with its error.
+
+ The same id requested twice in one batch is read once. A batch of a single id is sent as a point read. Documents are returned as JsonObject.
+ Cancelling a future does not cancel the batch.
+
+ for example,
+
+ DocumentBatcher orders = new DocumentBatcher(db, dbId, collId).setWindow(2).setMaxBatch(100);
+ CompletableFuture<JsonObject> order = orders.getDocument(orderId);
+ CompletableFuture<Map<String, JsonObject>> lines = orders.getDocuments(lineIds);
+ System.out.println(orders);
+
+ */
+public class DocumentBatcher {
+
+	public static final long DEFAULT_WINDOW = 2;
+	public static final int DEFAULT_MAX_BATCH = 100;
+
+	//one prepared query per batch size, shared by every batcher
+	private static final ConcurrentHashMap<Integer, PreparedQuery> QUERIES = new ConcurrentHashMap<Integer, PreparedQuery>();
+
+	private final DocumentDB db;
+	private final String dbResourceId;
+	private final String collectionResId;
+	private volatile long window = DEFAULT_WINDOW;
+	private volatile int maxBatch = DEFAULT_MAX_BATCH;
+
+	//guarded by this
+	private Map<String, CompletableFuture<JsonObject>> pending = new LinkedHashMap<String, CompletableFuture<JsonObject>>();
+	private ScheduledFuture<?> timer;
+
+	private final LongAdder requested = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder batched = new LongAdder();
+	private final LongAdder queried = new LongAdder();
+	private final LongAdder found = new LongAdder();
+	private final LongAdder pointReads = new LongAdder();
+
+	public DocumentBatcher(DocumentDB db, String dbResourceId, String collectionResId) {
+		this.db = db;
+		this.dbResourceId = dbResourceId;
+		this.collectionResId = collectionResId;
+	}
+
+	//milliseconds the first id of a batch waits for others, 0 sends a batch only when it is full or flushed
+	public DocumentBatcher setWindow(long window) {
+		this.window = window;
+		return this;
+	}
+
+	public long getWindow() {
+		return window;
+	}
+
+	public DocumentBatcher setMaxBatch(int maxBatch) {
+		if (maxBatch < 1) {
+			throw new IllegalArgumentException("maxBatch must be at least 1");
+		}
+		this.maxBatch = maxBatch;
+		return this;
+	}
+
+	public int getMaxBatch() {
+		return maxBatch;
+	}
+
+	public CompletableFuture<JsonObject> getDocument(String documentId) {
+		requested.increment();
+		CompletableFuture<JsonObject> document;
+		Map<String, CompletableFuture<JsonObject>> batch = null;
+		synchronized (this) {
+			document = pending.get(documentId);
+			if (document == null) {
+				document = new CompletableFuture<JsonObject>();
+				pending.put(documentId, document);
+				if (pending.size() >= maxBatch) {
+					batch = take();
+				} else if (pending.size() == 1 && window > 0) {
+					timer = RetryPolicy.SCHEDULER.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+		if (batch != null) {
+			send(batch);
+		}
+		//a copy so a caller cancelling its future leaves the batch and other callers of the same id alone
+		return document.thenApply(d -> d);
+	}
+
+	//an explicit batch, documents that are not found are left out of the map
+	public CompletableFuture<Map<String, JsonObject>> getDocuments(Collection<String> documentIds) {
+		Map<String, CompletableFuture<JsonObject>> documents = new LinkedHashMap<String, CompletableFuture<JsonObject>>();
+		for (String documentId : documentIds) {
+			if (!documents.containsKey(documentId)) {
+				documents.put(documentId, getDocument(documentId).exceptionally(t -> {
+					if (DocumentDB.notFound(cause(t))) {
+						return null;
+					}
+					throw t instanceof CompletionException ? (CompletionException) t : new CompletionException(t);
+				}));
+			}
+		}
+		flush();
+		return CompletableFuture.allOf(documents.values().toArray(new CompletableFuture<?>[documents.size()])).thenApply(v -> {
+			Map<String, JsonObject> result = new LinkedHashMap<String, JsonObject>();
+			for (Map.Entry<String, CompletableFuture<JsonObject>> entry : documents.entrySet()) {
+				JsonObject document = entry.getValue().join();
+				if (document != null) {
+					result.put(entry.getKey(), document);
+				}
+			}
+			return result;
+		});
+	}
+
+	//sends the ids requested so far without waiting for the window
+	public void flush() {
+		Map<String, CompletableFuture<JsonObject>> batch;
+		synchronized (this) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			batch = take();
+		}
+		send(batch);
+	}
+
+	private Map<String, CompletableFuture<JsonObject>> take() {
+		Map<String, CompletableFuture<JsonObject>> batch = pending;
+		pending = new LinkedHashMap<String, CompletableFuture<JsonObject>>();
+		if (timer != null) {
+			timer.cancel(false);
+			timer = null;
+		}
+		return batch;
+	}
+
+	private void send(Map<String, CompletableFuture<JsonObject>> batch) {
+		batches.increment();
+		batched.add(batch.size());
+		if (batch.size() == 1) {
+			Map.Entry<String, CompletableFuture<JsonObject>> entry = batch.entrySet().iterator().next();
+			pointRead(entry.getKey(), entry.getValue());
+			return;
+		}
+		queried.add(batch.size());
+		Object[] ids = batch.keySet().toArray();
+		PreparedQuery query = QUERIES.computeIfAbsent(ids.length, DocumentBatcher::query);
+		db.<JsonObject> queryDocumentsAsync(dbResourceId, collectionResId, query, JsonObject.class, ids.length, null, ids).whenComplete((page, t) -> {
+			if (t != null) {
+				Throwable cause = cause(t);
+				for (CompletableFuture<JsonObject> document : batch.values()) {
+					document.completeExceptionally(cause);
+				}
+				return;
+			}
+			try {
+				//a page without an entity returned no documents, its ids are read one by one
+				JsonArray documents = page != null ? page.getJsonArray("Documents") : null;
+				if (documents != null) {
+					for (JsonValue value : documents) {
+						if (value instanceof JsonObject) {
+							JsonObject document = (JsonObject) value;
+							CompletableFuture<JsonObject> result = batch.remove(document.getString("id", ""));
+							if (result != null) {
+								found.increment();
+								result.complete(document);
+							}
+						}
+					}
+				}
+				for (Map.Entry<String, CompletableFuture<JsonObject>> entry : batch.entrySet()) {
+					pointRead(entry.getKey(), entry.getValue());
+				}
+			} catch (RuntimeException e) {
+				//nobody observes this callback, the futures not yet completed would otherwise never be
+				for (CompletableFuture<JsonObject> document : batch.values()) {
+					document.completeExceptionally(e);
+				}
+			}
+		});
+	}
+
+	private void pointRead(String documentId, CompletableFuture<JsonObject> result) {
+		pointReads.increment();
+		db.getDocumentAsync(dbResourceId, collectionResId, documentId, JsonObject.class).whenComplete((document, t) -> {
+			if (t != null) {
+				result.completeExceptionally(cause(t));
+			} else {
+				result.complete(document);
+			}
+		});
+	}
+
+	static PreparedQuery query(int ids) {
+		StringBuilder query = new StringBuilder("SELECT * FROM c WHERE c.id IN (");
+		for (int i = 0; i < ids; i++) {
+			query.append(i > 0 ? ", @id" : "@id").append(i);
+		}
+		return new PreparedQuery(query.append(')').toString());
+	}
+
+	static Throwable cause(Throwable t) {
+		return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+	}
+
+	//documents requested, including repeated ids
+	public long getRequested() {
+		return requested.sum();
+	}
+
+	//queries and single id point reads sent for batches
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	//ids read through the IN queries and how many of them the queries returned
+	public long getQueried() {
+		return queried.sum();
+	}
+
+	public long getFound() {
+		return found.sum();
+	}
+
+	//getDocument reads for single id batches and ids the queries did not return
+	public long getPointReads() {
+		return pointReads.sum();
+	}
+
+	//distinct ids per batch
+	public double getAverageBatchSize() {
+		long b = batches.sum();
+		return b > 0 ? batched.sum() / (double) b : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("requested: %d batches: %d (%.1f ids per batch) queried: %d found: %d point reads: %d", getRequested(), getBatches(), getAverageBatchSize(), getQueried(), getFound(), getPointReads());
+	}
+
+}
@@ -0,0 +1,151 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import com.cpsgpartners.azure.documentdb.DocumentDB.ResponseHandler;
+
+/**
+ Bounded least recently used cache of documents read through DocumentDB.getDocument, keyed by the document resource link.
+
+ A cached document is always revalidated with If-None-Match using the ETag it was read with. A 304 Not Modified response returns the cached instance
+ without transferring or deserializing the body again, any other response replaces the entry. replaceDocument and deleteDocument issued through the
+ same DocumentDB instance invalidate the entry. Cached instances are handed to every caller so they should be treated as read only, JsonObject is
+ immutable and a good fit.
+
+ for example,
+
+ db.setDocumentCache(new DocumentCache(10000));
+ JsonObject doc = db.getDocument(dbId, collId, docId, JsonObject.class);
+ System.out.println(db.getDocumentCache());
+
+ */
+public class DocumentCache {
+
+	public static final int DEFAULT_MAX_DOCUMENTS = 10000;
+
+	static class Entry {
+		final String etag;
+		final Class<?> type;
+		final Object value;
+
+		Entry(String etag, Class<?> type, Object value) {
+			this.etag = etag;
+			this.type = type;
+			this.value = value;
+		}
+	}
+
+	//records the status and ETag of a response before the entity is read
+	static class Validation implements ResponseHandler {
+		int status;
+		String etag;
+
+		@Override
+		public void handle(Response response) {
+			status = response.getStatus();
+			etag = response.getHeaderString(HttpHeaders.ETAG);
+		}
+
+		boolean notModified() {
+			return status == Response.Status.NOT_MODIFIED.getStatusCode();
+		}
+	}
+
+	private final LruCache<String, Entry> documents;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder modified = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	public DocumentCache() {
+		this(DEFAULT_MAX_DOCUMENTS);
+	}
+
+	public DocumentCache(int maxDocuments) {
+		this.documents = new LruCache<String, Entry>(maxDocuments);
+	}
+
+	Entry get(String path, Class<?> type) {
+		Entry entry = documents.get(path);
+		if (entry == null || entry.type != type) {
+			misses.increment();
+			return null;
+		}
+		return entry;
+	}
+
+	//the response to a cached entry's If-None-Match request, returns the value to hand back to the caller
+	<S> S revalidated(String path, Entry entry, Validation validation, Class<S> type, S value) {
+		if (validation.notModified()) {
+			hits.increment();
+			return type.cast(entry.value);
+		}
+		modified.increment();
+		put(path, validation.etag, type, value);
+		return value;
+	}
+
+	void put(String path, String etag, Class<?> type, Object value) {
+		if (etag == null || value == null) {
+			documents.remove(path);
+			return;
+		}
+		documents.put(path, new Entry(etag, type, value));
+	}
+
+	public void invalidate(String path) {
+		if (documents.remove(path) != null) {
+			invalidations.increment();
+		}
+	}
+
+	public void clear() {
+		documents.clear();
+	}
+
+	public int size() {
+		return documents.size();
+	}
+
+	//revalidations answered with 304 Not Modified and served from the cache
+	public long getHits() {
+		return hits.sum();
+	}
+
+	//reads without a cached document
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	//revalidations where the document had changed on the server
+	public long getModified() {
+		return modified.sum();
+	}
+
+	public long getRevalidations() {
+		return hits.sum() + modified.sum();
+	}
+
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	public long getEvictions() {
+		return documents.getEvictions();
+	}
+
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + modified.sum() + misses.sum();
+		return total > 0 ? (double) h / total : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("size: %d hits: %d misses: %d modified: %d invalidations: %d evictions: %d hit rate: %.2f", size(), getHits(), getMisses(), getModified(), getInvalidations(), getEvictions(), getHitRate());
+	}
+
+}
@@ -1,32 +1,41 @@
 package com.cpsgpartners.azure.documentdb;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
 import java.time.format.DateTimeFormatter;
-import java.util.Base64;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.WeakHashMap;
-import java.util.regex.Matcher;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.WebApplicationException;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation.Builder;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.HttpHeaders;
@@ -34,6 +43,9 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilderException;
 
+import com.cpsgpartners.azure.common.SharedKeySigner;
+import com.cpsgpartners.azure.common.Transport;
+
 //import org.glassfish.jersey.filter.LoggingFilter;
 
 //https://github.com/Azure/azure-documentdb-java
@@ -43,7 +55,21 @@ public class DocumentDB {
 	public static final String AZURE_DOCUMENTDB_VERSION = "2015-04-08";
 
 	//DateTimeFormatter.RFC_1123_DATE_TIME does not pad the date as required by Azure
-	public static final DateTimeFormatter RFC1123_DATE_TIME = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss z");
+	public static final DateTimeFormatter RFC1123_DATE_TIME = SharedKeySigner.RFC1123_DATE_TIME;
+
+	static final MediaType QUERY_JSON = MediaType.valueOf("application/query+json");
+
+	//URL encoded form of "type=master&ver=1.0&sig="
+	private static final String AUTHORIZATION_PREFIX = "type%3Dmaster%26ver%3D1.0%26sig%3D";
+
+	//bound on the cached collection links, the cache is simply cleared when reached
+	static final int MAX_COLLECTION_LINKS = 1024;
+
+	public static final int DEFAULT_RESPONSE_THREADS = 16;
+
+	//runs the asynchronous operations that return an unread Response, each holds a thread until its response headers arrive. Bounded so a burst
+	//of them queues instead of starting a thread each, threads are dropped after a minute idle.
+	static final ExecutorService RESPONSES = responseExecutor(DEFAULT_RESPONSE_THREADS);
 
 	public static Pattern DOCUMENTDB_URI_PATTERN = Pattern.compile("dbs\\/([^\\/]+)\\/(colls\\/([^\\/]+)\\/)?(([^\\/]+)\\/([^\\/]+)\\/)?(attachments\\/([^\\/]+)\\/?)?");
 
@@ -55,10 +81,22 @@ public class DocumentDB {
 		Include, Exclude;
 	}
 
+	public static enum OperationType {
+		Create, Read, ReadFeed, Replace, Delete, Query, Execute;
+	}
+
 	public static enum ETagMode {
 		MATCH, NO_MATCH
 	}
 
+	public static enum TriggerType {
+		Pre, Post;
+	}
+
+	public static enum TriggerOperation {
+		All, Create, Replace, Delete;
+	}
+
 	public static class ETag {
 
 		private final ETagMode mode;
@@ -137,46 +175,297 @@ public class DocumentDB {
 		public String getAttId() {
 			return attId;
 		}
+
+		public static Id database(String dbId) {
+			return new Id(dbId, null, null, null);
+		}
+
+		public static Id collection(String dbId, String collId) {
+			return new Id(dbId, collId, null, null);
+		}
+
+		public static Id document(String dbId, String collId, String docId) {
+			return new Id(dbId, collId, "docs", docId);
+		}
+
+		public static Id attachment(String dbId, String collId, String docId, String attId) {
+			return new Id(dbId, collId, "docs", docId, attId);
+		}
+
+		public static Id storedProcedure(String dbId, String collId, String spId) {
+			return new Id(dbId, collId, "sprocs", spId);
+		}
 				
 	}
 
 	//private final String id;
-	private final String masterKey;
-	private final Map<String, String> sessionStore = new WeakHashMap<String, String>();
+	private final SharedKeySigner signer;
+	private final SessionTokenStore sessionStore = new SessionTokenStore();
 	private final ConsistencyLevel consistencyLevel;
-	private final Client client;
+	private final Transport transport;
 	private final WebTarget endpoint;
+	private final URI endpointUri;
+	private final ResourceLink databases;
+	//keyed by database and collection resource id, collections addressed by id only share a name across databases
+	private final ConcurrentHashMap<String, ResourceLink.Collection> collectionLinks = new ConcurrentHashMap<String, ResourceLink.Collection>();
+	private volatile RetryPolicy retryPolicy = new RetryPolicy();
+	private final List<OperationListener> listeners = new CopyOnWriteArrayList<OperationListener>();
+	private volatile DocumentCache documentCache;
+	private volatile MetadataCache metadataCache = new MetadataCache();
+	private volatile QueryCache queryCache;
+	private volatile ReadCoalescer readCoalescer;
+	private final Class<?>[] components;
+	private volatile ReadRoute readRoute;
+	private volatile ExecutorService responseExecutor = RESPONSES;
 
 	public DocumentDB(String id, String masterKey, ConsistencyLevel consistencyLevel, Class<?>... components) {
-		//this.id = id;
-		this.masterKey = masterKey;
+		this(id, masterKey, consistencyLevel, new Transport(), components);
+	}
+
+	public DocumentDB(String id, String masterKey, ConsistencyLevel consistencyLevel, Transport transport, Class<?>... components) {
+		this(URI.create(String.format(AZURE_DOCUMENTDB_ENDPOINT, id)), masterKey, consistencyLevel, transport, components);
+	}
+
+	//account endpoint other than https://{id}.documents.azure.com, i.e. the emulator or a local stand-in
+	public DocumentDB(URI endpointUri, String masterKey, ConsistencyLevel consistencyLevel, Transport transport, Class<?>... components) {
+		this.signer = new SharedKeySigner(masterKey);
 		this.consistencyLevel = consistencyLevel;
-		client = ClientBuilder.newClient();
+		this.transport = transport;
+		this.components = components;
+		WebTarget endpoint = target(endpointUri);
+		//endpoint.register(new LoggingFilter());
+		this.endpoint = endpoint;
+		this.endpointUri = endpoint.getUri();
+		this.databases = new ResourceLink(endpoint.path("/dbs"), "/dbs", "dbs", "", endpointUri);
+	}
+
+	//components are registered on this instance's targets so a shared transport client is left untouched
+	private WebTarget target(URI uri) {
+		WebTarget target = transport.target(uri.toString());
 		if (components != null) {
 			for (Class<?> c : components) {
-				client.register(c);
+				target = target.register(c);
+			}
+		}
+		return target;
+	}
+
+	public Transport getTransport() {
+		return transport;
+	}
+
+	public SessionTokenStore getSessionTokenStore() {
+		return sessionStore;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	public DocumentDB addOperationListener(OperationListener listener) {
+		listeners.add(listener);
+		return this;
+	}
+
+	public DocumentDB removeOperationListener(OperationListener listener) {
+		listeners.remove(listener);
+		return this;
+	}
+
+	//null disables retrying throttled (429) requests
+	public DocumentDB setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+		return this;
+	}
+
+	public DocumentCache getDocumentCache() {
+		return documentCache;
+	}
+
+	//getDocument calls without an explicit ETag are served through the cache, null disables caching
+	public DocumentDB setDocumentCache(DocumentCache documentCache) {
+		this.documentCache = documentCache;
+		return this;
+	}
+
+	public MetadataCache getMetadataCache() {
+		return metadataCache;
+	}
+
+	//null reads the database and collection feeds on every resolution
+	public DocumentDB setMetadataCache(MetadataCache metadataCache) {
+		this.metadataCache = metadataCache;
+		return this;
+	}
+
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+
+	//queryDocuments pages are served through the cache, null disables caching
+	public DocumentDB setQueryCache(QueryCache queryCache) {
+		this.queryCache = queryCache;
+		return this;
+	}
+
+	public ReadCoalescer getReadCoalescer() {
+		return readCoalescer;
+	}
+
+	//concurrent identical reads share one request, null sends every read
+	public DocumentDB setReadCoalescer(ReadCoalescer readCoalescer) {
+		this.readCoalescer = readCoalescer;
+		return this;
+	}
+
+	public ReadEndpoints getReadEndpoints() {
+		ReadRoute route = readRoute;
+		return route != null ? route.endpoints : null;
+	}
+
+	//reads are sent to the read endpoints, null sends them to the write endpoint
+	public DocumentDB setReadEndpoints(ReadEndpoints readEndpoints) {
+		this.readRoute = readEndpoints != null ? new ReadRoute(readEndpoints) : null;
+		return this;
+	}
+
+	public ExecutorService getResponseExecutor() {
+		return responseExecutor;
+	}
+
+	//runs the asynchronous operations returning an unread Response, i.e. QueryStreamingOutput and media downloads, by default a pool of
+	//DEFAULT_RESPONSE_THREADS shared by every DocumentDB. See responseExecutor to size one.
+	public DocumentDB setResponseExecutor(ExecutorService responseExecutor) {
+		this.responseExecutor = responseExecutor != null ? responseExecutor : RESPONSES;
+		return this;
+	}
+
+	//at most threads daemon threads, further operations queue
+	public static ExecutorService responseExecutor(int threads) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread t = new Thread(r, "documentdb-response");
+			t.setDaemon(true);
+			return t;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	//targets of the read endpoints, built once for each ReadEndpoints
+	final class ReadRoute {
+		final ReadEndpoints endpoints;
+		final WebTarget[] targets;
+		final URI[] uris;
+
+		ReadRoute(ReadEndpoints endpoints) {
+			this.endpoints = endpoints;
+			this.targets = new WebTarget[endpoints.endpoints.size()];
+			this.uris = new URI[targets.length];
+			for (int i = 0; i < targets.length; i++) {
+				targets[i] = target(endpoints.endpoints.get(i));
+				uris[i] = targets[i].getUri();
 			}
 		}
-		//client.register(new LoggingFilter());
-		endpoint = client.target(String.format(AZURE_DOCUMENTDB_ENDPOINT, id));
+
+		//the link with the same path on read endpoint index, wrapping around
+		ResourceLink link(int index, ResourceLink link) {
+			int i = index % targets.length;
+			return new ResourceLink(targets[i].path(link.path), link.path, link.resourceType, link.resourceId, uris[i]);
+		}
 	}
 
+	//same syntax as DOCUMENTDB_URI_PATTERN, dbs/{db}/[colls/{coll}/][{type}/{id}/][attachments/{att}[/]], without running the regex
 	public static Id parse(String idURI) throws UriBuilderException {
-		Matcher m = DOCUMENTDB_URI_PATTERN.matcher(idURI);
-		if (m.matches()) {
-			return new Id(m.group(1) != null ? m.group(1) : "", m.group(3) != null ? m.group(3) : "", m.group(5) != null ? m.group(5) : "", m.group(6) != null ? m.group(6) : "", m.group(8) != null ? m.group(8) : "");
+		String[] segments = new String[8];
+		int count = 0;
+		int length = idURI.length();
+		for (int start = 0; start < length;) {
+			int end = idURI.indexOf('/', start);
+			if (end < 0) {
+				end = length;
+			}
+			if (end == start || count == segments.length) {
+				throw invalidId(idURI);
+			}
+			segments[count++] = idURI.substring(start, end);
+			start = end + 1;
+		}
+		if (count < 2 || count % 2 != 0 || !"dbs".equals(segments[0])) {
+			throw invalidId(idURI);
+		}
+		String collId = "";
+		String resType = "";
+		String resId = "";
+		String attId = "";
+		int i = 2;
+		if (i < count && "colls".equals(segments[i])) {
+			collId = segments[i + 1];
+			i += 2;
+		}
+		if (i < count) {
+			resType = segments[i];
+			resId = segments[i + 1];
+			i += 2;
+		}
+		if (i < count) {
+			if (!"attachments".equals(segments[i])) {
+				throw invalidId(idURI);
+			}
+			attId = segments[i + 1];
+			i += 2;
+		}
+		if (i != count) {
+			throw invalidId(idURI);
 		}
-		throw new UriBuilderException(String.format("invalid ID format %s", idURI));
+		if (idURI.charAt(length - 1) != '/') {
+			//only the attachment segment may omit the trailing slash
+			if (attId.isEmpty() && "attachments".equals(resType)) {
+				attId = resId;
+				resType = "";
+				resId = "";
+			} else if (attId.isEmpty()) {
+				throw invalidId(idURI);
+			}
+		}
+		return new Id(segments[1], collId, resType, resId, attId);
+	}
+
+	private static UriBuilderException invalidId(String idURI) {
+		return new UriBuilderException(String.format("invalid ID format %s", idURI));
 	}
 
 	public static Id newDocumentId(Id collectionId, String documentId) throws UriBuilderException {
 		return new Id(collectionId.getDbId(), collectionId.getCollId(), "docs", documentId);
 	}
-	
-	
+
+	ResourceLink database(String dbResourceId) {
+		return databases.resolve("/" + dbResourceId, "dbs", dbResourceId);
+	}
+
+	ResourceLink collections(String dbResourceId) {
+		return databases.resolve("/" + dbResourceId + "/colls/", "colls", dbResourceId);
+	}
+
+	ResourceLink.Collection collection(String dbResourceId, String collectionResId) {
+		String key = dbResourceId + '/' + collectionResId;
+		ResourceLink.Collection links = collectionLinks.get(key);
+		if (links == null) {
+			if (collectionLinks.size() >= MAX_COLLECTION_LINKS) {
+				collectionLinks.clear();
+			}
+			links = new ResourceLink.Collection(endpoint, endpointUri, dbResourceId, collectionResId);
+			collectionLinks.put(key, links);
+		}
+		return links;
+	}
+
 
 	public JsonObject createDatabase(String databaseId) throws WebApplicationException {
-		return operation(endpoint.path("/dbs"), null, null, "POST", null, Response.Status.CREATED, Entity.entity(Json.createObjectBuilder().add("id", databaseId).build(), MediaType.APPLICATION_JSON_TYPE), JsonObject.class, "dbs", "");
+		try {
+			return operation(databases, null, null, "POST", null, Response.Status.CREATED, Entity.entity(Json.createObjectBuilder().add("id", databaseId).build(), MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+		} finally {
+			metadata().created(null);
+		}
 	}
 
 	public JsonObject getDatabase(String dbResourceId) throws WebApplicationException {
@@ -184,11 +473,11 @@ public class DocumentDB {
 	}
 
 	public JsonObject getDatabase(String dbResourceId, ETag etag) throws WebApplicationException {
-		return operation(endpoint.path(String.format("/dbs/%s", dbResourceId)), null, null, "GET", etag, Response.Status.OK, null, JsonObject.class, "dbs", dbResourceId);
+		return operation(database(dbResourceId), null, null, "GET", etag, Response.Status.OK, null, JsonObject.class);
 	}
 
 	public JsonObject listDatabases() throws WebApplicationException {
-		return operation(endpoint.path("/dbs"), null, null, "GET", null, Response.Status.OK, null, JsonObject.class, "dbs", "");
+		return operation(databases, null, null, "GET", null, Response.Status.OK, null, JsonObject.class);
 	}
 
 	public void deleteDatabase(String dbResourceId) throws WebApplicationException {
@@ -196,7 +485,11 @@ public class DocumentDB {
 	}
 
 	public void deleteDatabase(String dbResourceId, ETag etag) throws WebApplicationException {
-		operation(endpoint.path(String.format("/dbs/%s", dbResourceId)), null, null, "DELETE", etag, Response.Status.NO_CONTENT, null, null, "dbs", dbResourceId);
+		try {
+			operation(database(dbResourceId), null, null, "DELETE", etag, Response.Status.NO_CONTENT, null, null);
+		} finally {
+			metadata().invalidate(dbResourceId);
+		}
 	}
 
 	public JsonObject createCollection(String dbResourceId, String collectionId) throws WebApplicationException {
@@ -208,11 +501,69 @@ public class DocumentDB {
 		if (indexingPolicy != null) {
 			builder.add("IndexingPolicy", indexingPolicy);
 		}
-		return operation(endpoint.path(String.format("/dbs/%s/colls/", dbResourceId)), null, null, "POST", null, Response.Status.CREATED, Entity.entity(builder.build(), MediaType.APPLICATION_JSON_TYPE), JsonObject.class, "colls", dbResourceId);
+		try {
+			return operation(collections(dbResourceId), null, null, "POST", null, Response.Status.CREATED, Entity.entity(builder.build(), MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+		} finally {
+			metadata().created(dbResourceId);
+		}
 	}
 
 	public JsonObject listCollections(String dbResourceId) throws WebApplicationException {
-		return operation(endpoint.path(String.format("/dbs/%s/colls/", dbResourceId)), null, null, "GET", null, Response.Status.OK, null, JsonObject.class, "colls", dbResourceId);
+		return operation(collections(dbResourceId), null, null, "GET", null, Response.Status.OK, null, JsonObject.class);
+	}
+
+	//database id or _rid to the database _rid, the databases feed is only read when the cached one has expired or does not contain the database
+	public String resolveDatabase(String database) throws WebApplicationException {
+		MetadataCache cache = metadata();
+		String rid = cache.database(database);
+		if (rid == null && !cache.unknownDatabase(database)) {
+			rid = cache.loaded(cache.databases(readFeed(databases)), database);
+		}
+		return resolved(rid, "database", database);
+	}
+
+	//collection id or _rid to the collection _rid, the database may also be given by id or _rid
+	public String resolveCollection(String database, String collection) throws WebApplicationException {
+		String dbResourceId = resolveDatabase(database);
+		MetadataCache cache = metadata();
+		String rid = cache.collection(dbResourceId, collection);
+		if (rid == null && !cache.unknownCollection(dbResourceId, collection)) {
+			rid = cache.loaded(cache.collections(dbResourceId, readFeed(collections(dbResourceId))), collection);
+		}
+		return resolved(rid, "collection", collection);
+	}
+
+	//every page of a feed, following x-ms-continuation
+	List<JsonObject> readFeed(ResourceLink feed) throws WebApplicationException {
+		List<JsonObject> pages = new ArrayList<JsonObject>();
+		FeedPage page = new FeedPage();
+		do {
+			pages.add(operation(feed, page, page, "GET", null, Response.Status.OK, null, JsonObject.class));
+		} while (page.more());
+		return pages;
+	}
+
+	CompletableFuture<List<JsonObject>> readFeedAsync(ResourceLink feed) {
+		return readFeedAsync(feed, new FeedPage(), new ArrayList<JsonObject>());
+	}
+
+	private CompletableFuture<List<JsonObject>> readFeedAsync(ResourceLink feed, FeedPage page, List<JsonObject> pages) {
+		return this.<Object, JsonObject> operationAsync(feed, page, page, "GET", null, Response.Status.OK, null, JsonObject.class).thenCompose(p -> {
+			pages.add(p);
+			return page.more() ? readFeedAsync(feed, page, pages) : CompletableFuture.completedFuture(pages);
+		});
+	}
+
+	private MetadataCache metadata() {
+		MetadataCache cache = metadataCache;
+		return cache != null ? cache : new MetadataCache();
+	}
+
+	static String resolved(String rid, String resourceType, String name) throws WebApplicationException {
+		if (rid == null) {
+			throw new WebApplicationException(String.format("%s %s not found", resourceType, name), Response.Status.NOT_FOUND);
+		}
+		return rid;
 	}
 
 	public static class IndexRequestHelper implements RequestHandler {
@@ -234,13 +585,13 @@ public class DocumentDB {
 
 	public <S, R> R createDocument(String dbResourceId, String collectionResId, S document, Class<R> responseType, IndexDirective indexDirective) throws WebApplicationException {
 
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/docs/", dbResourceId, collectionResId)), new IndexRequestHelper(indexDirective), null, "POST", null, Response.Status.CREATED, Entity.entity(document, MediaType.APPLICATION_JSON_TYPE), responseType, "docs", collectionResId);
+		return operation(collection(dbResourceId, collectionResId).docs, new IndexRequestHelper(indexDirective), null, "POST", null, Response.Status.CREATED, Entity.entity(document, MediaType.APPLICATION_JSON_TYPE), responseType);
 
 	}
 
 	public <R> R listDocuments(String dbResourceId, String collectionResId, Class<R> responseType) throws WebApplicationException {
-		WebTarget target = endpoint.path(String.format("/dbs/%s/colls/%s/docs/", dbResourceId, collectionResId));
-		return operation(target, null, null, "GET", null, Response.Status.OK, null, responseType, "docs", collectionResId);
+		ResourceLink link = collection(dbResourceId, collectionResId).docs;
+		return operation(link, null, null, "GET", null, Response.Status.OK, null, responseType);
 	}
 
 	public <S> S getDocument(String dbResourceId, String collectionResId, String documentResId, Class<S> responseType) throws WebApplicationException {
@@ -248,7 +599,37 @@ public class DocumentDB {
 	}
 
 	public <S> S getDocument(String dbResourceId, String collectionResId, String documentResId, ETag etag, Class<S> responseType) throws WebApplicationException {
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/docs/%s/", dbResourceId, collectionResId, documentResId)), null, null, "GET", etag, Response.Status.OK, null, responseType, "docs", documentResId);
+		ResourceLink link = collection(dbResourceId, collectionResId).document(documentResId);
+		DocumentCache cache = documentCache;
+		if (cache == null || etag != null) {
+			return operation(link, null, null, "GET", etag, Response.Status.OK, null, responseType);
+		}
+		ReadCoalescer coalescer = readCoalescer;
+		if (coalescer != null) {
+			//the request revalidating the cached document is shared as well
+			return coalescer.read(coalescer.key(link.path, responseType), link.path, () -> getDocument(link, cache, responseType));
+		}
+		return getDocument(link, cache, responseType);
+	}
+
+	private <S> S getDocument(ResourceLink link, DocumentCache cache, Class<S> responseType) throws WebApplicationException {
+		String path = link.path;
+		DocumentCache.Entry entry = cache.get(path, responseType);
+		DocumentCache.Validation validation = new DocumentCache.Validation();
+		S document;
+		try {
+			document = operation(link, null, validation, "GET", entry != null ? new ETag(ETagMode.NO_MATCH, entry.etag) : null, Response.Status.OK, null, responseType);
+		} catch (WebApplicationException e) {
+			if (notFound(e)) {
+				cache.invalidate(path);
+			}
+			throw e;
+		}
+		if (entry != null) {
+			return cache.revalidated(path, entry, validation, responseType, document);
+		}
+		cache.put(path, validation.etag, responseType, document);
+		return document;
 	}
 
 	public <S, R> R replaceDocument(String dbResourceId, String collectionResId, String documentResId, S document, Class<R> responseType, IndexDirective indexDirective) throws WebApplicationException {
@@ -256,8 +637,13 @@ public class DocumentDB {
 	}
 
 	public <S, R> R replaceDocument(String dbResourceId, String collectionResId, String documentResId, ETag etag, S document, Class<R> responseType, IndexDirective indexDirective) throws WebApplicationException {
-
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/docs/%s/", dbResourceId, collectionResId, documentResId)), new IndexRequestHelper(indexDirective), null, "PUT", etag, Response.Status.OK, Entity.entity(document, MediaType.APPLICATION_JSON_TYPE), responseType, "docs", documentResId);
+		ResourceLink link = collection(dbResourceId, collectionResId).document(documentResId);
+		String path = link.path;
+		try {
+			return operation(link, new IndexRequestHelper(indexDirective), null, "PUT", etag, Response.Status.OK, Entity.entity(document, MediaType.APPLICATION_JSON_TYPE), responseType);
+		} finally {
+			invalidate(path);
+		}
 	}
 
 	public void deleteDocument(String dbResourceId, String collectionResId, String documentResId) throws WebApplicationException {
@@ -265,7 +651,49 @@ public class DocumentDB {
 	}
 
 	public void deleteDocument(String dbResourceId, String collectionResId, String documentResId, ETag etag) throws WebApplicationException {
-		operation(endpoint.path(String.format("/dbs/%s/colls/%s/docs/%s/", dbResourceId, collectionResId, documentResId)), null, null, "DELETE", etag, Response.Status.NO_CONTENT, null, JsonObject.class, "docs", documentResId);
+		ResourceLink link = collection(dbResourceId, collectionResId).document(documentResId);
+		String path = link.path;
+		try {
+			operation(link, null, null, "DELETE", etag, Response.Status.NO_CONTENT, null, JsonObject.class);
+		} finally {
+			invalidate(path);
+		}
+	}
+
+	private void invalidate(String path) {
+		DocumentCache cache = documentCache;
+		if (cache != null) {
+			cache.invalidate(path);
+		}
+	}
+
+	static boolean notFound(Throwable t) {
+		if (t instanceof CompletionException && t.getCause() != null) {
+			t = t.getCause();
+		}
+		return t instanceof WebApplicationException && ((WebApplicationException) t).getResponse() != null && ((WebApplicationException) t).getResponse().getStatus() == Response.Status.NOT_FOUND.getStatusCode();
+	}
+
+	//sends the continuation of the previous page of a read feed and keeps the one of the page received
+	static class FeedPage implements RequestHandler, ResponseHandler {
+		String continuationToken = null;
+
+		@Override
+		public void handle(Builder builder) {
+			if (continuationToken != null && !continuationToken.isEmpty()) {
+				builder.header("x-ms-continuation", continuationToken);
+			}
+		}
+
+		@Override
+		public void handle(Response response) {
+			continuationToken = response.getHeaderString("x-ms-continuation");
+		}
+
+		boolean more() {
+			return continuationToken != null && !continuationToken.isEmpty();
+		}
+
 	}
 
 	public static class QueryRequest implements RequestHandler {
@@ -322,15 +750,46 @@ public class DocumentDB {
 	}
 
 	public <R> R queryDocuments(String dbResourceId, String collectionResId, String query, Map<String, String> parameters, Object responseType, int pageSize, String continuationToken) throws WebApplicationException {
-		QueryResponse qresponse = new QueryResponse();
-		JsonArrayBuilder paramBuilder = Json.createArrayBuilder();
-		if (parameters != null) {
-			for (Map.Entry<String, String> entry : parameters.entrySet()) {
-				paramBuilder.add(Json.createObjectBuilder().add("name", entry.getKey()).add("value", entry.getValue()));
+		ResourceLink docs = collection(dbResourceId, collectionResId).docs;
+		QueryCache cache = queryCache;
+		ReadCoalescer coalescer = queryCoalescer();
+		if ((cache == null && coalescer == null) || responseType == Response.class) {
+			return queryDocuments(docs, Entity.entity(queryDocument(query, parameters), QUERY_JSON), responseType, pageSize, continuationToken);
+		}
+		return queryDocuments(docs, cache, coalescer, QueryCache.key(docs.path, query, parameters, pageSize, continuationToken, responseType), () -> Entity.entity(queryDocument(query, parameters), QUERY_JSON), responseType, pageSize, continuationToken);
+	}
+
+	//the body is the pre-encoded query with the values, given in parameter order, spliced in
+	public <R> R queryDocuments(String dbResourceId, String collectionResId, PreparedQuery query, Object responseType, int pageSize, String continuationToken, Object... values) throws WebApplicationException {
+		ResourceLink docs = collection(dbResourceId, collectionResId).docs;
+		QueryCache cache = queryCache;
+		ReadCoalescer coalescer = queryCoalescer();
+		if ((cache == null && coalescer == null) || responseType == Response.class) {
+			return queryDocuments(docs, Entity.entity(query.body(values), QUERY_JSON), responseType, pageSize, continuationToken);
+		}
+		return queryDocuments(docs, cache, coalescer, QueryCache.key(docs.path, query, values, pageSize, continuationToken, responseType), () -> Entity.entity(query.body(values), QUERY_JSON), responseType, pageSize, continuationToken);
+	}
+
+	//the body is only built when the page is not cached and no identical query is in flight, either of the cache and coalescer may be null
+	private <R> R queryDocuments(ResourceLink docs, QueryCache cache, ReadCoalescer coalescer, QueryCache.Key key, Supplier<Entity<?>> body, Object responseType, int pageSize, String continuationToken) throws WebApplicationException {
+		if (cache != null) {
+			R cached = cache.get(key);
+			if (cached != null) {
+				return cached;
 			}
 		}
-		JsonObject queryObject = Json.createObjectBuilder().add("query", query).add("parameters", paramBuilder).build();
-		R result = operation(endpoint.path(String.format("/dbs/%s/colls/%s/docs/", dbResourceId, collectionResId)), new QueryRequest(pageSize, continuationToken), qresponse, "POST", null, Response.Status.OK, Entity.entity(queryObject, "application/query+json"), responseType, "docs", collectionResId);
+		long generation = cache != null ? cache.generation(key) : 0;
+		R result = coalescer != null ? coalescer.read(key, docs.path, () -> this.<R> queryDocuments(docs, body.get(), responseType, pageSize, continuationToken))
+				: queryDocuments(docs, body.get(), responseType, pageSize, continuationToken);
+		if (cache != null) {
+			cache.put(key, generation, result);
+		}
+		return result;
+	}
+
+	private <R> R queryDocuments(ResourceLink docs, Entity<?> body, Object responseType, int pageSize, String continuationToken) throws WebApplicationException {
+		QueryResponse qresponse = new QueryResponse();
+		R result = operation(docs, new QueryRequest(pageSize, continuationToken), qresponse, "POST", null, Response.Status.OK, body, responseType);
 		if (result instanceof QueryResult) {
 			QueryResult qResult = (QueryResult) result;
 			qResult.setContinuation(qresponse.getContinuationToken());
@@ -338,6 +797,42 @@ public class DocumentDB {
 		return result;
 	}
 
+	//each document is handed to the consumer as it is parsed so only one document, rather than the whole page, is held in memory
+	public DocumentReader.Page queryDocuments(String dbResourceId, String collectionResId, String query, Map<String, String> parameters, Consumer<? super JsonValue> consumer, int pageSize, String continuationToken) throws WebApplicationException {
+		QueryResponse qresponse = new QueryResponse();
+		JsonObject queryObject = queryDocument(query, parameters);
+		Response response = operation(collection(dbResourceId, collectionResId).docs, new QueryRequest(pageSize, continuationToken), qresponse, "POST", null, Response.Status.OK, Entity.entity(queryObject, QUERY_JSON), Response.class);
+		try {
+			DocumentReader.Page page = response.hasEntity() ? DocumentReader.read(response.readEntity(InputStream.class), consumer) : new DocumentReader.Page();
+			page.continuation = qresponse.getContinuationToken();
+			return page;
+		} finally {
+			response.close();
+		}
+	}
+
+	//follows the continuation through every page of the query, returns the number of documents passed to the consumer
+	public long forEachDocument(String dbResourceId, String collectionResId, String query, Map<String, String> parameters, int pageSize, Consumer<? super JsonValue> consumer) throws WebApplicationException {
+		long documents = 0;
+		String continuationToken = null;
+		do {
+			DocumentReader.Page page = queryDocuments(dbResourceId, collectionResId, query, parameters, consumer, pageSize, continuationToken);
+			documents += page.getDocuments();
+			continuationToken = page.getContinuation();
+		} while (continuationToken != null && !continuationToken.isEmpty());
+		return documents;
+	}
+
+	//iterates over all query pages, prefetching the next page while the current one is consumed
+	public <R> QueryIterator<R> queryIterator(String dbResourceId, String collectionResId, String query, Map<String, String> parameters, GenericType<? extends QueryResult<R>> responseType, int pageSize) throws WebApplicationException {
+		return new QueryIterator<R>(continuationToken -> this.<QueryResult<R>> queryDocumentsAsync(dbResourceId, collectionResId, query, parameters, responseType, pageSize, continuationToken));
+	}
+
+	//close the stream to cancel the outstanding prefetch when it is not fully consumed
+	public <R> Stream<R> queryStream(String dbResourceId, String collectionResId, String query, Map<String, String> parameters, GenericType<? extends QueryResult<R>> responseType, int pageSize) throws WebApplicationException {
+		return queryIterator(dbResourceId, collectionResId, query, parameters, responseType, pageSize).stream();
+	}
+
 	public static class FileNameIndexRequestHelper implements RequestHandler {
 		String fileName;
 		IndexDirective indexDirective;
@@ -362,23 +857,14 @@ public class DocumentDB {
 	}
 
 	public JsonObject createAttachment(String dbResourceId, String collectionResId, String documentResId, String attachmentId, String fileName, String contentType, String media, JsonObject extraData, IndexDirective indexDirective) throws WebApplicationException {
-		if (attachmentId == null || contentType == null || media == null) {
-			throw new WebApplicationException(String.format("required attachment value missing: id: %s contentType: %s media: %s", attachmentId, contentType, media));
-		}
-		JsonObjectBuilder documentBuilder = Json.createObjectBuilder().add("id", attachmentId).add("contentType", contentType).add("media", media);
-		if (extraData != null) {
-			for (Entry<String, JsonValue> entry : extraData.entrySet()) {
-				documentBuilder.add(entry.getKey(), entry.getValue());
-			}
-		}
-		JsonObject document = documentBuilder.build();
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/docs/%s/attachments/", dbResourceId, collectionResId, documentResId)), new FileNameIndexRequestHelper(fileName, indexDirective), null, "POST", null, Response.Status.CREATED, Entity.entity(document, MediaType.APPLICATION_JSON_TYPE), JsonObject.class, "attachments", documentResId);
+		JsonObject document = attachmentDocument(attachmentId, contentType, media, extraData);
+		return operation(collection(dbResourceId, collectionResId).attachments(documentResId), new FileNameIndexRequestHelper(fileName, indexDirective), null, "POST", null, Response.Status.CREATED, Entity.entity(document, MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
 
 	}
 
 	public JsonObject listAttachments(String dbResourceId, String collectionResId, String documentResId) throws WebApplicationException {
-		WebTarget target = endpoint.path(String.format("/dbs/%s/colls/%s/docs/%s/attachments/", dbResourceId, collectionResId, documentResId));
-		return operation(target, null, null, "GET", null, Response.Status.OK, null, JsonObject.class, "attachments", documentResId);
+		ResourceLink link = collection(dbResourceId, collectionResId).attachments(documentResId);
+		return operation(link, null, null, "GET", null, Response.Status.OK, null, JsonObject.class);
 	}
 
 	public JsonObject getAttachment(String dbResourceId, String collectionResId, String documentResId, String attachmentResId) throws WebApplicationException {
@@ -386,7 +872,7 @@ public class DocumentDB {
 	}
 
 	public JsonObject getAttachment(String dbResourceId, String collectionResId, String documentResId, String attachmentResId, ETag etag) throws WebApplicationException {
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/docs/%s/attachments/%s/", dbResourceId, collectionResId, documentResId, attachmentResId)), null, null, "GET", etag, Response.Status.OK, null, JsonObject.class, "attachments", attachmentResId);
+		return operation(collection(dbResourceId, collectionResId).attachment(documentResId, attachmentResId), null, null, "GET", etag, Response.Status.OK, null, JsonObject.class);
 	}
 
 	public JsonObject replaceAttachment(String dbResourceId, String collectionResId, String documentResId, String attachmentResId, String attachmentId, String fileName, String contentType, String media, JsonObject extraData) throws WebApplicationException {
@@ -399,18 +885,8 @@ public class DocumentDB {
 	}
 
 	public JsonObject replaceAttachment(String dbResourceId, String collectionResId, String documentResId, String attachmentResId, ETag etag, String attachmentId, String fileName, String contentType, String media, JsonObject extraData, IndexDirective indexDirective) throws WebApplicationException {
-		if (attachmentId == null || contentType == null || media == null) {
-			throw new WebApplicationException(String.format("required attachment value missing: id: %s contentType: %s media: %s", attachmentId, contentType, media));
-		}
-		JsonObjectBuilder documentBuilder = Json.createObjectBuilder().add("id", attachmentId).add("contentType", contentType).add("media", media);
-		if (extraData != null) {
-			for (Entry<String, JsonValue> entry : extraData.entrySet()) {
-				documentBuilder.add(entry.getKey(), entry.getValue());
-			}
-		}
-		JsonObject document = documentBuilder.build();
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/docs/%s/attachments/%s/", dbResourceId, collectionResId, documentResId, attachmentResId)), new FileNameIndexRequestHelper(fileName, indexDirective), null, "PUT", etag, Response.Status.OK, Entity.entity(document, MediaType.APPLICATION_JSON_TYPE), JsonObject.class, "attachments",
-				attachmentResId);
+		JsonObject document = attachmentDocument(attachmentId, contentType, media, extraData);
+		return operation(collection(dbResourceId, collectionResId).attachment(documentResId, attachmentResId), new FileNameIndexRequestHelper(fileName, indexDirective), null, "PUT", etag, Response.Status.OK, Entity.entity(document, MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
 	}
 
 	public JsonObject deleteAttachment(String dbResourceId, String collectionResId, String documentResId, String attachmentResId) throws WebApplicationException {
@@ -418,95 +894,905 @@ public class DocumentDB {
 	}
 
 	public JsonObject deleteAttachment(String dbResourceId, String collectionResId, String documentResId, String attachmentResId, ETag etag) throws WebApplicationException {
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/docs/%s/attachments/%s/", dbResourceId, collectionResId, documentResId, attachmentResId)), null, null, "DELETE", etag, Response.Status.NO_CONTENT, null, JsonObject.class, "attachments", attachmentResId);
+		return operation(collection(dbResourceId, collectionResId).attachment(documentResId, attachmentResId), null, null, "DELETE", etag, Response.Status.NO_CONTENT, null, JsonObject.class);
+	}
+
+	//attachment with the raw media stored by DocumentDB, the Slug becomes the attachment id and media the /media/{mediaId} link to read it back with.
+	//The stream is written to the request as it is read, it cannot be replayed so a throttled upload is not retried.
+	public JsonObject createAttachment(String dbResourceId, String collectionResId, String documentResId, String slug, String contentType, InputStream media) throws WebApplicationException {
+		return createAttachment(dbResourceId, collectionResId, documentResId, slug, contentType, media, null);
+	}
+
+	public JsonObject createAttachment(String dbResourceId, String collectionResId, String documentResId, String slug, String contentType, InputStream media, IndexDirective indexDirective) throws WebApplicationException {
+		return operation(collection(dbResourceId, collectionResId).attachments(documentResId), new FileNameIndexRequestHelper(slug, indexDirective), null, "POST", null, Response.Status.CREATED, Entity.entity(media, contentType), JsonObject.class);
+	}
+
+	//the file is streamed from disk and can be sent again when throttled
+	public JsonObject createAttachment(String dbResourceId, String collectionResId, String documentResId, String slug, String contentType, Path media) throws WebApplicationException {
+		return operation(collection(dbResourceId, collectionResId).attachments(documentResId), new FileNameIndexRequestHelper(slug, null), null, "POST", null, Response.Status.CREATED, Entity.entity(media.toFile(), contentType), JsonObject.class);
+	}
+
+	public JsonObject replaceAttachmentMedia(String mediaLink, String contentType, InputStream media) throws WebApplicationException {
+		return operation(media(mediaLink), null, null, "PUT", null, Response.Status.OK, Entity.entity(media, contentType), JsonObject.class);
+	}
+
+	public JsonObject replaceAttachmentMedia(String mediaLink, String contentType, Path media) throws WebApplicationException {
+		return operation(media(mediaLink), null, null, "PUT", null, Response.Status.OK, Entity.entity(media.toFile(), contentType), JsonObject.class);
+	}
+
+	public AttachmentMedia getAttachmentMedia(String mediaLink) throws WebApplicationException {
+		return getAttachmentMedia(mediaLink, 0, -1);
+	}
+
+	//length bytes from offset, or the rest of the media for a negative length, requested with a Range header
+	public AttachmentMedia getAttachmentMedia(String mediaLink, long offset, long length) throws WebApplicationException {
+		if (offset < 0 || length == 0) {
+			throw new WebApplicationException(String.format("invalid media range offset: %d length: %d", offset, length));
+		}
+		RequestHandler range = builder -> {
+			builder.header(HttpHeaders.ACCEPT, null).accept(MediaType.WILDCARD_TYPE);
+			if (offset > 0 || length > 0) {
+				builder.header("Range", "bytes=" + offset + "-" + (length > 0 ? String.valueOf(offset + length - 1) : ""));
+			}
+		};
+		Response response = operation(media(mediaLink), range, null, "GET", null, null, null, Response.class);
+		int status = response.getStatus();
+		if (status != Response.Status.OK.getStatusCode() && status != Response.Status.PARTIAL_CONTENT.getStatusCode()) {
+			//the error body is read so the connection is released
+			response.bufferEntity();
+			throw new WebApplicationException(response);
+		}
+		return new AttachmentMedia(response, offset, length);
+	}
+
+	//media links are /media/{mediaId}, as returned in the media property of an attachment stored by DocumentDB
+	ResourceLink media(String mediaLink) throws WebApplicationException {
+		String mediaId = mediaLink.startsWith("/") ? mediaLink.substring(1) : mediaLink;
+		if (mediaId.startsWith("media/")) {
+			mediaId = mediaId.substring(6);
+		}
+		if (mediaId.isEmpty() || mediaId.indexOf('/') >= 0 || mediaId.indexOf(':') >= 0) {
+			throw new WebApplicationException(String.format("not a DocumentDB media link: %s", mediaLink));
+		}
+		String path = "/media/" + mediaId;
+		return new ResourceLink(endpoint.path(path), path, "media", mediaId, endpointUri);
+	}
+
+	//streamed attachment media, close it to release the connection when it is not read to the end
+	public static class AttachmentMedia implements Closeable {
+		public final InputStream content;
+		public final String contentType;
+		//first byte of the content within the media
+		public final long offset;
+		//bytes of content, -1 when unknown
+		public final long length;
+		//bytes of the whole media, -1 when unknown
+		public final long totalLength;
+		private final Response response;
+
+		AttachmentMedia(Response response, long offset, long length) {
+			this.response = response;
+			this.contentType = response.getMediaType() != null ? response.getMediaType().toString() : null;
+			//Content-Length of an encoded response is not the length of the media
+			String encoding = response.getHeaderString(HttpHeaders.CONTENT_ENCODING);
+			long contentLength = encoding == null || "identity".equalsIgnoreCase(encoding) ? response.getLength() : -1;
+			InputStream content = response.readEntity(InputStream.class);
+			String contentRange = response.getHeaderString("Content-Range");
+			if (response.getStatus() == Response.Status.PARTIAL_CONTENT.getStatusCode() && contentRange != null) {
+				//bytes {first}-{last}/{total or *}
+				int dash = contentRange.indexOf('-');
+				int slash = contentRange.indexOf('/');
+				this.offset = Long.parseLong(contentRange.substring(contentRange.indexOf(' ') + 1, dash).trim());
+				this.length = Long.parseLong(contentRange.substring(dash + 1, slash).trim()) - this.offset + 1;
+				String total = contentRange.substring(slash + 1).trim();
+				this.totalLength = "*".equals(total) ? -1 : Long.parseLong(total);
+				this.content = content;
+			} else {
+				//the Range was ignored, the requested bytes are cut out of the whole media as it is read
+				this.offset = offset;
+				this.totalLength = contentLength;
+				long available = contentLength >= 0 ? Math.max(0, contentLength - offset) : -1;
+				this.length = length > 0 ? (available >= 0 ? Math.min(length, available) : -1) : available;
+				this.content = offset > 0 || length > 0 ? new RangeInputStream(content, offset, length > 0 ? length : Long.MAX_VALUE) : content;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				content.close();
+			} finally {
+				response.close();
+			}
+		}
+	}
+
+	static class RangeInputStream extends FilterInputStream {
+		private long skip;
+		private long remaining;
+
+		RangeInputStream(InputStream in, long offset, long length) {
+			super(in);
+			this.skip = offset;
+			this.remaining = length;
+		}
+
+		private boolean position() throws IOException {
+			while (skip > 0) {
+				long skipped = in.skip(skip);
+				if (skipped <= 0) {
+					if (in.read() < 0) {
+						return false;
+					}
+					skipped = 1;
+				}
+				skip -= skipped;
+			}
+			return remaining > 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!position()) {
+				return -1;
+			}
+			int b = in.read();
+			if (b >= 0) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!position()) {
+				return -1;
+			}
+			int read = in.read(b, off, (int) Math.min(len, remaining));
+			if (read > 0) {
+				remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			if (!position()) {
+				return 0;
+			}
+			long skipped = in.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return skip > 0 ? 0 : (int) Math.min(in.available(), remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
 	}
 
 	public JsonObject createStoredProcedure(String dbResourceId, String collectionResId, String spName, String spBody) throws WebApplicationException {
-		JsonObject storedProcedure = Json.createObjectBuilder().add("id", spName).add("body", spBody).build();
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/sprocs/", dbResourceId, collectionResId)), null, null, "POST", null, Response.Status.CREATED, Entity.entity(storedProcedure, MediaType.APPLICATION_JSON_TYPE), JsonObject.class, "sprocs", collectionResId);
+		JsonObject storedProcedure = scriptDocument(spName, spBody);
+		return operation(collection(dbResourceId, collectionResId).sprocs, null, null, "POST", null, Response.Status.CREATED, Entity.entity(storedProcedure, MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
 	}
 
 	public JsonObject replaceStoredProcedure(String dbResourceId, String collectionResId, String spResId, String spName, String spBody) throws WebApplicationException {
-		JsonObject storedProcedure = Json.createObjectBuilder().add("id", spName).add("body", spBody).build();
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/sprocs/%s/", dbResourceId, collectionResId, spResId)), null, null, "PUT", null, Response.Status.OK, Entity.entity(storedProcedure, MediaType.APPLICATION_JSON_TYPE), JsonObject.class, "sprocs", spResId);
+		JsonObject storedProcedure = scriptDocument(spName, spBody);
+		return operation(collection(dbResourceId, collectionResId).sprocs.child(spResId), null, null, "PUT", null, Response.Status.OK, Entity.entity(storedProcedure, MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
 	}
 
 	public JsonObject listStoredProcedures(String dbResourceId, String collectionResId) throws WebApplicationException {
-		WebTarget target = endpoint.path(String.format("/dbs/%s/colls/%s/sprocs/", dbResourceId, collectionResId));
-		return operation(target, null, null, "GET", null, Response.Status.OK, null, JsonObject.class, "sprocs", collectionResId);
+		ResourceLink link = collection(dbResourceId, collectionResId).sprocs;
+		return operation(link, null, null, "GET", null, Response.Status.OK, null, JsonObject.class);
 	}
 
 	//TODO can also query sprocs i.e.  "select * from root r where r.id = \"sproc name\"
 
 	public <S, R> R executeStoredProcedure(String dbResourceId, String collectionResId, String spResId, S document, Object responseType) throws WebApplicationException {
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/sprocs/%s/", dbResourceId, collectionResId, spResId)), null, null, "POST", null, Response.Status.OK, document != null ? Entity.entity(document, MediaType.APPLICATION_JSON_TYPE) : null, responseType, "sprocs", spResId);
+		return operation(collection(dbResourceId, collectionResId).sprocs.child(spResId), null, null, "POST", null, Response.Status.OK, document != null ? Entity.entity(document, MediaType.APPLICATION_JSON_TYPE) : null, responseType);
 	}
 
 	public void deleteStoredProcedure(String dbResourceId, String collectionResId, String spResId) throws WebApplicationException {
-		operation(endpoint.path(String.format("/dbs/%s/colls/%s/sprocs/%s/", dbResourceId, collectionResId, spResId)), null, null, "DELETE", null, Response.Status.NO_CONTENT, null, null, "sprocs", spResId);
+		operation(collection(dbResourceId, collectionResId).sprocs.child(spResId), null, null, "DELETE", null, Response.Status.NO_CONTENT, null, null);
 	}
 
 	public JsonObject createTrigger(String dbResourceId, String collectionResId, String triggerName, String triggerBody) throws WebApplicationException {
-		JsonObject storedProcedure = Json.createObjectBuilder().add("id", triggerName).add("body", triggerBody).build();
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/triggers/", dbResourceId, collectionResId)), null, null, "POST", null, Response.Status.CREATED, Entity.entity(storedProcedure, MediaType.APPLICATION_JSON_TYPE), JsonObject.class, "triggers", collectionResId);
+		JsonObject storedProcedure = scriptDocument(triggerName, triggerBody);
+		return operation(collection(dbResourceId, collectionResId).triggers, null, null, "POST", null, Response.Status.CREATED, Entity.entity(storedProcedure, MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
 	}
 
 	public JsonObject replaceTrigger(String dbResourceId, String collectionResId, String triggerResId, String triggerName, String triggerBody) throws WebApplicationException {
-		JsonObject storedProcedure = Json.createObjectBuilder().add("id", triggerName).add("body", triggerBody).build();
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/triggers/%s/", dbResourceId, collectionResId, triggerResId)), null, null, "PUT", null, Response.Status.OK, Entity.entity(storedProcedure, MediaType.APPLICATION_JSON_TYPE), JsonObject.class, "triggers", triggerResId);
+		JsonObject storedProcedure = scriptDocument(triggerName, triggerBody);
+		return operation(collection(dbResourceId, collectionResId).triggers.child(triggerResId), null, null, "PUT", null, Response.Status.OK, Entity.entity(storedProcedure, MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+	}
+
+	public JsonObject createTrigger(String dbResourceId, String collectionResId, String triggerName, String triggerBody, TriggerType triggerType, TriggerOperation triggerOperation) throws WebApplicationException {
+		JsonObject trigger = triggerDocument(triggerName, triggerBody, triggerType, triggerOperation);
+		return operation(collection(dbResourceId, collectionResId).triggers, null, null, "POST", null, Response.Status.CREATED, Entity.entity(trigger, MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+	}
+
+	public JsonObject replaceTrigger(String dbResourceId, String collectionResId, String triggerResId, String triggerName, String triggerBody, TriggerType triggerType, TriggerOperation triggerOperation) throws WebApplicationException {
+		JsonObject trigger = triggerDocument(triggerName, triggerBody, triggerType, triggerOperation);
+		return operation(collection(dbResourceId, collectionResId).triggers.child(triggerResId), null, null, "PUT", null, Response.Status.OK, Entity.entity(trigger, MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
 	}
 
 	public JsonObject listTrigger(String dbResourceId, String collectionResId) throws WebApplicationException {
-		WebTarget target = endpoint.path(String.format("/dbs/%s/colls/%s/triggers/", dbResourceId, collectionResId));
-		return operation(target, null, null, "GET", null, Response.Status.OK, null, JsonObject.class, "triggers", collectionResId);
+		ResourceLink link = collection(dbResourceId, collectionResId).triggers;
+		return operation(link, null, null, "GET", null, Response.Status.OK, null, JsonObject.class);
 	}
 
 	//TODO can also query sprocs i.e.  "select * from root r where r.id = \"sproc name\"
 
 	public <S, R> R executeTrigger(String dbResourceId, String collectionResId, String triggerResId, S document, Class<R> responseType) throws WebApplicationException {
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/triggers/%s/", dbResourceId, collectionResId, triggerResId)), null, null, "POST", null, Response.Status.OK, document != null ? Entity.entity(document, MediaType.APPLICATION_JSON_TYPE) : null, responseType, "triggers", triggerResId);
+		return operation(collection(dbResourceId, collectionResId).triggers.child(triggerResId), null, null, "POST", null, Response.Status.OK, document != null ? Entity.entity(document, MediaType.APPLICATION_JSON_TYPE) : null, responseType);
 	}
 
 	public void deleteTrigger(String dbResourceId, String collectionResId, String triggerResId) throws WebApplicationException {
-		operation(endpoint.path(String.format("/dbs/%s/colls/%s/triggers/%s/", dbResourceId, collectionResId, triggerResId)), null, null, "DELETE", null, Response.Status.NO_CONTENT, null, null, "triggers", triggerResId);
+		operation(collection(dbResourceId, collectionResId).triggers.child(triggerResId), null, null, "DELETE", null, Response.Status.NO_CONTENT, null, null);
 	}
 
 	public JsonObject createUDF(String dbResourceId, String collectionResId, String udfName, String udfBody) throws WebApplicationException {
-		JsonObject storedProcedure = Json.createObjectBuilder().add("id", udfName).add("body", udfBody).build();
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/udfs/", dbResourceId, collectionResId)), null, null, "POST", null, Response.Status.CREATED, Entity.entity(storedProcedure, MediaType.APPLICATION_JSON_TYPE), JsonObject.class, "udfs", collectionResId);
+		JsonObject storedProcedure = scriptDocument(udfName, udfBody);
+		return operation(collection(dbResourceId, collectionResId).udfs, null, null, "POST", null, Response.Status.CREATED, Entity.entity(storedProcedure, MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
 	}
 
 	public JsonObject replaceUDF(String dbResourceId, String collectionResId, String udfResId, String udfName, String udfBody) throws WebApplicationException {
-		JsonObject storedProcedure = Json.createObjectBuilder().add("id", udfName).add("body", udfBody).build();
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/udfs/%s/", dbResourceId, collectionResId, udfResId)), null, null, "PUT", null, Response.Status.OK, Entity.entity(storedProcedure, MediaType.APPLICATION_JSON_TYPE), JsonObject.class, "udfs", udfResId);
+		JsonObject storedProcedure = scriptDocument(udfName, udfBody);
+		return operation(collection(dbResourceId, collectionResId).udfs.child(udfResId), null, null, "PUT", null, Response.Status.OK, Entity.entity(storedProcedure, MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
 	}
 
 	public JsonObject listUDFs(String dbResourceId, String collectionResId) throws WebApplicationException {
-		WebTarget target = endpoint.path(String.format("/dbs/%s/colls/%s/udfs/", dbResourceId, collectionResId));
-		return operation(target, null, null, "GET", null, Response.Status.OK, null, JsonObject.class, "udfs", collectionResId);
+		ResourceLink link = collection(dbResourceId, collectionResId).udfs;
+		return operation(link, null, null, "GET", null, Response.Status.OK, null, JsonObject.class);
 	}
 
 	//TODO can also query sprocs i.e.  "select * from root r where r.id = \"sproc name\"
 
 	public <S, R> R executeUDF(String dbResourceId, String collectionResId, String udfResId, S document, Class<R> responseType) throws WebApplicationException {
-		return operation(endpoint.path(String.format("/dbs/%s/colls/%s/udfs/%s/", dbResourceId, collectionResId, udfResId)), null, null, "POST", null, Response.Status.OK, document != null ? Entity.entity(document, MediaType.APPLICATION_JSON_TYPE) : null, responseType, "udfs", udfResId);
+		return operation(collection(dbResourceId, collectionResId).udfs.child(udfResId), null, null, "POST", null, Response.Status.OK, document != null ? Entity.entity(document, MediaType.APPLICATION_JSON_TYPE) : null, responseType);
 	}
 
 	public void deleteUDF(String dbResourceId, String collectionResId, String udfResId) throws WebApplicationException {
-		operation(endpoint.path(String.format("/dbs/%s/colls/%s/udfs/%s/", dbResourceId, collectionResId, udfResId)), null, null, "DELETE", null, Response.Status.NO_CONTENT, null, null, "udfs", udfResId);
+		operation(collection(dbResourceId, collectionResId).udfs.child(udfResId), null, null, "DELETE", null, Response.Status.NO_CONTENT, null, null);
+	}
+
+	//Asynchronous variants, the returned futures complete on the JAX-RS client callback thread
+
+	public CompletableFuture<JsonObject> createDatabaseAsync(String databaseId) {
+		CompletableFuture<JsonObject> result = operationAsync(databases, null, null, "POST", null, Response.Status.CREATED, Entity.entity(Json.createObjectBuilder().add("id", databaseId).build(), MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+		return result.whenComplete((r, t) -> metadata().created(null));
+	}
+
+	public CompletableFuture<JsonObject> getDatabaseAsync(String dbResourceId) {
+		return getDatabaseAsync(dbResourceId, null);
+	}
+
+	public CompletableFuture<JsonObject> getDatabaseAsync(String dbResourceId, ETag etag) {
+		return operationAsync(database(dbResourceId), null, null, "GET", etag, Response.Status.OK, null, JsonObject.class);
+	}
+
+	public CompletableFuture<JsonObject> listDatabasesAsync() {
+		return operationAsync(databases, null, null, "GET", null, Response.Status.OK, null, JsonObject.class);
+	}
+
+	public CompletableFuture<Void> deleteDatabaseAsync(String dbResourceId) {
+		return deleteDatabaseAsync(dbResourceId, null);
+	}
+
+	public CompletableFuture<Void> deleteDatabaseAsync(String dbResourceId, ETag etag) {
+		CompletableFuture<Void> result = operationAsync(database(dbResourceId), null, null, "DELETE", etag, Response.Status.NO_CONTENT, null, null);
+		return result.whenComplete((r, t) -> metadata().invalidate(dbResourceId));
+	}
+
+	public CompletableFuture<JsonObject> createCollectionAsync(String dbResourceId, String collectionId) {
+		return createCollectionAsync(dbResourceId, collectionId, null);
+	}
+
+	public CompletableFuture<JsonObject> createCollectionAsync(String dbResourceId, String collectionId, JsonObject indexingPolicy) {
+		JsonObjectBuilder builder = Json.createObjectBuilder().add("id", collectionId);
+		if (indexingPolicy != null) {
+			builder.add("IndexingPolicy", indexingPolicy);
+		}
+		CompletableFuture<JsonObject> result = operationAsync(collections(dbResourceId), null, null, "POST", null, Response.Status.CREATED, Entity.entity(builder.build(), MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+		return result.whenComplete((r, t) -> metadata().created(dbResourceId));
+	}
+
+	public CompletableFuture<JsonObject> listCollectionsAsync(String dbResourceId) {
+		return operationAsync(collections(dbResourceId), null, null, "GET", null, Response.Status.OK, null, JsonObject.class);
+	}
+
+	public CompletableFuture<String> resolveDatabaseAsync(String database) {
+		MetadataCache cache = metadata();
+		String rid = cache.database(database);
+		if (rid != null || cache.unknownDatabase(database)) {
+			return resolvedAsync(rid, "database", database);
+		}
+		return readFeedAsync(databases).thenApply(feed -> resolved(cache.loaded(cache.databases(feed), database), "database", database));
+	}
+
+	public CompletableFuture<String> resolveCollectionAsync(String database, String collection) {
+		return resolveDatabaseAsync(database).thenCompose(dbResourceId -> {
+			MetadataCache cache = metadata();
+			String rid = cache.collection(dbResourceId, collection);
+			if (rid != null || cache.unknownCollection(dbResourceId, collection)) {
+				return resolvedAsync(rid, "collection", collection);
+			}
+			return readFeedAsync(collections(dbResourceId)).thenApply(feed -> resolved(cache.loaded(cache.collections(dbResourceId, feed), collection), "collection", collection));
+		});
+	}
+
+	static CompletableFuture<String> resolvedAsync(String rid, String resourceType, String name) {
+		try {
+			return CompletableFuture.completedFuture(resolved(rid, resourceType, name));
+		} catch (WebApplicationException e) {
+			return failed(e);
+		}
+	}
+
+	public <S, R> CompletableFuture<R> createDocumentAsync(String dbResourceId, String collectionResId, S document, Class<R> responseType, IndexDirective indexDirective) {
+		return operationAsync(collection(dbResourceId, collectionResId).docs, new IndexRequestHelper(indexDirective), null, "POST", null, Response.Status.CREATED, Entity.entity(document, MediaType.APPLICATION_JSON_TYPE), responseType);
+	}
+
+	public <R> CompletableFuture<R> listDocumentsAsync(String dbResourceId, String collectionResId, Class<R> responseType) {
+		return operationAsync(collection(dbResourceId, collectionResId).docs, null, null, "GET", null, Response.Status.OK, null, responseType);
+	}
+
+	public <S> CompletableFuture<S> getDocumentAsync(String dbResourceId, String collectionResId, String documentResId, Class<S> responseType) {
+		return getDocumentAsync(dbResourceId, collectionResId, documentResId, null, responseType);
+	}
+
+	public <S> CompletableFuture<S> getDocumentAsync(String dbResourceId, String collectionResId, String documentResId, ETag etag, Class<S> responseType) {
+		ResourceLink link = collection(dbResourceId, collectionResId).document(documentResId);
+		DocumentCache cache = documentCache;
+		if (cache == null || etag != null) {
+			return operationAsync(link, null, null, "GET", etag, Response.Status.OK, null, responseType);
+		}
+		ReadCoalescer coalescer = readCoalescer;
+		if (coalescer != null) {
+			return coalescer.readAsync(coalescer.key(link.path, responseType), link.path, () -> getDocumentAsync(link, cache, responseType));
+		}
+		return getDocumentAsync(link, cache, responseType);
+	}
+
+	private <S> CompletableFuture<S> getDocumentAsync(ResourceLink link, DocumentCache cache, Class<S> responseType) {
+		String path = link.path;
+		DocumentCache.Entry entry = cache.get(path, responseType);
+		DocumentCache.Validation validation = new DocumentCache.Validation();
+		CompletableFuture<S> result = operationAsync(link, null, validation, "GET", entry != null ? new ETag(ETagMode.NO_MATCH, entry.etag) : null, Response.Status.OK, null, responseType);
+		return result.handle((document, t) -> {
+			if (t != null) {
+				if (notFound(t)) {
+					cache.invalidate(path);
+				}
+				throw t instanceof CompletionException ? (CompletionException) t : new CompletionException(t);
+			}
+			if (entry != null) {
+				return cache.revalidated(path, entry, validation, responseType, document);
+			}
+			cache.put(path, validation.etag, responseType, document);
+			return document;
+		});
+	}
+
+	public <S, R> CompletableFuture<R> replaceDocumentAsync(String dbResourceId, String collectionResId, String documentResId, S document, Class<R> responseType, IndexDirective indexDirective) {
+		return replaceDocumentAsync(dbResourceId, collectionResId, documentResId, null, document, responseType, indexDirective);
+	}
+
+	public <S, R> CompletableFuture<R> replaceDocumentAsync(String dbResourceId, String collectionResId, String documentResId, ETag etag, S document, Class<R> responseType, IndexDirective indexDirective) {
+		ResourceLink link = collection(dbResourceId, collectionResId).document(documentResId);
+		String path = link.path;
+		CompletableFuture<R> result = operationAsync(link, new IndexRequestHelper(indexDirective), null, "PUT", etag, Response.Status.OK, Entity.entity(document, MediaType.APPLICATION_JSON_TYPE), responseType);
+		invalidate(path);
+		return result.whenComplete((r, t) -> invalidate(path));
+	}
+
+	public CompletableFuture<Void> deleteDocumentAsync(String dbResourceId, String collectionResId, String documentResId) {
+		return deleteDocumentAsync(dbResourceId, collectionResId, documentResId, null);
+	}
+
+	public CompletableFuture<Void> deleteDocumentAsync(String dbResourceId, String collectionResId, String documentResId, ETag etag) {
+		ResourceLink link = collection(dbResourceId, collectionResId).document(documentResId);
+		String path = link.path;
+		CompletableFuture<Void> result = operationAsync(link, null, null, "DELETE", etag, Response.Status.NO_CONTENT, null, null);
+		invalidate(path);
+		return result.whenComplete((r, t) -> invalidate(path));
+	}
+
+	public <R> CompletableFuture<R> queryDocumentsAsync(String dbResourceId, String collectionResId, String query, Map<String, String> parameters, Object responseType, int pageSize, String continuationToken) {
+		ResourceLink docs = collection(dbResourceId, collectionResId).docs;
+		QueryCache cache = queryCache;
+		ReadCoalescer coalescer = queryCoalescer();
+		if ((cache == null && coalescer == null) || responseType == Response.class) {
+			return queryDocumentsAsync(docs, Entity.entity(queryDocument(query, parameters), QUERY_JSON), responseType, pageSize, continuationToken);
+		}
+		return queryDocumentsAsync(docs, cache, coalescer, QueryCache.key(docs.path, query, parameters, pageSize, continuationToken, responseType), () -> Entity.entity(queryDocument(query, parameters), QUERY_JSON), responseType, pageSize, continuationToken);
+	}
+
+	public <R> CompletableFuture<R> queryDocumentsAsync(String dbResourceId, String collectionResId, PreparedQuery query, Object responseType, int pageSize, String continuationToken, Object... values) {
+		ResourceLink docs = collection(dbResourceId, collectionResId).docs;
+		QueryCache cache = queryCache;
+		ReadCoalescer coalescer = queryCoalescer();
+		try {
+			if ((cache == null && coalescer == null) || responseType == Response.class) {
+				return queryDocumentsAsync(docs, Entity.entity(query.body(values), QUERY_JSON), responseType, pageSize, continuationToken);
+			}
+			return queryDocumentsAsync(docs, cache, coalescer, QueryCache.key(docs.path, query, values, pageSize, continuationToken, responseType), () -> Entity.entity(query.body(values), QUERY_JSON), responseType, pageSize, continuationToken);
+		} catch (WebApplicationException e) {
+			return failed(e);
+		}
+	}
+
+	private <R> CompletableFuture<R> queryDocumentsAsync(ResourceLink docs, QueryCache cache, ReadCoalescer coalescer, QueryCache.Key key, Supplier<Entity<?>> body, Object responseType, int pageSize, String continuationToken) {
+		if (cache != null) {
+			R cached = cache.get(key);
+			if (cached != null) {
+				return CompletableFuture.completedFuture(cached);
+			}
+		}
+		long generation = cache != null ? cache.generation(key) : 0;
+		CompletableFuture<R> result = coalescer != null ? coalescer.readAsync(key, docs.path, () -> this.<R> queryDocumentsAsync(docs, body.get(), responseType, pageSize, continuationToken))
+				: queryDocumentsAsync(docs, body.get(), responseType, pageSize, continuationToken);
+		if (cache == null) {
+			return result;
+		}
+		return result.thenApply(r -> {
+			cache.put(key, generation, r);
+			return r;
+		});
+	}
+
+	private <R> CompletableFuture<R> queryDocumentsAsync(ResourceLink docs, Entity<?> body, Object responseType, int pageSize, String continuationToken) {
+		QueryResponse qresponse = new QueryResponse();
+		CompletableFuture<R> result = operationAsync(docs, new QueryRequest(pageSize, continuationToken), qresponse, "POST", null, Response.Status.OK, body, responseType);
+		return result.thenApply(r -> {
+			if (r instanceof QueryResult) {
+				QueryResult<?> qResult = (QueryResult<?>) r;
+				qResult.setContinuation(qresponse.getContinuationToken());
+			}
+			return r;
+		});
+	}
+
+	public CompletableFuture<JsonObject> createAttachmentAsync(String dbResourceId, String collectionResId, String documentResId, String attachmentId, String fileName, String contentType, String media, JsonObject extraData) {
+		return createAttachmentAsync(dbResourceId, collectionResId, documentResId, attachmentId, fileName, contentType, media, extraData, null);
+	}
+
+	public CompletableFuture<JsonObject> createAttachmentAsync(String dbResourceId, String collectionResId, String documentResId, String attachmentId, String fileName, String contentType, String media, JsonObject extraData, IndexDirective indexDirective) {
+		JsonObject document;
+		try {
+			document = attachmentDocument(attachmentId, contentType, media, extraData);
+		} catch (WebApplicationException e) {
+			return failed(e);
+		}
+		return operationAsync(collection(dbResourceId, collectionResId).attachments(documentResId), new FileNameIndexRequestHelper(fileName, indexDirective), null, "POST", null, Response.Status.CREATED, Entity.entity(document, MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+	}
+
+	public CompletableFuture<JsonObject> listAttachmentsAsync(String dbResourceId, String collectionResId, String documentResId) {
+		return operationAsync(collection(dbResourceId, collectionResId).attachments(documentResId), null, null, "GET", null, Response.Status.OK, null, JsonObject.class);
+	}
+
+	public CompletableFuture<JsonObject> getAttachmentAsync(String dbResourceId, String collectionResId, String documentResId, String attachmentResId) {
+		return getAttachmentAsync(dbResourceId, collectionResId, documentResId, attachmentResId, null);
+	}
+
+	public CompletableFuture<JsonObject> getAttachmentAsync(String dbResourceId, String collectionResId, String documentResId, String attachmentResId, ETag etag) {
+		return operationAsync(collection(dbResourceId, collectionResId).attachment(documentResId, attachmentResId), null, null, "GET", etag, Response.Status.OK, null, JsonObject.class);
+	}
+
+	public CompletableFuture<JsonObject> replaceAttachmentAsync(String dbResourceId, String collectionResId, String documentResId, String attachmentResId, ETag etag, String attachmentId, String fileName, String contentType, String media, JsonObject extraData, IndexDirective indexDirective) {
+		JsonObject document;
+		try {
+			document = attachmentDocument(attachmentId, contentType, media, extraData);
+		} catch (WebApplicationException e) {
+			return failed(e);
+		}
+		return operationAsync(collection(dbResourceId, collectionResId).attachment(documentResId, attachmentResId), new FileNameIndexRequestHelper(fileName, indexDirective), null, "PUT", etag, Response.Status.OK, Entity.entity(document, MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+	}
+
+	public CompletableFuture<Void> deleteAttachmentAsync(String dbResourceId, String collectionResId, String documentResId, String attachmentResId) {
+		return deleteAttachmentAsync(dbResourceId, collectionResId, documentResId, attachmentResId, null);
+	}
+
+	public CompletableFuture<Void> deleteAttachmentAsync(String dbResourceId, String collectionResId, String documentResId, String attachmentResId, ETag etag) {
+		return operationAsync(collection(dbResourceId, collectionResId).attachment(documentResId, attachmentResId), null, null, "DELETE", etag, Response.Status.NO_CONTENT, null, null);
+	}
+
+	public CompletableFuture<JsonObject> createStoredProcedureAsync(String dbResourceId, String collectionResId, String spName, String spBody) {
+		return operationAsync(collection(dbResourceId, collectionResId).sprocs, null, null, "POST", null, Response.Status.CREATED, Entity.entity(scriptDocument(spName, spBody), MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+	}
+
+	public CompletableFuture<JsonObject> replaceStoredProcedureAsync(String dbResourceId, String collectionResId, String spResId, String spName, String spBody) {
+		return operationAsync(collection(dbResourceId, collectionResId).sprocs.child(spResId), null, null, "PUT", null, Response.Status.OK, Entity.entity(scriptDocument(spName, spBody), MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+	}
+
+	public CompletableFuture<JsonObject> listStoredProceduresAsync(String dbResourceId, String collectionResId) {
+		return operationAsync(collection(dbResourceId, collectionResId).sprocs, null, null, "GET", null, Response.Status.OK, null, JsonObject.class);
+	}
+
+	public <S, R> CompletableFuture<R> executeStoredProcedureAsync(String dbResourceId, String collectionResId, String spResId, S document, Object responseType) {
+		return operationAsync(collection(dbResourceId, collectionResId).sprocs.child(spResId), null, null, "POST", null, Response.Status.OK, document != null ? Entity.entity(document, MediaType.APPLICATION_JSON_TYPE) : null, responseType);
+	}
+
+	public CompletableFuture<Void> deleteStoredProcedureAsync(String dbResourceId, String collectionResId, String spResId) {
+		return operationAsync(collection(dbResourceId, collectionResId).sprocs.child(spResId), null, null, "DELETE", null, Response.Status.NO_CONTENT, null, null);
+	}
+
+	public CompletableFuture<JsonObject> createTriggerAsync(String dbResourceId, String collectionResId, String triggerName, String triggerBody) {
+		return operationAsync(collection(dbResourceId, collectionResId).triggers, null, null, "POST", null, Response.Status.CREATED, Entity.entity(scriptDocument(triggerName, triggerBody), MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+	}
+
+	public CompletableFuture<JsonObject> replaceTriggerAsync(String dbResourceId, String collectionResId, String triggerResId, String triggerName, String triggerBody) {
+		return operationAsync(collection(dbResourceId, collectionResId).triggers.child(triggerResId), null, null, "PUT", null, Response.Status.OK, Entity.entity(scriptDocument(triggerName, triggerBody), MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+	}
+
+	public CompletableFuture<JsonObject> createTriggerAsync(String dbResourceId, String collectionResId, String triggerName, String triggerBody, TriggerType triggerType, TriggerOperation triggerOperation) {
+		return operationAsync(collection(dbResourceId, collectionResId).triggers, null, null, "POST", null, Response.Status.CREATED, Entity.entity(triggerDocument(triggerName, triggerBody, triggerType, triggerOperation), MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+	}
+
+	public CompletableFuture<JsonObject> replaceTriggerAsync(String dbResourceId, String collectionResId, String triggerResId, String triggerName, String triggerBody, TriggerType triggerType, TriggerOperation triggerOperation) {
+		return operationAsync(collection(dbResourceId, collectionResId).triggers.child(triggerResId), null, null, "PUT", null, Response.Status.OK, Entity.entity(triggerDocument(triggerName, triggerBody, triggerType, triggerOperation), MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+	}
+
+	public CompletableFuture<JsonObject> listTriggerAsync(String dbResourceId, String collectionResId) {
+		return operationAsync(collection(dbResourceId, collectionResId).triggers, null, null, "GET", null, Response.Status.OK, null, JsonObject.class);
+	}
+
+	public <S, R> CompletableFuture<R> executeTriggerAsync(String dbResourceId, String collectionResId, String triggerResId, S document, Class<R> responseType) {
+		return operationAsync(collection(dbResourceId, collectionResId).triggers.child(triggerResId), null, null, "POST", null, Response.Status.OK, document != null ? Entity.entity(document, MediaType.APPLICATION_JSON_TYPE) : null, responseType);
+	}
+
+	public CompletableFuture<Void> deleteTriggerAsync(String dbResourceId, String collectionResId, String triggerResId) {
+		return operationAsync(collection(dbResourceId, collectionResId).triggers.child(triggerResId), null, null, "DELETE", null, Response.Status.NO_CONTENT, null, null);
+	}
+
+	public CompletableFuture<JsonObject> createUDFAsync(String dbResourceId, String collectionResId, String udfName, String udfBody) {
+		return operationAsync(collection(dbResourceId, collectionResId).udfs, null, null, "POST", null, Response.Status.CREATED, Entity.entity(scriptDocument(udfName, udfBody), MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+	}
+
+	public CompletableFuture<JsonObject> replaceUDFAsync(String dbResourceId, String collectionResId, String udfResId, String udfName, String udfBody) {
+		return operationAsync(collection(dbResourceId, collectionResId).udfs.child(udfResId), null, null, "PUT", null, Response.Status.OK, Entity.entity(scriptDocument(udfName, udfBody), MediaType.APPLICATION_JSON_TYPE), JsonObject.class);
+	}
+
+	public CompletableFuture<JsonObject> listUDFsAsync(String dbResourceId, String collectionResId) {
+		return operationAsync(collection(dbResourceId, collectionResId).udfs, null, null, "GET", null, Response.Status.OK, null, JsonObject.class);
+	}
+
+	public <S, R> CompletableFuture<R> executeUDFAsync(String dbResourceId, String collectionResId, String udfResId, S document, Class<R> responseType) {
+		return operationAsync(collection(dbResourceId, collectionResId).udfs.child(udfResId), null, null, "POST", null, Response.Status.OK, document != null ? Entity.entity(document, MediaType.APPLICATION_JSON_TYPE) : null, responseType);
+	}
+
+	public CompletableFuture<Void> deleteUDFAsync(String dbResourceId, String collectionResId, String udfResId) {
+		return operationAsync(collection(dbResourceId, collectionResId).udfs.child(udfResId), null, null, "DELETE", null, Response.Status.NO_CONTENT, null, null);
+	}
+
+	static <R> CompletableFuture<R> failed(Throwable t) {
+		CompletableFuture<R> result = new CompletableFuture<R>();
+		result.completeExceptionally(t);
+		return result;
+	}
+
+	static JsonObject queryDocument(String query, Map<String, String> parameters) {
+		JsonArrayBuilder paramBuilder = Json.createArrayBuilder();
+		if (parameters != null) {
+			for (Map.Entry<String, String> entry : parameters.entrySet()) {
+				paramBuilder.add(Json.createObjectBuilder().add("name", entry.getKey()).add("value", entry.getValue()));
+			}
+		}
+		return Json.createObjectBuilder().add("query", query).add("parameters", paramBuilder).build();
+	}
+
+	static JsonObject attachmentDocument(String attachmentId, String contentType, String media, JsonObject extraData) throws WebApplicationException {
+		if (attachmentId == null || contentType == null || media == null) {
+			throw new WebApplicationException(String.format("required attachment value missing: id: %s contentType: %s media: %s", attachmentId, contentType, media));
+		}
+		JsonObjectBuilder documentBuilder = Json.createObjectBuilder().add("id", attachmentId).add("contentType", contentType).add("media", media);
+		if (extraData != null) {
+			for (Entry<String, JsonValue> entry : extraData.entrySet()) {
+				documentBuilder.add(entry.getKey(), entry.getValue());
+			}
+		}
+		return documentBuilder.build();
+	}
+
+	static JsonObject scriptDocument(String id, String body) {
+		return Json.createObjectBuilder().add("id", id).add("body", body).build();
+	}
+
+	static JsonObject triggerDocument(String id, String body, TriggerType triggerType, TriggerOperation triggerOperation) {
+		return Json.createObjectBuilder().add("id", id).add("body", body).add("triggerType", triggerType.name()).add("triggerOperation", triggerOperation.name()).build();
 	}
 
 	public <S, R> R operation(WebTarget target, RequestHandler reqHandler, ResponseHandler resHandler, String method, ETag etag, Response.Status expectedStatus, Entity<S> body, Object responseType, String resourceType, String resourceId) throws WebApplicationException {
+		return operation(new ResourceLink(target, resourceType, resourceId), reqHandler, resHandler, method, etag, expectedStatus, body, responseType);
+	}
+
+	<S, R> R operation(ResourceLink link, RequestHandler reqHandler, ResponseHandler resHandler, String method, ETag etag, Response.Status expectedStatus, Entity<S> body, Object responseType) throws WebApplicationException {
+		if (!read(method, reqHandler)) {
+			if (queryCache == null && readCoalescer == null) {
+				return invoke(link, reqHandler, resHandler, method, etag, expectedStatus, body, responseType);
+			}
+			//after the write, whether or not it succeeded, so a query that ran during the write is not cached
+			try {
+				return invoke(link, reqHandler, resHandler, method, etag, expectedStatus, body, responseType);
+			} finally {
+				written(link.path);
+			}
+		}
+		ReadCoalescer coalescer = readCoalescer;
+		if (coalescer != null && coalesce(reqHandler, resHandler, etag, responseType)) {
+			return coalescer.read(coalescer.key(link.path, responseType), link.path, () -> send(link, reqHandler, resHandler, method, etag, expectedStatus, body, responseType));
+		}
+		return send(link, reqHandler, resHandler, method, etag, expectedStatus, body, responseType);
+	}
+
+	private <S, R> R send(ResourceLink link, RequestHandler reqHandler, ResponseHandler resHandler, String method, ETag etag, Response.Status expectedStatus, Entity<S> body, Object responseType) throws WebApplicationException {
+		ReadRoute route = readRoute;
+		if (route == null) {
+			return invoke(link, reqHandler, resHandler, method, etag, expectedStatus, body, responseType);
+		}
+		route.endpoints.reads.increment();
+		if (route.endpoints.hedgeDelay >= 0 && responseType != Response.class) {
+			//sent asynchronously so the losing request is cancelled instead of holding a thread until it completes
+			return join(routeAsync(route, link, reqHandler, resHandler, method, etag, expectedStatus, body, responseType));
+		}
+		for (int i = 0;; i++) {
+			try {
+				return invoke(route.link(i, link), reqHandler, resHandler, method, etag, expectedStatus, body, responseType);
+			} catch (ProcessingException e) {
+				if (i + 1 >= route.targets.length) {
+					throw e;
+				}
+				route.endpoints.failovers.increment();
+			}
+		}
+	}
+
+	<S, R> R invoke(ResourceLink link, RequestHandler reqHandler, ResponseHandler resHandler, String method, ETag etag, Response.Status expectedStatus, Entity<S> body, Object responseType) throws WebApplicationException {
+		long waited = 0;
+		for (int attempt = 0;; attempt++) {
+			//signed again for every attempt, x-ms-date must stay current
+			Builder builder = request(link.target, link.path, reqHandler, method, etag, link.resourceType, link.resourceId);
+			Transport.Lease lease = transport.lease(link.endpoint);
+			Response response;
+			try {
+				response = lease.bind(builder).method(method, body);
+			} catch (RuntimeException e) {
+				lease.close();
+				throw e;
+			}
+			RetryPolicy policy = retryPolicy;
+			long delay = policy != null && replayable(body) ? policy.retryDelay(response, attempt, waited) : -1;
+			if (delay < 0) {
+				return complete(response, link.path, reqHandler, resHandler, method, etag, expectedStatus, responseType, link.resourceType, link.resourceId);
+			}
+			response.close();
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new WebApplicationException(e);
+			}
+			waited += delay;
+		}
+	}
+
+	//same request and response handling as operation but the invocation does not block the calling thread.
+	public <S, R> CompletableFuture<R> operationAsync(WebTarget target, RequestHandler reqHandler, ResponseHandler resHandler, String method, ETag etag, Response.Status expectedStatus, Entity<S> body, Object responseType, String resourceType, String resourceId) {
+		return operationAsync(new ResourceLink(target, resourceType, resourceId), reqHandler, resHandler, method, etag, expectedStatus, body, responseType);
+	}
+
+	<S, R> CompletableFuture<R> operationAsync(ResourceLink link, RequestHandler reqHandler, ResponseHandler resHandler, String method, ETag etag, Response.Status expectedStatus, Entity<S> body, Object responseType) {
+		boolean read = read(method, reqHandler);
+		ReadCoalescer coalescer = readCoalescer;
+		if (read && coalescer != null && coalesce(reqHandler, resHandler, etag, responseType)) {
+			return coalescer.readAsync(coalescer.key(link.path, responseType), link.path, () -> sendAsync(link, reqHandler, resHandler, method, etag, expectedStatus, body, responseType, read));
+		}
+		return sendAsync(link, reqHandler, resHandler, method, etag, expectedStatus, body, responseType, read);
+	}
+
+	private <S, R> CompletableFuture<R> sendAsync(ResourceLink link, RequestHandler reqHandler, ResponseHandler resHandler, String method, ETag etag, Response.Status expectedStatus, Entity<S> body, Object responseType, boolean read) {
+		ReadRoute route = readRoute;
+		if (route != null && responseType != Response.class && read) {
+			route.endpoints.reads.increment();
+			return routeAsync(route, link, reqHandler, resHandler, method, etag, expectedStatus, body, responseType);
+		}
+		CompletableFuture<R> result = new CompletableFuture<R>();
+		if (responseType == Response.class) {
+			//some JAX-RS implementations, RESTEasy for one, close a Response handed to an InvocationCallback as soon as the callback returns so an unread
+			//Response is fetched with the blocking call instead. The Response is closed if the future was cancelled before it arrived.
+			Future<?> task = responseExecutor.submit(() -> {
+				try {
+					R r = operation(link, reqHandler, resHandler, method, etag, expectedStatus, body, responseType);
+					if (!result.complete(r)) {
+						((Response) r).close();
+					}
+				} catch (Throwable t) {
+					result.completeExceptionally(t);
+				}
+			});
+			result.whenComplete((r, t) -> {
+				if (result.isCancelled()) {
+					task.cancel(true);
+				}
+			});
+			return result;
+		}
+		invokeAsync(link, reqHandler, resHandler, method, etag, expectedStatus, body, responseType, result, 0, 0);
+		if (!read && (queryCache != null || readCoalescer != null)) {
+			return result.whenComplete((r, t) -> written(link.path));
+		}
+		return result;
+	}
+
+	ReadCoalescer queryCoalescer() {
+		ReadCoalescer coalescer = readCoalescer;
+		return coalescer != null && coalescer.isQueries() ? coalescer : null;
+	}
+
+	//a read the handlers do not observe and whose result can be shared, an unread Response cannot
+	static boolean coalesce(RequestHandler reqHandler, ResponseHandler resHandler, ETag etag, Object responseType) {
+		return reqHandler == null && resHandler == null && etag == null && responseType != null && responseType != Response.class;
+	}
+
+	//in flight reads are dropped before the query pages are invalidated so a query cannot join a read sent before the write and cache its page
+	//under the generation after it
+	private void written(String path) {
+		ReadCoalescer coalescer = readCoalescer;
+		if (coalescer != null) {
+			coalescer.invalidate(path);
+		}
+		QueryCache cache = queryCache;
+		if (cache != null) {
+			cache.invalidate(path);
+		}
+	}
+
+	//the read is sent to the first read endpoint and, when hedging, again to the next one once the hedge delay passes without an answer. Either
+	//request failing without a response moves the read on to the next endpoint instead. Only the request that wins calls the response handler.
+	<R> CompletableFuture<R> readAsync(ReadRoute route, ResponseHandler resHandler, HedgedRead.Sender<R> sender) {
+		ReadEndpoints endpoints = route.endpoints;
+		CompletableFuture<R> result = new CompletableFuture<R>();
+		HedgedRead<R> read = new HedgedRead<R>(result, resHandler, route.targets.length, endpoints, sender);
+		read.start();
+		long delay = endpoints.hedgeDelay;
+		if (delay >= 0) {
+			ScheduledFuture<?> hedge = RetryPolicy.SCHEDULER.schedule(read::hedge, delay, TimeUnit.MILLISECONDS);
+			result.whenComplete((r, t) -> hedge.cancel(false));
+		}
+		return result;
+	}
+
+	private <S, R> CompletableFuture<R> routeAsync(ReadRoute route, ResourceLink link, RequestHandler reqHandler, ResponseHandler resHandler, String method, ETag etag, Response.Status expectedStatus, Entity<S> body, Object responseType) {
+		return readAsync(route, resHandler, (index, handler) -> {
+			CompletableFuture<R> attempt = new CompletableFuture<R>();
+			invokeAsync(route.link(index, link), reqHandler, handler, method, etag, expectedStatus, body, responseType, attempt, 0, 0);
+			return attempt;
+		});
+	}
+
+	//reads are retried on another endpoint and hedged, queries are POSTs that only read
+	static boolean read(String method, RequestHandler reqHandler) {
+		return "GET".equals(method) || "HEAD".equals(method) || reqHandler instanceof QueryRequest;
+	}
+
+	static <R> R join(CompletableFuture<R> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		}
+	}
+
+	private <S, R> void invokeAsync(ResourceLink link, RequestHandler reqHandler, ResponseHandler resHandler, String method, ETag etag, Response.Status expectedStatus, Entity<S> body, Object responseType, CompletableFuture<R> result, int attempt, long waited) {
+		try {
+			Builder builder = request(link.target, link.path, reqHandler, method, etag, link.resourceType, link.resourceId);
+			CompletableFuture<Transport.Lease> pending = transport.leaseAsync(link.endpoint);
+			result.whenComplete((r, t) -> {
+				if (result.isCancelled()) {
+					pending.cancel(false);
+				}
+			});
+			pending.thenAccept(lease -> {
+				if (result.isDone()) {
+					//cancelled while waiting for a connection
+					lease.close();
+					return;
+				}
+				InvocationCallback<Response> callback = new InvocationCallback<Response>() {
+
+					@Override
+					public void completed(Response response) {
+						if (result.isDone()) {
+							//cancelled
+							response.close();
+							return;
+						}
+						try {
+							RetryPolicy policy = retryPolicy;
+							long delay = policy != null && replayable(body) ? policy.retryDelay(response, attempt, waited) : -1;
+							if (delay >= 0) {
+								response.close();
+								RetryPolicy.SCHEDULER.schedule(() -> invokeAsync(link, reqHandler, resHandler, method, etag, expectedStatus, body, responseType, result, attempt + 1, waited + delay), delay, TimeUnit.MILLISECONDS);
+								return;
+							}
+							result.complete(complete(response, link.path, reqHandler, resHandler, method, etag, expectedStatus, responseType, link.resourceType, link.resourceId));
+						} catch (Throwable t) {
+							result.completeExceptionally(t);
+						}
+					}
+
+					@Override
+					public void failed(Throwable throwable) {
+						lease.close();
+						result.completeExceptionally(throwable);
+					}
 
-		String path = target.getUri().getPath();
+				};
+				try {
+					lease.bind(builder);
+					Future<Response> invocation = body != null ? builder.async().method(method, body, callback) : builder.async().method(method, callback);
+					result.whenComplete((r, t) -> {
+						if (result.isCancelled()) {
+							//a request already sent keeps its lease until its response is closed or it fails, the connection is in use until then
+							lease.abandon();
+							invocation.cancel(true);
+						}
+					});
+				} catch (RuntimeException e) {
+					lease.close();
+					result.completeExceptionally(e);
+				}
+			});
+		} catch (RuntimeException e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	//a stream entity has been consumed by the first attempt
+	static boolean replayable(Entity<?> body) {
+		return body == null || !(body.getEntity() instanceof InputStream);
+	}
+
+	Builder request(WebTarget target, String path, RequestHandler reqHandler, String method, ETag etag, String resourceType, String resourceId) throws WebApplicationException {
 		Builder builder = target.request();
 		setHeaders(builder, path, method, resourceType, resourceId, etag);
 		if (reqHandler != null) {
 			reqHandler.handle(builder);
 		}
-		Response response = builder.method(method, body);
+		return builder;
+	}
 
-		if (expectedStatus != null && response.getStatusInfo().getStatusCode() != expectedStatus.getStatusCode() && !(etag != null && response.getStatusInfo().getStatusCode() != Response.Status.NOT_MODIFIED.getStatusCode())) {
+	<R> R complete(Response response, String path, RequestHandler reqHandler, ResponseHandler resHandler, String method, ETag etag, Response.Status expectedStatus, Object responseType, String resourceType, String resourceId) throws WebApplicationException {
+		if (!listeners.isEmpty()) {
+			OperationType operationType = operationType(path, reqHandler, method, resourceType);
+			for (OperationListener listener : listeners) {
+				listener.handle(operationType, resourceType, path, response);
+			}
+		}
+		if (expectedStatus != null && response.getStatusInfo().getStatusCode() != expectedStatus.getStatusCode() && !(etag != null && response.getStatusInfo().getStatusCode() == Response.Status.NOT_MODIFIED.getStatusCode())) {
+			if (staleMetadata(response)) {
+				MetadataCache cache = metadataCache;
+				if (cache != null) {
+					cache.invalidatePath(path);
+				}
+			}
+			//the error body is read so the connection is released
+			response.bufferEntity();
 			throw new WebApplicationException(response);
 		}
 
@@ -514,10 +1800,10 @@ public class DocumentDB {
 			resHandler.handle(response);
 		}
 		//session is set as cookie as well
-		if (sessionStore != null && resourceId != null && !resourceId.isEmpty()) {
+		if (resourceId != null && !resourceId.isEmpty()) {
 			//builder.
 			String token = response.getHeaderString("x-ms-session-token");
-			sessionStore.put(path, token);
+			sessionStore.update(path, token);
 		}
 
 		if (responseType != null) {
@@ -555,43 +1841,100 @@ public class DocumentDB {
 
 	}
 
+	//notified of the final response of every operation, after any throttling retries
+	public static interface OperationListener {
+
+		public void handle(OperationType operationType, String resourceType, String path, Response response);
+
+	}
+
+	//the database or collection addressed by _rid was deleted, and possibly recreated under a new _rid
+	static boolean staleMetadata(Response response) {
+		int status = response.getStatus();
+		return status == Response.Status.GONE.getStatusCode() || (status == Response.Status.NOT_FOUND.getStatusCode() && "1003".equals(response.getHeaderString("x-ms-substatus")));
+	}
+
+	static OperationType operationType(String path, RequestHandler reqHandler, String method, String resourceType) {
+		if (reqHandler instanceof QueryRequest) {
+			return OperationType.Query;
+		}
+		switch (method) {
+		case "GET":
+			return feed(path, resourceType) ? OperationType.ReadFeed : OperationType.Read;
+		case "POST":
+			return feed(path, resourceType) ? OperationType.Create : OperationType.Execute;
+		case "PUT":
+			return OperationType.Replace;
+		case "DELETE":
+			return OperationType.Delete;
+		default:
+			return OperationType.Read;
+		}
+	}
+
+	//true when the path addresses the resource type itself, i.e. /dbs/{db}/colls/{coll}/docs/, rather than one resource
+	static boolean feed(String path, String resourceType) {
+		int end = path.length();
+		while (end > 0 && path.charAt(end - 1) == '/') {
+			end--;
+		}
+		int start = end - resourceType.length();
+		return start > 0 && path.charAt(start - 1) == '/' && path.regionMatches(start, resourceType, 0, resourceType.length());
+	}
+
 	public Builder setHeaders(Builder builder, String path, String verb, String resourceType, String resourceId, ETag etag) throws WebApplicationException {
-		try {
-			ZonedDateTime currentTime = ZonedDateTime.now(ZoneId.of("GMT"));
-			String date = RFC1123_DATE_TIME.format(currentTime);
-			builder.header("x-ms-date", date);
-			builder.header("x-ms-version", AZURE_DOCUMENTDB_VERSION);
-			builder.accept(MediaType.APPLICATION_JSON_TYPE);
-			if (etag != null) {
-				switch (etag.getMode()) {
-				case MATCH:
-					builder.header(HttpHeaders.IF_MATCH, etag.value);
-					break;
-				case NO_MATCH:
-					builder.header(HttpHeaders.IF_NONE_MATCH, etag.value);
-					break;
-				}
+		String date = SharedKeySigner.currentDate();
+		builder.header("x-ms-date", date);
+		builder.header("x-ms-version", AZURE_DOCUMENTDB_VERSION);
+		builder.accept(MediaType.APPLICATION_JSON_TYPE);
+		if (etag != null) {
+			switch (etag.getMode()) {
+			case MATCH:
+				builder.header(HttpHeaders.IF_MATCH, etag.value);
+				break;
+			case NO_MATCH:
+				builder.header(HttpHeaders.IF_NONE_MATCH, etag.value);
+				break;
 			}
-			String stringToSign = String.format("%s\n%s\n%s\n%s\n%s\n", verb, resourceType, resourceId, date, "").toLowerCase();
-			Mac sha256_HMAC = Mac.getInstance("HMACSHA256");
-			SecretKeySpec secret_key = new SecretKeySpec(Base64.getDecoder().decode(masterKey), "HmacSHA256");
-			sha256_HMAC.init(secret_key);
-			String signature = Base64.getEncoder().encodeToString(sha256_HMAC.doFinal(stringToSign.getBytes()));
-			builder.header("Authorization", URLEncoder.encode(String.format("type=master&ver=1.0&sig=%s", signature), "UTF-8"));
-
-			if (consistencyLevel != null) {
-				builder.header("x-ms-consistency-level", consistencyLevel.name());
-				if (consistencyLevel == ConsistencyLevel.Session) {
-					String token = sessionStore.get(path);
-					if (token != null) {
-						builder.header("x-ms-session-token", token);
-					}
+		}
+		StringBuilder stringToSign = signer.stringToSign();
+		stringToSign.append(verb).append('\n').append(resourceType).append('\n').append(resourceId).append('\n').append(date).append('\n').append('\n');
+		String signature = signer.signLowerCase(stringToSign);
+		builder.header("Authorization", authorization(signature));
+
+		if (consistencyLevel != null) {
+			builder.header("x-ms-consistency-level", consistencyLevel.name());
+			if (consistencyLevel == ConsistencyLevel.Session) {
+				String token = sessionStore.get(path);
+				if (token != null) {
+					builder.header("x-ms-session-token", token);
 				}
 			}
-			return builder;
-		} catch (NoSuchAlgorithmException | InvalidKeyException | UnsupportedEncodingException e) {
-			throw new WebApplicationException(e);
 		}
+		return builder;
+	}
+
+	//Base64 signatures only need +, / and = escaped so skip the general purpose URLEncoder
+	static String authorization(String signature) {
+		StringBuilder sb = new StringBuilder(AUTHORIZATION_PREFIX.length() + signature.length() + 16);
+		sb.append(AUTHORIZATION_PREFIX);
+		for (int i = 0; i < signature.length(); i++) {
+			char c = signature.charAt(i);
+			switch (c) {
+			case '+':
+				sb.append("%2B");
+				break;
+			case '/':
+				sb.append("%2F");
+				break;
+			case '=':
+				sb.append("%3D");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		return sb.toString();
 	}
 
 }
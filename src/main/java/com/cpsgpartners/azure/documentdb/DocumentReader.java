@@ -0,0 +1,195 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+import javax.ws.rs.WebApplicationException;
+
+/**
+ Reads a DocumentDB feed or query response body, {"_rid":...,"Documents":[...],"_count":...}, handing each entry of the Documents array to a consumer
+ as soon as it has been parsed. Only the document currently being parsed is held in memory rather than the whole page.
+
+ Documents are usually JsonObject instances, SELECT VALUE queries can produce any JSON value.
+
+ */
+public class DocumentReader {
+
+	private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+	private static final JsonBuilderFactory BUILDER_FACTORY = Json.createBuilderFactory(null);
+
+	public static class Page {
+		String rId;
+		int count;
+		int documents;
+		String continuation;
+
+		public String getRId() {
+			return rId;
+		}
+
+		//the _count reported by DocumentDB
+		public int getCount() {
+			return count;
+		}
+
+		//documents passed to the consumer
+		public int getDocuments() {
+			return documents;
+		}
+
+		public String getContinuation() {
+			return continuation;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("_rid: %s _count: %d documents: %d continuation: %s", rId, count, documents, continuation);
+		}
+
+	}
+
+	public static Page read(InputStream is, Consumer<? super JsonValue> consumer) throws WebApplicationException {
+		Page page = new Page();
+		try (JsonParser jr = PARSER_FACTORY.createParser(is)) {
+			if (!jr.hasNext() || jr.next() != Event.START_OBJECT) {
+				throw new WebApplicationException("expected a DocumentDB feed object");
+			}
+			while (jr.hasNext()) {
+				Event event = jr.next();
+				if (event == Event.END_OBJECT) {
+					break;
+				}
+				//KEY_NAME
+				String key = jr.getString();
+				event = jr.next();
+				if ("Documents".equals(key) && event == Event.START_ARRAY) {
+					while ((event = jr.next()) != Event.END_ARRAY) {
+						consumer.accept(value(jr, event));
+						page.documents++;
+					}
+				} else if ("_rid".equals(key) && event == Event.VALUE_STRING) {
+					page.rId = jr.getString();
+				} else if ("_count".equals(key) && event == Event.VALUE_NUMBER) {
+					page.count = jr.getInt();
+				} else {
+					skip(jr, event);
+				}
+			}
+		}
+		return page;
+	}
+
+	static JsonValue value(JsonParser jr, Event event) {
+		switch (event) {
+		case START_OBJECT:
+			return object(jr);
+		case START_ARRAY:
+			return array(jr);
+		case VALUE_TRUE:
+			return JsonValue.TRUE;
+		case VALUE_FALSE:
+			return JsonValue.FALSE;
+		case VALUE_NULL:
+			return JsonValue.NULL;
+		case VALUE_STRING:
+			//JSON-P 1.0 has no factory for a standalone string or number
+			return BUILDER_FACTORY.createArrayBuilder().add(jr.getString()).build().get(0);
+		case VALUE_NUMBER:
+			return BUILDER_FACTORY.createArrayBuilder().add(jr.getBigDecimal()).build().get(0);
+		default:
+			throw new WebApplicationException(String.format("unexpected JSON event %s", event));
+		}
+	}
+
+	static JsonValue object(JsonParser jr) {
+		JsonObjectBuilder builder = BUILDER_FACTORY.createObjectBuilder();
+		Event event;
+		while ((event = jr.next()) != Event.END_OBJECT) {
+			String key = jr.getString();
+			event = jr.next();
+			switch (event) {
+			case START_OBJECT:
+				builder.add(key, object(jr));
+				break;
+			case START_ARRAY:
+				builder.add(key, array(jr));
+				break;
+			case VALUE_TRUE:
+				builder.add(key, true);
+				break;
+			case VALUE_FALSE:
+				builder.add(key, false);
+				break;
+			case VALUE_NULL:
+				builder.addNull(key);
+				break;
+			case VALUE_STRING:
+				builder.add(key, jr.getString());
+				break;
+			case VALUE_NUMBER:
+				builder.add(key, jr.getBigDecimal());
+				break;
+			default:
+				throw new WebApplicationException(String.format("unexpected JSON event %s", event));
+			}
+		}
+		return builder.build();
+	}
+
+	static JsonValue array(JsonParser jr) {
+		JsonArrayBuilder builder = BUILDER_FACTORY.createArrayBuilder();
+		Event event;
+		while ((event = jr.next()) != Event.END_ARRAY) {
+			switch (event) {
+			case START_OBJECT:
+				builder.add(object(jr));
+				break;
+			case START_ARRAY:
+				builder.add(array(jr));
+				break;
+			case VALUE_TRUE:
+				builder.add(true);
+				break;
+			case VALUE_FALSE:
+				builder.add(false);
+				break;
+			case VALUE_NULL:
+				builder.addNull();
+				break;
+			case VALUE_STRING:
+				builder.add(jr.getString());
+				break;
+			case VALUE_NUMBER:
+				builder.add(jr.getBigDecimal());
+				break;
+			default:
+				throw new WebApplicationException(String.format("unexpected JSON event %s", event));
+			}
+		}
+		return builder.build();
+	}
+
+	static void skip(JsonParser jr, Event event) {
+		if (event != Event.START_OBJECT && event != Event.START_ARRAY) {
+			return;
+		}
+		int depth = 1;
+		while (depth > 0) {
+			event = jr.next();
+			if (event == Event.START_OBJECT || event == Event.START_ARRAY) {
+				depth++;
+			} else if (event == Event.END_OBJECT || event == Event.END_ARRAY) {
+				depth--;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,124 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.WebApplicationException;
+
+import com.cpsgpartners.azure.documentdb.DocumentDB.ResponseHandler;
+
+//One read sent to the read endpoints in turn: the first request that answers, successfully or with an error status, completes the read and the
+//others are cancelled. A request that fails without a response moves the read on to the next endpoint. The response handler is only called for one
+//request, and only that request's result is used, so handlers that collect headers such as the continuation never see two responses.
+final class HedgedRead<R> {
+
+	interface Sender<R> {
+		CompletableFuture<R> send(int endpoint, ResponseHandler resHandler);
+	}
+
+	private final CompletableFuture<R> result;
+	private final ResponseHandler resHandler;
+	private final int endpoints;
+	private final ReadEndpoints stats;
+	private final Sender<R> sender;
+	//attempt the response handler was called for, -1 until one is
+	private final AtomicInteger owner = new AtomicInteger(-1);
+
+	//guarded by this
+	private final List<CompletableFuture<R>> attempts = new ArrayList<CompletableFuture<R>>(2);
+	private int hedge = -1;
+	private Throwable failure;
+
+	HedgedRead(CompletableFuture<R> result, ResponseHandler resHandler, int endpoints, ReadEndpoints stats, Sender<R> sender) {
+		this.result = result;
+		this.resHandler = resHandler;
+		this.endpoints = endpoints;
+		this.stats = stats;
+		this.sender = sender;
+		result.whenComplete((r, t) -> cancel());
+	}
+
+	synchronized void start() {
+		send();
+	}
+
+	//sends the read again when it has not been answered yet
+	synchronized void hedge() {
+		if (result.isDone() || attempts.size() > 1) {
+			return;
+		}
+		stats.hedged.increment();
+		hedge = attempts.size();
+		send();
+	}
+
+	private void send() {
+		int index = attempts.size();
+		ResponseHandler handler = resHandler == null ? null : response -> {
+			if (owner.compareAndSet(-1, index)) {
+				resHandler.handle(response);
+			}
+		};
+		CompletableFuture<R> attempt = sender.send(index, handler);
+		attempts.add(attempt);
+		attempt.whenComplete((r, t) -> settle(index, r, t));
+	}
+
+	//the read is completed outside the lock, its callbacks run on the completing thread
+	private void settle(int index, R r, Throwable t) {
+		boolean complete = false;
+		Throwable error = null;
+		synchronized (this) {
+			if (result.isDone()) {
+				return;
+			}
+			if (t == null) {
+				int handled = owner.get();
+				//the request the response handler saw completes the read, unless it already failed
+				complete = handled < 0 || handled == index || !pending();
+				if (complete && index == hedge) {
+					stats.hedgeWins.increment();
+				}
+			} else {
+				Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+				if (cause instanceof WebApplicationException) {
+					error = cause;
+				} else {
+					if (failure == null) {
+						failure = cause;
+					}
+					if (attempts.size() < endpoints) {
+						stats.failovers.increment();
+						send();
+					} else if (!pending()) {
+						error = failure;
+					}
+				}
+			}
+		}
+		if (complete) {
+			result.complete(r);
+		} else if (error != null) {
+			result.completeExceptionally(error);
+		}
+	}
+
+	private boolean pending() {
+		for (CompletableFuture<R> attempt : attempts) {
+			if (!attempt.isDone()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized void cancel() {
+		for (CompletableFuture<R> attempt : attempts) {
+			attempt.cancel(false);
+		}
+	}
+
+}
@@ -0,0 +1,297 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.json.stream.JsonParser.Event;
+import javax.ws.rs.WebApplicationException;
+
+//Pull tokenizer over UTF-8 JSON that exposes each token as the raw bytes in its buffer instead of a decoded String, so a value that is only copied
+//from one stream to another is never decoded or allocated. Input is assumed to be well formed, as produced by DocumentDB, and is only loosely validated.
+class JsonTokenizer {
+
+	private final InputStream is;
+	private byte[] buffer;
+	private int position;
+	private int limit;
+	private int start;
+	private int end;
+	private boolean escaped;
+	//per open container, true for an object
+	private boolean[] objects = new boolean[16];
+	private int depth;
+	private boolean expectKey;
+
+	JsonTokenizer(InputStream is) {
+		this(is, new byte[JsonWriter.DEFAULT_BUFFER_SIZE]);
+	}
+
+	JsonTokenizer(InputStream is, byte[] buffer) {
+		this.is = is;
+		this.buffer = buffer;
+	}
+
+	//next token or null at the end of the input
+	Event next() throws IOException {
+		for (;;) {
+			if (position == limit && !fill(position)) {
+				if (depth > 0) {
+					throw new WebApplicationException("unexpected end of JSON input");
+				}
+				return null;
+			}
+			byte c = buffer[position];
+			switch (c) {
+			case ' ':
+			case '\t':
+			case '\n':
+			case '\r':
+			case ':':
+				position++;
+				continue;
+			case ',':
+				position++;
+				expectKey = depth > 0 && objects[depth - 1];
+				continue;
+			case '{':
+				token(1);
+				push(true);
+				expectKey = true;
+				return Event.START_OBJECT;
+			case '[':
+				token(1);
+				push(false);
+				return Event.START_ARRAY;
+			case '}':
+				token(1);
+				depth--;
+				expectKey = false;
+				return Event.END_OBJECT;
+			case ']':
+				token(1);
+				depth--;
+				return Event.END_ARRAY;
+			case '"':
+				string();
+				if (expectKey) {
+					expectKey = false;
+					return Event.KEY_NAME;
+				}
+				return Event.VALUE_STRING;
+			case 't':
+				literal();
+				return Event.VALUE_TRUE;
+			case 'f':
+				literal();
+				return Event.VALUE_FALSE;
+			case 'n':
+				literal();
+				return Event.VALUE_NULL;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					number();
+					return Event.VALUE_NUMBER;
+				}
+				throw new WebApplicationException(String.format("unexpected JSON character %c", (char) c));
+			}
+		}
+	}
+
+	//skips the rest of the value whose first token was just returned
+	void skip(Event event) throws IOException {
+		if (event != Event.START_OBJECT && event != Event.START_ARRAY) {
+			return;
+		}
+		int target = depth - 1;
+		while (depth > target) {
+			if (next() == null) {
+				return;
+			}
+		}
+	}
+
+	//raw bytes of the current token, a string or key includes its quotes and escapes exactly as they appeared in the input
+	byte[] getBuffer() {
+		return buffer;
+	}
+
+	int getStart() {
+		return start;
+	}
+
+	int getLength() {
+		return end - start;
+	}
+
+	int getDepth() {
+		return depth;
+	}
+
+	//compares the current key or string, without quotes, to a name
+	boolean matches(byte[] name) {
+		if (escaped) {
+			return Arrays.equals(name, getString().getBytes(StandardCharsets.UTF_8));
+		}
+		int length = end - start - 2;
+		if (length != name.length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (buffer[start + 1 + i] != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//decoded value of the current string, key or number
+	String getString() {
+		if (buffer[start] != '"') {
+			return new String(buffer, start, end - start, StandardCharsets.US_ASCII);
+		}
+		if (!escaped) {
+			return new String(buffer, start + 1, end - start - 2, StandardCharsets.UTF_8);
+		}
+		StringBuilder sb = new StringBuilder(end - start);
+		int i = start + 1;
+		int last = end - 1;
+		while (i < last) {
+			int run = i;
+			while (i < last && buffer[i] != '\\') {
+				i++;
+			}
+			if (i > run) {
+				sb.append(new String(buffer, run, i - run, StandardCharsets.UTF_8));
+			}
+			if (i == last) {
+				break;
+			}
+			byte e = buffer[i + 1];
+			i += 2;
+			switch (e) {
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'u':
+				sb.append((char) Integer.parseInt(new String(buffer, i, 4, StandardCharsets.US_ASCII), 16));
+				i += 4;
+				break;
+			default:
+				sb.append((char) e);
+			}
+		}
+		return sb.toString();
+	}
+
+	private void push(boolean object) {
+		if (depth == objects.length) {
+			objects = Arrays.copyOf(objects, depth * 2);
+		}
+		objects[depth++] = object;
+	}
+
+	private void token(int length) {
+		start = position;
+		position += length;
+		end = position;
+	}
+
+	private void string() throws IOException {
+		int i = position + 1;
+		escaped = false;
+		for (;;) {
+			if (i == limit) {
+				int offset = i - position;
+				if (!fill(position)) {
+					throw new WebApplicationException("unterminated JSON string");
+				}
+				i = position + offset;
+			}
+			byte c = buffer[i];
+			if (c == '"') {
+				break;
+			}
+			if (c == '\\') {
+				escaped = true;
+				//the escaped character is never the closing quote
+				if (i + 1 == limit) {
+					int offset = i - position;
+					if (!fill(position)) {
+						throw new WebApplicationException("unterminated JSON string");
+					}
+					i = position + offset;
+				}
+				i++;
+			}
+			i++;
+		}
+		start = position;
+		end = i + 1;
+		position = end;
+	}
+
+	private void number() throws IOException {
+		scan(true);
+	}
+
+	private void literal() throws IOException {
+		scan(false);
+	}
+
+	private void scan(boolean number) throws IOException {
+		int i = position + 1;
+		for (;;) {
+			if (i == limit) {
+				int offset = i - position;
+				//fill moves the token to the start of the buffer even when the input is exhausted
+				boolean more = fill(position);
+				i = position + offset;
+				if (!more) {
+					break;
+				}
+			}
+			byte c = buffer[i];
+			if (number ? (c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-' : (c >= 'a' && c <= 'z')) {
+				i++;
+			} else {
+				break;
+			}
+		}
+		start = position;
+		end = i;
+		position = end;
+	}
+
+	//reads more input keeping the bytes from keep onwards, growing the buffer when a single token fills it
+	private boolean fill(int keep) throws IOException {
+		int remaining = limit - keep;
+		if (keep > 0) {
+			System.arraycopy(buffer, keep, buffer, 0, remaining);
+		} else if (remaining == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		position -= keep;
+		limit = remaining;
+		int read = is.read(buffer, limit, buffer.length - limit);
+		if (read <= 0) {
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+}
@@ -0,0 +1,269 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+//minimal buffered UTF-8 JSON writer. Unlike JsonGenerator numbers can be written from their raw text and already serialized JSON can be copied through as is.
+class JsonWriter implements Flushable, Closeable {
+
+	static final int DEFAULT_BUFFER_SIZE = 8192;
+	//the longest escape, a backslash, u and four hex digits, is written in one piece
+	static final int MIN_BUFFER_SIZE = 6;
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+	private static final byte[] TRUE = "true".getBytes();
+	private static final byte[] FALSE = "false".getBytes();
+	private static final byte[] NULL = "null".getBytes();
+
+	private final OutputStream os;
+	private final byte[] buffer;
+	private int position;
+	private long written;
+	//per open container, the closing character and whether it already has a member
+	private byte[] closers = new byte[16];
+	private boolean[] members = new boolean[16];
+	private int depth;
+	private boolean afterKey;
+
+	JsonWriter(OutputStream os) {
+		this(os, new byte[DEFAULT_BUFFER_SIZE]);
+	}
+
+	JsonWriter(OutputStream os, byte[] buffer) {
+		if (buffer.length < MIN_BUFFER_SIZE) {
+			throw new IllegalArgumentException("buffer must hold at least " + MIN_BUFFER_SIZE + " bytes");
+		}
+		this.os = os;
+		this.buffer = buffer;
+	}
+
+	JsonWriter startObject() throws IOException {
+		separator();
+		push('}');
+		write('{');
+		return this;
+	}
+
+	JsonWriter startArray() throws IOException {
+		separator();
+		push(']');
+		write('[');
+		return this;
+	}
+
+	JsonWriter end() throws IOException {
+		write(closers[--depth]);
+		return this;
+	}
+
+	JsonWriter key(String name) throws IOException {
+		separator();
+		string(name);
+		write(':');
+		afterKey = true;
+		return this;
+	}
+
+	//already serialized key, including its quotes
+	JsonWriter rawKey(byte[] name, int offset, int length) throws IOException {
+		separator();
+		write(name, offset, length);
+		write(':');
+		afterKey = true;
+		return this;
+	}
+
+	JsonWriter value(String value) throws IOException {
+		separator();
+		if (value == null) {
+			write(NULL, 0, NULL.length);
+		} else {
+			string(value);
+		}
+		return this;
+	}
+
+	//number as it appeared in the source document, written without conversion
+	JsonWriter number(String text) throws IOException {
+		separator();
+		ascii(text);
+		return this;
+	}
+
+	JsonWriter value(long value) throws IOException {
+		separator();
+		ascii(Long.toString(value));
+		return this;
+	}
+
+	JsonWriter value(boolean value) throws IOException {
+		separator();
+		byte[] b = value ? TRUE : FALSE;
+		write(b, 0, b.length);
+		return this;
+	}
+
+	JsonWriter nullValue() throws IOException {
+		separator();
+		write(NULL, 0, NULL.length);
+		return this;
+	}
+
+	//already serialized JSON value
+	JsonWriter raw(byte[] json, int offset, int length) throws IOException {
+		separator();
+		write(json, offset, length);
+		return this;
+	}
+
+	int getDepth() {
+		return depth;
+	}
+
+	//bytes written so far, including those still buffered
+	long getBytesWritten() {
+		return written + position;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (position > 0) {
+			drain();
+		}
+		os.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		os.close();
+	}
+
+	private void separator() throws IOException {
+		if (afterKey) {
+			afterKey = false;
+		} else if (depth > 0) {
+			if (members[depth - 1]) {
+				write(',');
+			} else {
+				members[depth - 1] = true;
+			}
+		}
+	}
+
+	private void push(char closer) {
+		if (depth == closers.length) {
+			closers = Arrays.copyOf(closers, depth * 2);
+			members = Arrays.copyOf(members, depth * 2);
+		}
+		closers[depth] = (byte) closer;
+		members[depth++] = false;
+	}
+
+	private void string(String value) throws IOException {
+		write('"');
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (position + 6 > buffer.length) {
+				drain();
+			}
+			if (c >= 0x20 && c < 0x80) {
+				if (c == '"' || c == '\\') {
+					buffer[position++] = '\\';
+				}
+				buffer[position++] = (byte) c;
+			} else if (c < 0x20) {
+				escape(c);
+			} else if (c < 0x800) {
+				buffer[position++] = (byte) (0xc0 | (c >> 6));
+				buffer[position++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, value.charAt(++i));
+				buffer[position++] = (byte) (0xf0 | (cp >> 18));
+				buffer[position++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+				buffer[position++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+				buffer[position++] = (byte) (0x80 | (cp & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				//unpaired surrogate
+				escape(c);
+			} else {
+				buffer[position++] = (byte) (0xe0 | (c >> 12));
+				buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buffer[position++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		write('"');
+	}
+
+	private void escape(char c) {
+		buffer[position++] = '\\';
+		switch (c) {
+		case '\n':
+			buffer[position++] = 'n';
+			break;
+		case '\r':
+			buffer[position++] = 'r';
+			break;
+		case '\t':
+			buffer[position++] = 't';
+			break;
+		case '\b':
+			buffer[position++] = 'b';
+			break;
+		case '\f':
+			buffer[position++] = 'f';
+			break;
+		default:
+			buffer[position++] = 'u';
+			buffer[position++] = HEX[(c >> 12) & 0xf];
+			buffer[position++] = HEX[(c >> 8) & 0xf];
+			buffer[position++] = HEX[(c >> 4) & 0xf];
+			buffer[position++] = HEX[c & 0xf];
+		}
+	}
+
+	private void ascii(String value) throws IOException {
+		int length = value.length();
+		if (position + length > buffer.length) {
+			drain();
+		}
+		if (length > buffer.length) {
+			write(value.getBytes("US-ASCII"), 0, length);
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			buffer[position++] = (byte) value.charAt(i);
+		}
+	}
+
+	private void write(int b) throws IOException {
+		if (position == buffer.length) {
+			drain();
+		}
+		buffer[position++] = (byte) b;
+	}
+
+	private void write(byte[] b, int offset, int length) throws IOException {
+		if (length > buffer.length - position) {
+			drain();
+			if (length > buffer.length) {
+				os.write(b, offset, length);
+				written += length;
+				return;
+			}
+		}
+		System.arraycopy(b, offset, buffer, position, length);
+		position += length;
+	}
+
+	private void drain() throws IOException {
+		os.write(buffer, 0, position);
+		written += position;
+		position = 0;
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+//bounded, thread safe least recently used map shared by the client side caches
+class LruCache<K, V> {
+
+	private final Map<K, V> map;
+	private final AtomicLong evictions = new AtomicLong();
+	private final int maxSize;
+
+	LruCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.map = new LinkedHashMap<K, V>(Math.min(maxSize, 256), 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				if (size() > LruCache.this.maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	synchronized V get(K key) {
+		return map.get(key);
+	}
+
+	synchronized void put(K key, V value) {
+		map.put(key, value);
+	}
+
+	synchronized V remove(K key) {
+		return map.remove(key);
+	}
+
+	synchronized int size() {
+		return map.size();
+	}
+
+	synchronized void clear() {
+		map.clear();
+	}
+
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	long getEvictions() {
+		return evictions.get();
+	}
+
+}
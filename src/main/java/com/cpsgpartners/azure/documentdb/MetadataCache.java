@@ -0,0 +1,244 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+/**
+ Time bounded cache of the database and collection feeds used by DocumentDB.resolveDatabase and resolveCollection to turn a database or collection
+ id into its _rid without a metadata round trip on every request.
+
+ A whole feed, every page of it, is cached at once, so resolving one collection of a database makes every other collection of that database
+ resolvable as well. Both ids and _rids resolve, so callers can pass either. An unknown name, an expired feed, or a 410 Gone or 404 Not Found with the
+ owner resource not found sub status (1003) from any request into a database reloads the affected feeds on the next resolution, so recreated
+ databases and collections are picked up. A name still unknown after a reload fails without reading the feed again for the negative time to live,
+ unless the feed is invalidated or a database or collection is created through the same DocumentDB first. The cache is safe to share across threads.
+
+ for example,
+
+ String collRid = db.resolveCollection("mydb", "mycollection");
+ JsonObject doc = db.getDocument(db.resolveDatabase("mydb"), collRid, docRid, JsonObject.class);
+ System.out.println(db.getMetadataCache());
+
+ */
+public class MetadataCache {
+
+	public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(5);
+	public static final int DEFAULT_MAX_DATABASES = 1000;
+	public static final long DEFAULT_NEGATIVE_TTL = TimeUnit.SECONDS.toMillis(5);
+
+	//bound on the unknown names remembered per feed, they are simply cleared when reached
+	static final int MAX_UNKNOWN = 1024;
+
+	//ids and _rids of one feed, both mapped to the _rid
+	static class Names {
+		final Map<String, String> rids;
+		final long expires;
+		//names the feed did not contain, until when they fail without a reload
+		final Map<String, Long> unknown = new ConcurrentHashMap<String, Long>();
+
+		Names(Map<String, String> rids, long expires) {
+			this.rids = rids;
+			this.expires = expires;
+		}
+	}
+
+	private final long ttl;
+	private final long negativeTtl;
+	private volatile Names databases;
+	//collection feeds by database _rid
+	private final LruCache<String, Names> collections;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder unknown = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	public MetadataCache() {
+		this(DEFAULT_TTL, DEFAULT_MAX_DATABASES);
+	}
+
+	public MetadataCache(long ttlMillis) {
+		this(ttlMillis, DEFAULT_MAX_DATABASES);
+	}
+
+	public MetadataCache(long ttlMillis, int maxDatabases) {
+		this(ttlMillis, maxDatabases, DEFAULT_NEGATIVE_TTL);
+	}
+
+	//negativeTtlMillis 0 reloads the feed for every resolution of an unknown name
+	public MetadataCache(long ttlMillis, int maxDatabases, long negativeTtlMillis) {
+		this.ttl = ttlMillis;
+		this.negativeTtl = negativeTtlMillis;
+		this.collections = new LruCache<String, Names>(maxDatabases);
+	}
+
+	//null when the database is not in the cached feed or the feed has expired
+	String database(String database) {
+		return lookup(databases, database);
+	}
+
+	Names databases(List<JsonObject> feed) {
+		return databases = names(feed, "Databases");
+	}
+
+	//the database is not in the feed, which was loaded recently enough not to read it again
+	boolean unknownDatabase(String database) {
+		return unknown(databases, database);
+	}
+
+	String collection(String dbResourceId, String collection) {
+		return lookup(collections.get(dbResourceId), collection);
+	}
+
+	Names collections(String dbResourceId, List<JsonObject> feed) {
+		Names names = names(feed, "DocumentCollections");
+		collections.put(dbResourceId, names);
+		return names;
+	}
+
+	boolean unknownCollection(String dbResourceId, String collection) {
+		return unknown(collections.get(dbResourceId), collection);
+	}
+
+	private boolean unknown(Names names, String name) {
+		if (names == null) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		Long until = names.unknown.get(name);
+		if (until == null || now >= until || now >= names.expires) {
+			return false;
+		}
+		unknown.increment();
+		return true;
+	}
+
+	//the _rid of the name in a feed just loaded, a name it does not contain is remembered as unknown
+	String loaded(Names names, String name) {
+		String rid = names.rids.get(name);
+		if (rid == null && negativeTtl > 0) {
+			if (names.unknown.size() >= MAX_UNKNOWN) {
+				names.unknown.clear();
+			}
+			names.unknown.put(name, System.currentTimeMillis() + negativeTtl);
+		}
+		return rid;
+	}
+
+	private String lookup(Names names, String name) {
+		if (names == null || System.currentTimeMillis() >= names.expires) {
+			return null;
+		}
+		String rid = names.rids.get(name);
+		if (rid != null) {
+			hits.increment();
+		}
+		return rid;
+	}
+
+	//the pages of the feed in order
+	private Names names(List<JsonObject> feed, String name) {
+		loads.increment();
+		Map<String, String> rids = new HashMap<String, String>();
+		Map<String, String> ids = new HashMap<String, String>();
+		for (JsonObject page : feed) {
+			JsonArray resources = page != null ? page.getJsonArray(name) : null;
+			if (resources != null) {
+				for (JsonValue value : resources) {
+					JsonObject resource = (JsonObject) value;
+					String rid = resource.getString("_rid", null);
+					if (rid != null) {
+						rids.put(rid, rid);
+						ids.put(resource.getString("id", rid), rid);
+					}
+				}
+			}
+		}
+		//ids win over a _rid that happens to be spelled the same
+		rids.putAll(ids);
+		return new Names(rids, System.currentTimeMillis() + ttl);
+	}
+
+	//drops the database feed and the collection feed of the database addressed by the request path, i.e. /dbs/{db}/colls/...
+	void invalidatePath(String path) {
+		int start = path.startsWith("/dbs/") ? 5 : -1;
+		if (start < 0 || start >= path.length()) {
+			return;
+		}
+		int end = path.indexOf('/', start);
+		invalidate(path.substring(start, end < 0 ? path.length() : end));
+	}
+
+	//the database may be given by id or _rid
+	public void invalidate(String dbResourceId) {
+		removeCollections(dbResourceId);
+		databases = null;
+		invalidations.increment();
+	}
+
+	//a database, or a collection of the database given, was created so a name its feed left unknown may resolve now
+	void created(String dbResourceId) {
+		if (dbResourceId == null) {
+			databases = null;
+		} else {
+			removeCollections(dbResourceId);
+		}
+	}
+
+	//collection feeds are keyed by the database _rid, an id is mapped through the database feed, even an expired one, and when it is not
+	//in the feed every collection feed is dropped as the one of the database cannot be told apart
+	private void removeCollections(String database) {
+		Names names = databases;
+		String rid = names != null ? names.rids.get(database) : null;
+		if (rid != null) {
+			collections.remove(rid);
+		} else if (collections.remove(database) == null) {
+			collections.clear();
+		}
+	}
+
+	public void clear() {
+		databases = null;
+		collections.clear();
+	}
+
+	public long getTtl() {
+		return ttl;
+	}
+
+	public long getNegativeTtl() {
+		return negativeTtl;
+	}
+
+	//resolutions answered from a cached feed
+	public long getHits() {
+		return hits.sum();
+	}
+
+	//resolutions of unknown names that failed without reading the feed again
+	public long getUnknown() {
+		return unknown.sum();
+	}
+
+	//database and collection feeds read from DocumentDB
+	public long getLoads() {
+		return loads.sum();
+	}
+
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("databases: %d hits: %d unknown: %d loads: %d invalidations: %d", collections.size(), getHits(), getUnknown(), getLoads(), getInvalidations());
+	}
+
+}
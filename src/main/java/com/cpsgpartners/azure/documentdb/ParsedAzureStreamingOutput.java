@@ -3,10 +3,9 @@ package com.cpsgpartners.azure.documentdb;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
-import javax.json.Json;
-import javax.json.stream.JsonGenerator;
-import javax.json.stream.JsonParser;
 import javax.json.stream.JsonParser.Event;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
@@ -14,133 +13,270 @@ import javax.ws.rs.core.StreamingOutput;
 
 /*
  This utility class is used to stream the Azure DocumentDB REST response directly through to another REST client without buffering it in the intermediary server.
- This could be used for more advanced filtering
+ Unlike AzureStreamingOutput the response is parsed so each document can be filtered on the way through: fields can be included or excluded by path,
+ renamed, and the DocumentDB system properties dropped. Paths are dot separated field names relative to each document, arrays are transparent so
+ "items.sku" matches the sku field of every object in the items array. Numbers are passed through as their original text.
+
+ for example,
+
+ Response queryResult = db.queryDocuments(...
+ return Response.ok(new ParsedAzureStreamingOutput(queryResult).setInclude("id", "name", "address.city").setRename("name", "displayName")).build();
  */
 public class ParsedAzureStreamingOutput implements StreamingOutput {
 
+	private static final byte[][] SYSTEM_PROPERTY_NAMES = { "_rid".getBytes(), "_self".getBytes(), "_etag".getBytes(), "_ts".getBytes(), "_attachments".getBytes() };
+	private static final byte[] DOCUMENTS = "Documents".getBytes();
+
 	Response response;
+	private final Node root = new Node();
+	private boolean includes;
+	private boolean dropSystemProperties;
+	private boolean feed = true;
 
 	public ParsedAzureStreamingOutput(Response response) {
 		this.response = response;
 	}
 
+	//only the given paths, and their parents, are written
+	public ParsedAzureStreamingOutput setInclude(String... paths) {
+		for (String path : paths) {
+			node(path).include = true;
+			includes = true;
+		}
+		return this;
+	}
+
+	public ParsedAzureStreamingOutput setExclude(String... paths) {
+		for (String path : paths) {
+			node(path).exclude = true;
+		}
+		return this;
+	}
+
+	//path is matched on the original field names
+	public ParsedAzureStreamingOutput setRename(String path, String name) {
+		node(path).rename = name;
+		return this;
+	}
+
+	//drops _rid, _self, _etag, _ts and _attachments from each document
+	public ParsedAzureStreamingOutput setDropSystemProperties(boolean dropSystemProperties) {
+		this.dropSystemProperties = dropSystemProperties;
+		return this;
+	}
+
+	//true, the default, when the response is a feed or query result with a Documents array, false when it is a single resource
+	public ParsedAzureStreamingOutput setFeed(boolean feed) {
+		this.feed = feed;
+		return this;
+	}
+
 	@Override
 	public void write(OutputStream os) throws IOException, WebApplicationException {
 		final String continuationAzureToken = response.getHeaderString("x-ms-continuation");
 
 		if (response.hasEntity()) {
 			try (InputStream is = response.readEntity(InputStream.class)) {
-				//Map<String, Object> properties = new HashMap<String, Object>(1);
-				//properties.put(JsonGenerator.PRETTY_PRINTING, true);
-				//JsonGeneratorFactory jgf = Json.createGeneratorFactory(properties);
-				//JsonGenerator jg = jgf.createGenerator(os);
-				JsonGenerator jg = Json.createGenerator(os);
-
-				JsonParser jr = Json.createParser(is);
-
-				//insert continuation at the beginning
-				if (continuationAzureToken != null && jr.hasNext()) {
-					Event event = jr.next();
-					if (Event.START_OBJECT == event) {
-						jg.writeStartObject();
-						jg.write("_continuation", continuationAzureToken);
+				write(is, continuationAzureToken, os);
+				return;
+			}
+		}
+		os.flush();
+		os.close();
+	}
+
+	public void write(InputStream is, String continuationAzureToken, OutputStream os) throws IOException, WebApplicationException {
+		JsonTokenizer jr = new JsonTokenizer(is);
+		JsonWriter jw = new JsonWriter(os);
+		Event event = jr.next();
+		if (event == Event.START_OBJECT) {
+			jw.startObject();
+			//insert continuation at the beginning
+			if (continuationAzureToken != null) {
+				jw.key("_continuation").value(continuationAzureToken);
+			}
+			while ((event = jr.next()) != Event.END_OBJECT) {
+				if (!feed) {
+					field(jr, jw, root, includes, true);
+					continue;
+				}
+				boolean documents = jr.matches(DOCUMENTS);
+				jw.rawKey(jr.getBuffer(), jr.getStart(), jr.getLength());
+				event = jr.next();
+				if (documents && event == Event.START_ARRAY) {
+					jw.startArray();
+					while ((event = jr.next()) != Event.END_ARRAY) {
+						if (event == Event.START_OBJECT) {
+							jw.startObject();
+							object(jr, jw, root, includes, true);
+						} else {
+							copy(jr, jw, event);
+						}
 					}
+					jw.end();
+				} else {
+					copy(jr, jw, event);
 				}
+			}
+			jw.end();
+		} else if (event != null) {
+			copy(jr, jw, event);
+		}
+		jw.close();
+	}
 
-				// Clone the rest.
-				String currentKey = null;
-				while (jr.hasNext()) {
-					Event event = jr.next();
-					switch (event) {
-					case END_ARRAY:
-						jg.writeEnd();
-						break;
-					case END_OBJECT:
-						jg.writeEnd();
-						break;
-					case KEY_NAME:
-						currentKey = jr.getString();
-						break;
-					case START_ARRAY:
-						if (currentKey != null) {
-							jg.writeStartArray(currentKey);
-							currentKey = null;
-						} else
-							jg.writeStartArray();
-						break;
-					case START_OBJECT:
-						if (currentKey != null) {
-							jg.writeStartObject(currentKey);
-							currentKey = null;
-						} else
-							jg.writeStartObject();
-						break;
-					case VALUE_FALSE:
-						if (currentKey != null) {
-							jg.write(currentKey, false);
-							currentKey = null;
-						} else
-							jg.write(false);
-						break;
-					case VALUE_NULL:
-						if (currentKey != null) {
-							jg.writeNull(currentKey);
-							currentKey = null;
-						} else
-							jg.writeNull();
-						break;
-					case VALUE_NUMBER:
-						if (currentKey != null) {
-							jg.write(currentKey, jr.getBigDecimal());
-							currentKey = null;
-						} else
-							jg.write(jr.getBigDecimal());
-						break;
-					case VALUE_STRING:
-						if (currentKey != null) {
-							//could filter here
-							jg.write(currentKey, jr.getString());
-							currentKey = null;
-						} else
-							jg.write(jr.getString());
-
-						break;
-					case VALUE_TRUE:
-						if (currentKey != null) {
-							jg.write(currentKey, true);
-							currentKey = null;
-						} else
-							jg.write(true);
-
-						break;
-					default:
-						break;
+	private void object(JsonTokenizer jr, JsonWriter jw, Node node, boolean filter, boolean document) throws IOException {
+		while (jr.next() != Event.END_OBJECT) {
+			field(jr, jw, node, filter, document);
+		}
+		jw.end();
+	}
 
-					}
-				}
+	//the tokenizer is positioned on the field's KEY_NAME
+	private void field(JsonTokenizer jr, JsonWriter jw, Node node, boolean filter, boolean document) throws IOException {
+		if (document && dropSystemProperties && systemProperty(jr)) {
+			jr.skip(jr.next());
+			return;
+		}
+		Node child = node != null ? node.child(jr) : null;
+		if (child != null && child.exclude) {
+			jr.skip(jr.next());
+			return;
+		}
+		if (child != null && child.rename != null) {
+			jw.key(child.rename);
+		} else if (!filter || child != null) {
+			jw.rawKey(jr.getBuffer(), jr.getStart(), jr.getLength());
+		}
+		Event event = jr.next();
+		boolean childFilter = filter;
+		if (filter) {
+			if (child == null) {
+				jr.skip(event);
+				return;
+			}
+			if (!child.include && event != Event.START_OBJECT && event != Event.START_ARRAY) {
+				//parent of an included path that is not a container, the key was written so keep the value
+				copy(jr, jw, event);
+				return;
+			}
+			//everything below an included path is written
+			childFilter = !child.include;
+		}
+		value(jr, jw, child, childFilter, event);
+	}
 
-				/*//read the first, character, {
-				if (is.read() != -1) {
+	private void value(JsonTokenizer jr, JsonWriter jw, Node node, boolean filter, Event event) throws IOException {
+		if (node == null || (!filter && node.names.length == 0)) {
+			copy(jr, jw, event);
+			return;
+		}
+		switch (event) {
+		case START_OBJECT:
+			jw.startObject();
+			object(jr, jw, node, filter, false);
+			break;
+		case START_ARRAY:
+			jw.startArray();
+			while ((event = jr.next()) != Event.END_ARRAY) {
+				value(jr, jw, node, filter, event);
+			}
+			jw.end();
+			break;
+		default:
+			copy(jr, jw, event);
+		}
+	}
 
-					Writer writer = new BufferedWriter(new OutputStreamWriter(os));
-					writer.write("{");
+	//writes the current value and everything below it unchanged
+	static void copy(JsonTokenizer jr, JsonWriter jw, Event event) throws IOException {
+		int depth = jr.getDepth() - (event == Event.START_OBJECT || event == Event.START_ARRAY ? 1 : 0);
+		for (;;) {
+			switch (event) {
+			case START_OBJECT:
+				jw.startObject();
+				break;
+			case START_ARRAY:
+				jw.startArray();
+				break;
+			case END_OBJECT:
+			case END_ARRAY:
+				jw.end();
+				break;
+			case KEY_NAME:
+				jw.rawKey(jr.getBuffer(), jr.getStart(), jr.getLength());
+				break;
+			default:
+				jw.raw(jr.getBuffer(), jr.getStart(), jr.getLength());
+				break;
+			}
+			if (jr.getDepth() == depth) {
+				return;
+			}
+			event = jr.next();
+		}
+	}
 
-					if (continuationAzureToken != null) {
-						writer.write("continuation: \"");
-						writer.write(continuationAzureToken);
-						writer.write("\",");
-					}
-					writer.flush();
-					byte[] buffer = new byte[1024];
-					int bytesRead;
-					while ((bytesRead = is.read(buffer)) != -1) // test for EOF or end reached
-					{
-						os.write(buffer, 0, bytesRead);
-					}
-				}*/
+	private static boolean systemProperty(JsonTokenizer jr) {
+		//all start with an underscore, skip the comparisons for everything else
+		if (jr.getLength() < 3 || jr.getBuffer()[jr.getStart() + 1] != '_') {
+			return false;
+		}
+		for (byte[] name : SYSTEM_PROPERTY_NAMES) {
+			if (jr.matches(name)) {
+				return true;
 			}
 		}
-		os.flush();
-		os.close();
+		return false;
 	}
+
+	private Node node(String path) {
+		Node node = root;
+		for (String name : path.split("\\.")) {
+			Node child = node.get(name);
+			if (child == null) {
+				child = node.add(name);
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	//path segments are kept as UTF-8 bytes so field names are matched without decoding them
+	private static class Node {
+		byte[][] names = new byte[0][];
+		Node[] children = new Node[0];
+		boolean include;
+		boolean exclude;
+		String rename;
+
+		Node child(JsonTokenizer jr) {
+			for (int i = 0; i < names.length; i++) {
+				if (jr.matches(names[i])) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node get(String name) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			for (int i = 0; i < names.length; i++) {
+				if (Arrays.equals(names[i], bytes)) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node add(String name) {
+			Node child = new Node();
+			names = Arrays.copyOf(names, names.length + 1);
+			children = Arrays.copyOf(children, children.length + 1);
+			names[names.length - 1] = name.getBytes(StandardCharsets.UTF_8);
+			children[children.length - 1] = child;
+			return child;
+		}
+	}
+
 }
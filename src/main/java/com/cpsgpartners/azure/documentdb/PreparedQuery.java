@@ -0,0 +1,231 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.json.JsonValue;
+import javax.ws.rs.WebApplicationException;
+
+/**
+ DocumentDB SQL query parsed once for its @parameters, in order of first appearance and ignoring string literals, whose request body is kept as
+ pre-encoded UTF-8 segments around the parameter values. Executing it only encodes the values into a single byte array sent as is, instead of
+ building a JsonObject of the query and parameters and looking up a MessageBodyWriter for it on every call.
+
+ Values are given in parameter order and may be a String, Number, Boolean, JsonValue, an Iterable or array of those, or null. A PreparedQuery is
+ immutable and can be shared by every thread.
+
+ for example,
+
+ PreparedQuery byType = new PreparedQuery("SELECT * FROM c WHERE c.type = @type AND c.version > @version");
+ JsonObject page = db.queryDocuments(dbId, collId, byType, JsonObject.class, 100, null, "order", 3);
+
+ */
+public final class PreparedQuery {
+
+	//encoders are reused by each thread so only the body itself is allocated per execution
+	private static final ThreadLocal<Encoder> ENCODERS = ThreadLocal.withInitial(Encoder::new);
+
+	private final String query;
+	private final List<String> parameters;
+	//segments[i] precedes the value of parameter i, the last segment closes the body
+	private final byte[][] segments;
+	private final int staticLength;
+
+	public PreparedQuery(String query) throws WebApplicationException {
+		if (query == null || query.trim().isEmpty()) {
+			throw new WebApplicationException("query is required");
+		}
+		this.query = query;
+		this.parameters = Collections.unmodifiableList(parse(query));
+		this.segments = new byte[parameters.size() + 1][];
+		Encoder encoder = new Encoder();
+		encoder.raw("{\"query\":").value(query).raw(",\"parameters\":[");
+		for (int i = 0; i < parameters.size(); i++) {
+			segments[i] = encoder.raw(i > 0 ? "},{\"name\":" : "{\"name\":").value(parameters.get(i)).raw(",\"value\":").toByteArray();
+			encoder.reset();
+		}
+		segments[parameters.size()] = encoder.raw(parameters.isEmpty() ? "]}" : "}]}").toByteArray();
+		int length = 0;
+		for (byte[] segment : segments) {
+			length += segment.length;
+		}
+		this.staticLength = length;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public List<String> getParameters() {
+		return parameters;
+	}
+
+	//the application/query+json request body with the values spliced in
+	public byte[] body(Object... values) throws WebApplicationException {
+		int count = values != null ? values.length : 0;
+		if (count != parameters.size()) {
+			throw new WebApplicationException(String.format("query has %d parameters %s but %d values were given", parameters.size(), parameters, count));
+		}
+		Encoder encoder = ENCODERS.get();
+		try {
+			encoder.ensure(staticLength + 16 * count);
+			for (int i = 0; i < count; i++) {
+				encoder.raw(segments[i]).value(values[i]);
+			}
+			byte[] body = encoder.raw(segments[count]).toByteArray();
+			encoder.reset();
+			return body;
+		} catch (RuntimeException e) {
+			//the writer may be left inside an array
+			ENCODERS.remove();
+			throw e;
+		}
+	}
+
+	//values as a list for the query cache key, copied since callers may reuse their array
+	List<Object> key(Object... values) {
+		return values == null || values.length == 0 ? Collections.emptyList() : Arrays.asList(values.clone());
+	}
+
+	@Override
+	public String toString() {
+		return query;
+	}
+
+	//@name references outside of string literals, each name once
+	static List<String> parse(String query) throws WebApplicationException {
+		List<String> names = new ArrayList<String>();
+		int length = query.length();
+		char quote = 0;
+		for (int i = 0; i < length; i++) {
+			char c = query.charAt(i);
+			if (quote != 0) {
+				if (c == '\\') {
+					i++;
+				} else if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '\'' || c == '"') {
+				quote = c;
+			} else if (c == '@') {
+				int end = i + 1;
+				while (end < length && (Character.isLetterOrDigit(query.charAt(end)) || query.charAt(end) == '_')) {
+					end++;
+				}
+				if (end == i + 1 || Character.isDigit(query.charAt(i + 1))) {
+					throw new WebApplicationException(String.format("invalid parameter at %d in query: %s", i, query));
+				}
+				String name = query.substring(i, end);
+				if (!names.contains(name)) {
+					names.add(name);
+				}
+				i = end - 1;
+			}
+		}
+		if (quote != 0) {
+			throw new WebApplicationException(String.format("unterminated string literal in query: %s", query));
+		}
+		return names;
+	}
+
+	static final class Output extends ByteArrayOutputStream {
+
+		Output() {
+			super(512);
+		}
+
+		void ensure(int capacity) {
+			if (buf.length < capacity) {
+				buf = Arrays.copyOf(buf, capacity);
+			}
+		}
+	}
+
+	//JsonWriter over a growable buffer, flushed into a byte array per body and reset for the next one
+	static final class Encoder {
+		final Output output = new Output();
+		final JsonWriter writer = new JsonWriter(output, new byte[512]);
+
+		Encoder reset() {
+			output.reset();
+			return this;
+		}
+
+		Encoder ensure(int capacity) {
+			output.ensure(capacity);
+			return this;
+		}
+
+		Encoder raw(String json) {
+			return raw(json.getBytes(StandardCharsets.UTF_8));
+		}
+
+		Encoder raw(byte[] json) {
+			try {
+				writer.raw(json, 0, json.length);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return this;
+		}
+
+		Encoder value(Object value) throws WebApplicationException {
+			try {
+				write(value);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return this;
+		}
+
+		private void write(Object value) throws IOException {
+			if (value == null) {
+				writer.nullValue();
+			} else if (value instanceof String) {
+				writer.value((String) value);
+			} else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+				writer.value(((Number) value).longValue());
+			} else if (value instanceof Number) {
+				if ((value instanceof Double && !Double.isFinite((Double) value)) || (value instanceof Float && !Float.isFinite((Float) value))) {
+					throw new WebApplicationException(String.format("parameter value %s is not a JSON number", value));
+				}
+				writer.number(value.toString());
+			} else if (value instanceof Boolean) {
+				writer.value(((Boolean) value).booleanValue());
+			} else if (value instanceof JsonValue) {
+				byte[] json = value.toString().getBytes(StandardCharsets.UTF_8);
+				writer.raw(json, 0, json.length);
+			} else if (value instanceof Iterable) {
+				writer.startArray();
+				for (Object element : (Iterable<?>) value) {
+					write(element);
+				}
+				writer.end();
+			} else if (value instanceof Object[]) {
+				writer.startArray();
+				for (Object element : (Object[]) value) {
+					write(element);
+				}
+				writer.end();
+			} else {
+				throw new WebApplicationException(String.format("unsupported parameter value type %s", value.getClass().getName()));
+			}
+		}
+
+		byte[] toByteArray() {
+			try {
+				writer.flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return output.toByteArray();
+		}
+	}
+
+}
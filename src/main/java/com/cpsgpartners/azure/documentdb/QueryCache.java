@@ -0,0 +1,224 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ Bounded least recently used cache of query pages read through DocumentDB.queryDocuments and queryDocumentsAsync, keyed by the collection, query
+ text, parameters, page size, continuation token and response type.
+
+ A page is served from the cache until its time to live passes. Any create, replace, delete or stored procedure execution issued through the same
+ DocumentDB instance invalidates every cached page of the collection it addresses once it completes, including pages of queries that were still
+ running when the write was issued. The collection is matched by its link as addressed, so writes and queries must both use the _rid or both the id.
+ Writes by other clients are only picked up when the time to live passes, so the cache suits reference data that rarely changes. Cached pages are
+ handed to every caller so they should be treated as read only. Pages read through queryIterator and queryStream are cached as well, queries returning
+ an unread Response, i.e. QueryStreamingOutput and the consumer based queryDocuments, are not.
+
+ for example,
+
+ db.setQueryCache(new QueryCache(1000, 30000));
+ JsonObject page = db.queryDocuments(dbId, collId, "SELECT * FROM c WHERE c.type = @type", parameters, JsonObject.class, 100, null);
+ System.out.println(db.getQueryCache());
+
+ */
+public class QueryCache {
+
+	public static final int DEFAULT_MAX_PAGES = 1000;
+	public static final long DEFAULT_TIME_TO_LIVE = 60000;
+
+	static final class Key {
+		final String collection;
+		final String query;
+		//a copy of the named parameters or the PreparedQuery values
+		final Object parameters;
+		final int pageSize;
+		final String continuation;
+		final Object responseType;
+		private final int hash;
+
+		Key(String collection, String query, Object parameters, int pageSize, String continuation, Object responseType) {
+			this.collection = collection;
+			this.query = query;
+			this.parameters = parameters;
+			this.pageSize = pageSize;
+			this.continuation = continuation;
+			this.responseType = responseType;
+			this.hash = Objects.hash(collection, query, this.parameters, pageSize, continuation, responseType);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && pageSize == other.pageSize && collection.equals(other.collection) && Objects.equals(query, other.query) && parameters.equals(other.parameters)
+					&& Objects.equals(continuation, other.continuation) && Objects.equals(responseType, other.responseType);
+		}
+	}
+
+	static final class Entry {
+		final long generation;
+		final long expires;
+		final Object value;
+
+		Entry(long generation, long expires, Object value) {
+			this.generation = generation;
+			this.expires = expires;
+			this.value = value;
+		}
+	}
+
+	private final LruCache<Key, Entry> pages;
+	private final long timeToLive;
+	//bumped by every write to the collection, pages read under an older generation are stale
+	private final ConcurrentHashMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	private final LongAdder stale = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	public QueryCache() {
+		this(DEFAULT_MAX_PAGES, DEFAULT_TIME_TO_LIVE);
+	}
+
+	//timeToLive in milliseconds
+	public QueryCache(int maxPages, long timeToLive) {
+		this.pages = new LruCache<Key, Entry>(maxPages);
+		this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+	}
+
+	//the collection is the SessionTokenStore scope of the docs link, dbs/{db}/colls/{coll}
+	static Key key(String docsPath, String query, Map<String, String> parameters, int pageSize, String continuation, Object responseType) {
+		//copied so a caller reusing its map cannot change a cached key
+		Map<String, String> copy = parameters == null || parameters.isEmpty() ? Collections.<String, String> emptyMap() : new HashMap<String, String>(parameters);
+		return new Key(SessionTokenStore.scope(docsPath), query, copy, pageSize, continuation, responseType);
+	}
+
+	static Key key(String docsPath, PreparedQuery query, Object[] values, int pageSize, String continuation, Object responseType) {
+		return new Key(SessionTokenStore.scope(docsPath), query.getQuery(), query.key(values), pageSize, continuation, responseType);
+	}
+
+	//pages are only stored under a key carrying their response type, so the caller's type is the page's type
+	@SuppressWarnings("unchecked")
+	<R> R get(Key key) {
+		Entry entry = pages.get(key);
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		if (entry.generation != generation(key)) {
+			pages.remove(key);
+			stale.increment();
+			misses.increment();
+			return null;
+		}
+		if (System.nanoTime() - entry.expires > 0) {
+			pages.remove(key);
+			expired.increment();
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return (R) entry.value;
+	}
+
+	//read before the query is sent so a write completing while it runs marks the page stale
+	long generation(Key key) {
+		return generations.computeIfAbsent(key.collection, c -> new AtomicLong()).get();
+	}
+
+	void put(Key key, long generation, Object value) {
+		if (value == null) {
+			return;
+		}
+		pages.put(key, new Entry(generation, System.nanoTime() + timeToLive, value));
+	}
+
+	//every cached page of the collection, or of every collection of the database, addressed by the resource path
+	public void invalidate(String path) {
+		String scope = SessionTokenStore.scope(path);
+		AtomicLong generation = generations.get(scope);
+		if (generation != null) {
+			generation.incrementAndGet();
+			invalidations.increment();
+			return;
+		}
+		if (scope.startsWith("dbs/") && scope.indexOf("/colls/") < 0) {
+			String prefix = scope.concat("/");
+			for (Map.Entry<String, AtomicLong> entry : generations.entrySet()) {
+				if (entry.getKey().startsWith(prefix)) {
+					entry.getValue().incrementAndGet();
+					invalidations.increment();
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		pages.clear();
+	}
+
+	public int size() {
+		return pages.size();
+	}
+
+	public long getTimeToLive() {
+		return TimeUnit.NANOSECONDS.toMillis(timeToLive);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	//queries sent to DocumentDB, including those whose page had expired or was stale
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getExpired() {
+		return expired.sum();
+	}
+
+	//pages dropped because their collection was written to after they were read
+	public long getStale() {
+		return stale.sum();
+	}
+
+	//collection invalidations caused by writes
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	public long getEvictions() {
+		return pages.getEvictions();
+	}
+
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total > 0 ? (double) h / total : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("size: %d hits: %d misses: %d expired: %d stale: %d invalidations: %d evictions: %d hit rate: %.2f", size(), getHits(), getMisses(), getExpired(), getStale(), getInvalidations(),
+				getEvictions(), getHitRate());
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.ws.rs.WebApplicationException;
+
+import com.cpsgpartners.azure.documentdb.DocumentDB.QueryResult;
+
+/**
+ Lazily iterates over every document of a DocumentDB query, following the x-ms-continuation token page by page.
+
+ As soon as a page arrives the request for the following page is issued in the background, so the network round trip for page N+1 overlaps with the
+ caller consuming page N. At most one page is prefetched. Closing the iterator, or the Stream returned by stream(), cancels the outstanding prefetch so
+ an early exit does not download the rest of the result set.
+
+ for example,
+
+ try (Stream<SerTest> docs = db.queryStream(dbId, collId, "SELECT * FROM c", null, JQueryResult.genericType(SerTest.class), 100)) {
+ 	docs.filter(...).findFirst();
+ }
+
+ */
+public class QueryIterator<R> implements Iterator<R>, AutoCloseable {
+
+	public static interface PageSource<R> {
+
+		public CompletableFuture<? extends QueryResult<R>> fetch(String continuationToken);
+
+	}
+
+	private final PageSource<R> source;
+	private CompletableFuture<? extends QueryResult<R>> nextPage;
+	private Iterator<R> current = Collections.<R> emptyIterator();
+	private String continuation;
+	private int pages;
+	private boolean closed;
+
+	public QueryIterator(PageSource<R> source) {
+		this(source, null);
+	}
+
+	public QueryIterator(PageSource<R> source, String continuationToken) {
+		this.source = source;
+		this.nextPage = source.fetch(continuationToken);
+	}
+
+	@Override
+	public boolean hasNext() throws WebApplicationException {
+		while (!current.hasNext()) {
+			if (closed || nextPage == null) {
+				return false;
+			}
+			QueryResult<R> page = await(nextPage);
+			pages++;
+			continuation = page != null ? page.getContinuation() : null;
+			//prefetch while this page is consumed
+			nextPage = continuation != null && !continuation.isEmpty() ? source.fetch(continuation) : null;
+			List<R> documents = page != null ? page.getDocuments() : null;
+			current = documents != null ? documents.iterator() : Collections.<R> emptyIterator();
+		}
+		return true;
+	}
+
+	@Override
+	public R next() throws WebApplicationException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return current.next();
+	}
+
+	//continuation token of the page currently being consumed, can be used to resume a later query
+	public String getContinuation() {
+		return continuation;
+	}
+
+	public int getPages() {
+		return pages;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		current = Collections.<R> emptyIterator();
+		if (nextPage != null) {
+			nextPage.cancel(true);
+			nextPage = null;
+		}
+	}
+
+	public Stream<R> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(this::close);
+	}
+
+	static <T> T await(CompletableFuture<? extends T> future) throws WebApplicationException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new WebApplicationException(cause);
+		}
+	}
+
+}
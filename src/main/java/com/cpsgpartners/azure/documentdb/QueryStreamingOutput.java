@@ -0,0 +1,197 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.json.stream.JsonParser.Event;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ Runs a DocumentDB query to completion on the server side, following the x-ms-continuation token, and streams every document to the client as one
+ JSON array, or as newline delimited JSON, so the client does not have to make a round trip per page.
+
+ Documents are copied through as they arrive without being decoded, and the request for the following page is issued as soon as the headers of the
+ current page are received, so server memory stays constant no matter how large the result is. The response can optionally be cut short after a
+ number of documents or once a number of bytes has been written, the document that crosses the byte limit is still written whole.
+
+ for example,
+
+ QueryStreamingOutput output = new QueryStreamingOutput(db, dbId, collId, "SELECT * FROM c", null).setMaxItems(100000);
+ return Response.ok(output, output.getMediaType()).build();
+
+ */
+public class QueryStreamingOutput implements StreamingOutput {
+
+	public static final MediaType NDJSON_TYPE = new MediaType("application", "x-ndjson");
+
+	public static enum Format {
+		ARRAY, NDJSON
+	}
+
+	private static final byte[] DOCUMENTS = "Documents".getBytes();
+	private static final byte[] NEWLINE = { '\n' };
+
+	private final DocumentDB db;
+	private final String dbResourceId;
+	private final String collectionResId;
+	private final String query;
+	private final Map<String, String> parameters;
+	private Format format = Format.ARRAY;
+	private int pageSize = -1;
+	private long maxItems = -1;
+	private long maxBytes = -1;
+	private String continuationToken;
+
+	private long items;
+	private int pages;
+	private long bytes;
+
+	public QueryStreamingOutput(DocumentDB db, String dbResourceId, String collectionResId, String query, Map<String, String> parameters) {
+		this.db = db;
+		this.dbResourceId = dbResourceId;
+		this.collectionResId = collectionResId;
+		this.query = query;
+		this.parameters = parameters;
+	}
+
+	public QueryStreamingOutput setFormat(Format format) {
+		this.format = format;
+		return this;
+	}
+
+	//x-ms-max-item-count of each DocumentDB page, -1 for the service default
+	public QueryStreamingOutput setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	public QueryStreamingOutput setMaxItems(long maxItems) {
+		this.maxItems = maxItems;
+		return this;
+	}
+
+	public QueryStreamingOutput setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		return this;
+	}
+
+	//resume a query from a continuation token obtained earlier
+	public QueryStreamingOutput setContinuationToken(String continuationToken) {
+		this.continuationToken = continuationToken;
+		return this;
+	}
+
+	public MediaType getMediaType() {
+		return format == Format.NDJSON ? NDJSON_TYPE : MediaType.APPLICATION_JSON_TYPE;
+	}
+
+	//documents written by the last write
+	public long getItems() {
+		return items;
+	}
+
+	public int getPages() {
+		return pages;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public void write(OutputStream os) throws IOException, WebApplicationException {
+		items = 0;
+		pages = 0;
+		byte[] writeBuffer = BufferPool.DEFAULT.acquire();
+		byte[] readBuffer = BufferPool.DEFAULT.acquire();
+		JsonWriter jw = new JsonWriter(os, writeBuffer);
+		CompletableFuture<Response> next = fetch(continuationToken);
+		try {
+			if (format == Format.ARRAY) {
+				jw.startArray();
+			}
+			boolean more = true;
+			while (more && next != null) {
+				Response response = QueryIterator.await(next);
+				next = null;
+				try {
+					pages++;
+					String continuation = response.getHeaderString("x-ms-continuation");
+					boolean last = continuation == null || continuation.isEmpty();
+					//prefetch while this page is written unless the limit will be reached first
+					if (!last && (maxItems < 0 || items + Math.max(pageSize, 1) < maxItems)) {
+						next = fetch(continuation);
+					}
+					if (response.hasEntity()) {
+						try (InputStream is = response.readEntity(InputStream.class)) {
+							more = documents(new JsonTokenizer(is, readBuffer), jw);
+						}
+					}
+					if (more && !last && next == null) {
+						next = fetch(continuation);
+					}
+				} finally {
+					response.close();
+				}
+			}
+			if (format == Format.ARRAY) {
+				jw.end();
+			}
+			bytes = jw.getBytesWritten();
+			jw.close();
+		} finally {
+			if (next != null) {
+				next.cancel(true);
+				next.whenComplete((r, t) -> {
+					if (r != null) {
+						r.close();
+					}
+				});
+			}
+			BufferPool.DEFAULT.release(writeBuffer);
+			BufferPool.DEFAULT.release(readBuffer);
+		}
+	}
+
+	//copies the documents of one page, false once a limit is reached
+	private boolean documents(JsonTokenizer jr, JsonWriter jw) throws IOException {
+		if (jr.next() != Event.START_OBJECT) {
+			throw new WebApplicationException("expected a DocumentDB feed object");
+		}
+		Event event;
+		while ((event = jr.next()) == Event.KEY_NAME) {
+			boolean documents = jr.matches(DOCUMENTS);
+			event = jr.next();
+			if (!documents || event != Event.START_ARRAY) {
+				jr.skip(event);
+				continue;
+			}
+			while ((event = jr.next()) != Event.END_ARRAY) {
+				if (limited(jw)) {
+					return false;
+				}
+				ParsedAzureStreamingOutput.copy(jr, jw, event);
+				if (format == Format.NDJSON) {
+					jw.raw(NEWLINE, 0, 1);
+				}
+				items++;
+			}
+		}
+		return !limited(jw);
+	}
+
+	private boolean limited(JsonWriter jw) {
+		return (maxItems >= 0 && items >= maxItems) || (maxBytes >= 0 && jw.getBytesWritten() >= maxBytes);
+	}
+
+	private CompletableFuture<Response> fetch(String continuation) {
+		return db.<Response> queryDocumentsAsync(dbResourceId, collectionResId, query, parameters, Response.class, pageSize, continuation);
+	}
+
+}
@@ -0,0 +1,187 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ Coalesces concurrent identical DocumentDB reads so they share one request: a getDocument, getDatabase, getAttachment or other point read of a
+ resource that is already being read by another thread waits for that request and receives its result, or its error, instead of sending its own.
+ Only reads without an explicit ETag are coalesced, and with setQueries identical queryDocuments pages too. Nothing is kept once the request
+ completes, repeated reads are left to the DocumentCache and QueryCache.
+
+ A read never joins a request that was sent before a create, replace, delete or stored procedure execution issued through the same DocumentDB on
+ the same collection completed, so a thread still reads its own writes. The shared result is handed to every caller so it should be treated as read
+ only. Cancelling a coalesced future does not cancel the shared request.
+
+ for example,
+
+ db.setReadCoalescer(new ReadCoalescer().setQueries(true));
+ JsonObject document = db.getDocument(dbId, collId, docId, JsonObject.class);
+ System.out.println(db.getReadCoalescer());
+
+ */
+public class ReadCoalescer {
+
+	static final class Key {
+		final String path;
+		final Object responseType;
+		private final int hash;
+
+		Key(String path, Object responseType) {
+			this.path = path;
+			this.responseType = responseType;
+			this.hash = 31 * path.hashCode() + Objects.hashCode(responseType);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && path.equals(other.path) && Objects.equals(responseType, other.responseType);
+		}
+	}
+
+	static final class Flight<R> {
+		//the collection, or database, the read addresses
+		final String scope;
+		final CompletableFuture<R> result = new CompletableFuture<R>();
+
+		Flight(String scope) {
+			this.scope = scope;
+		}
+	}
+
+	private final ConcurrentHashMap<Object, Flight<?>> flights = new ConcurrentHashMap<Object, Flight<?>>();
+	private volatile boolean queries;
+	private final LongAdder reads = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	//identical queryDocuments pages, same collection, query, parameters, page size, continuation and response type, are coalesced as well
+	public ReadCoalescer setQueries(boolean queries) {
+		this.queries = queries;
+		return this;
+	}
+
+	public boolean isQueries() {
+		return queries;
+	}
+
+	Key key(String path, Object responseType) {
+		return new Key(path, responseType);
+	}
+
+	//the key includes the response type, so the flight found under it produces the caller's type
+	@SuppressWarnings("unchecked")
+	private <R> Flight<R> putIfAbsent(Object key, Flight<R> flight) {
+		return (Flight<R>) flights.putIfAbsent(key, flight);
+	}
+
+	//the read runs on the calling thread unless an identical one is already in flight
+	<R> R read(Object key, String path, Supplier<R> read) {
+		Flight<R> flight = new Flight<R>(SessionTokenStore.scope(path));
+		Flight<R> current = putIfAbsent(key, flight);
+		if (current != null) {
+			coalesced.increment();
+			return DocumentDB.join(current.result);
+		}
+		reads.increment();
+		R r;
+		try {
+			r = read.get();
+		} catch (RuntimeException | Error e) {
+			flights.remove(key, flight);
+			flight.result.completeExceptionally(e);
+			throw e;
+		}
+		flights.remove(key, flight);
+		flight.result.complete(r);
+		return r;
+	}
+
+	<R> CompletableFuture<R> readAsync(Object key, String path, Supplier<CompletableFuture<R>> read) {
+		Flight<R> flight = new Flight<R>(SessionTokenStore.scope(path));
+		Flight<R> current = putIfAbsent(key, flight);
+		if (current != null) {
+			coalesced.increment();
+			return current.result.thenApply(r -> r);
+		}
+		reads.increment();
+		CompletableFuture<R> result;
+		try {
+			result = read.get();
+		} catch (RuntimeException e) {
+			result = DocumentDB.failed(e);
+		}
+		result.whenComplete((r, t) -> {
+			flights.remove(key, flight);
+			if (t != null) {
+				flight.result.completeExceptionally(t);
+			} else {
+				flight.result.complete(r);
+			}
+		});
+		//a copy so cancelling it leaves the shared request to the other callers
+		return flight.result.thenApply(r -> r);
+	}
+
+	//reads of the collection, or of every collection of the database, addressed by the path that are in flight are no longer joined
+	void invalidate(String path) {
+		if (flights.isEmpty()) {
+			return;
+		}
+		String scope = SessionTokenStore.scope(path);
+		String prefix = scope.concat("/");
+		for (Map.Entry<Object, Flight<?>> entry : flights.entrySet()) {
+			Flight<?> flight = entry.getValue();
+			if ((flight.scope.equals(scope) || flight.scope.startsWith(prefix)) && flights.remove(entry.getKey(), flight)) {
+				invalidations.increment();
+			}
+		}
+	}
+
+	//requests sent
+	public long getReads() {
+		return reads.sum();
+	}
+
+	//reads that shared a request already in flight instead of sending their own
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	//in flight requests no longer joined because their collection was written to
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	public int getInFlight() {
+		return flights.size();
+	}
+
+	public double getCoalesceRate() {
+		long c = coalesced.sum();
+		long total = c + reads.sum();
+		return total > 0 ? (double) c / total : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("reads: %d coalesced: %d (%.2f%%) invalidations: %d in flight: %d", getReads(), getCoalesced(), getCoalesceRate() * 100, getInvalidations(), getInFlight());
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ Endpoints DocumentDB reads are sent to, ordered by preference with the nearest region first, while creates, replaces, deletes and stored procedure
+ executions stay on the write endpoint the DocumentDB was created with. A read that fails without a response, i.e. the connection is refused or
+ reset, moves on to the next endpoint.
+
+ With a hedge delay a read that has not been answered within the delay is sent a second time, to the next endpoint or again to the only one, and
+ whichever answers first is used while the other request is cancelled, so a slow replica costs at most the delay. Reads that return an unread
+ Response, i.e. queryStream pages or attachment media, are not hedged. The counters are shared by every DocumentDB using the endpoints and show
+ how often reads were hedged and how often the hedge won.
+
+ for example,
+
+ DocumentDB db = new DocumentDB("account", masterKey, ConsistencyLevel.Session, transport);
+ db.setReadEndpoints(new ReadEndpoints(URI.create("https://account-westus.documents.azure.com"), URI.create("https://account-eastus.documents.azure.com")).setHedgeDelay(20));
+ ...
+ System.out.println(db.getReadEndpoints());
+
+ */
+public class ReadEndpoints {
+
+	final List<URI> endpoints;
+	volatile long hedgeDelay = -1;
+
+	final LongAdder reads = new LongAdder();
+	final LongAdder hedged = new LongAdder();
+	final LongAdder hedgeWins = new LongAdder();
+	final LongAdder failovers = new LongAdder();
+
+	public ReadEndpoints(URI... endpoints) {
+		this(Arrays.asList(endpoints));
+	}
+
+	public ReadEndpoints(List<URI> endpoints) {
+		if (endpoints == null || endpoints.isEmpty()) {
+			throw new IllegalArgumentException("at least one read endpoint is required");
+		}
+		this.endpoints = Collections.unmodifiableList(new ArrayList<URI>(endpoints));
+	}
+
+	public List<URI> getEndpoints() {
+		return endpoints;
+	}
+
+	//milliseconds before an unanswered read is sent again, negative disables hedging
+	public ReadEndpoints setHedgeDelay(long hedgeDelay) {
+		this.hedgeDelay = hedgeDelay;
+		return this;
+	}
+
+	public long getHedgeDelay() {
+		return hedgeDelay;
+	}
+
+	public long getReads() {
+		return reads.sum();
+	}
+
+	//reads sent a second time because the first request was not answered within the hedge delay
+	public long getHedged() {
+		return hedged.sum();
+	}
+
+	//hedged reads answered by the second request
+	public long getHedgeWins() {
+		return hedgeWins.sum();
+	}
+
+	//reads moved on to the next endpoint after a failure without a response
+	public long getFailovers() {
+		return failovers.sum();
+	}
+
+	public double getHedgeRate() {
+		long reads = getReads();
+		return reads > 0 ? getHedged() / (double) reads : 0;
+	}
+
+	public double getHedgeWinRate() {
+		long hedged = getHedged();
+		return hedged > 0 ? getHedgeWins() / (double) hedged : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("read endpoints: %s hedge delay: %dms reads: %d hedged: %d (%.2f%%) hedge wins: %d (%.2f%%) failovers: %d", endpoints, hedgeDelay, getReads(), getHedged(), getHedgeRate() * 100,
+				getHedgeWins(), getHedgeWinRate() * 100, getFailovers());
+	}
+
+}
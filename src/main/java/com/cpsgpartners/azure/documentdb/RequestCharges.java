@@ -0,0 +1,150 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.ws.rs.core.Response;
+
+import com.cpsgpartners.azure.documentdb.DocumentDB.OperationListener;
+import com.cpsgpartners.azure.documentdb.DocumentDB.OperationType;
+
+/**
+ Aggregates the x-ms-request-charge request units (RU) DocumentDB reports on every response, per collection, resource type and operation type.
+
+ The counters are striped adders so recording a charge from many request threads does not contend. One instance can be registered with several
+ DocumentDB instances to aggregate across accounts.
+
+ for example,
+
+ RequestCharges charges = new RequestCharges();
+ db.addOperationListener(charges);
+ ...
+ for (RequestCharges.Charge charge : charges.getCharges()) {
+ 	System.out.println(charge);
+ }
+
+ */
+public class RequestCharges implements OperationListener {
+
+	public static final String REQUEST_CHARGE_HEADER = "x-ms-request-charge";
+
+	public static class Charge {
+		private final String collection;
+		private final String resourceType;
+		private final OperationType operationType;
+		private final LongAdder count = new LongAdder();
+		private final DoubleAdder total = new DoubleAdder();
+
+		Charge(String collection, String resourceType, OperationType operationType) {
+			this.collection = collection;
+			this.resourceType = resourceType;
+			this.operationType = operationType;
+		}
+
+		//collection link, i.e. dbs/{db}/colls/{coll}, or the database link for database level operations
+		public String getCollection() {
+			return collection;
+		}
+
+		public String getResourceType() {
+			return resourceType;
+		}
+
+		public OperationType getOperationType() {
+			return operationType;
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public double getTotal() {
+			return total.sum();
+		}
+
+		public double getAverage() {
+			long c = count.sum();
+			return c > 0 ? total.sum() / c : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %s %s count: %d total: %.2f RU average: %.2f RU", collection, resourceType, operationType, getCount(), getTotal(), getAverage());
+		}
+
+	}
+
+	private final ConcurrentHashMap<Key, Charge> charges = new ConcurrentHashMap<Key, Charge>();
+	private final DoubleAdder total = new DoubleAdder();
+
+	@Override
+	public void handle(OperationType operationType, String resourceType, String path, Response response) {
+		String header = response.getHeaderString(REQUEST_CHARGE_HEADER);
+		if (header == null || header.isEmpty()) {
+			return;
+		}
+		double charge;
+		try {
+			charge = Double.parseDouble(header);
+		} catch (NumberFormatException e) {
+			return;
+		}
+		Key key = new Key(SessionTokenStore.scope(path), resourceType, operationType);
+		Charge c = charges.get(key);
+		if (c == null) {
+			c = charges.computeIfAbsent(key, k -> new Charge(k.collection, k.resourceType, k.operationType));
+		}
+		c.count.increment();
+		c.total.add(charge);
+		total.add(charge);
+	}
+
+	public double getTotal() {
+		return total.sum();
+	}
+
+	//sorted by total request units, highest first
+	public List<Charge> getCharges() {
+		List<Charge> result = new ArrayList<Charge>(charges.values());
+		result.sort(Comparator.comparingDouble(Charge::getTotal).reversed());
+		return result;
+	}
+
+	public void reset() {
+		charges.clear();
+		total.reset();
+	}
+
+	private static class Key {
+		final String collection;
+		final String resourceType;
+		final OperationType operationType;
+		final int hash;
+
+		Key(String collection, String resourceType, OperationType operationType) {
+			this.collection = collection;
+			this.resourceType = resourceType;
+			this.operationType = operationType;
+			this.hash = (collection.hashCode() * 31 + resourceType.hashCode()) * 31 + operationType.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return operationType == other.operationType && collection.equals(other.collection) && resourceType.equals(other.resourceType);
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.net.URI;
+
+import javax.ws.rs.client.WebTarget;
+
+//WebTarget, request path and signing fields of one DocumentDB resource or feed, computed once so issuing a request neither formats the path nor
+//builds a URI from the target.
+final class ResourceLink {
+
+	final WebTarget target;
+	final String path;
+	final String resourceType;
+	final String resourceId;
+	//only the host is used, to lease a connection
+	final URI endpoint;
+
+	ResourceLink(WebTarget target, String path, String resourceType, String resourceId, URI endpoint) {
+		this.target = target;
+		this.path = path;
+		this.resourceType = resourceType;
+		this.resourceId = resourceId;
+		this.endpoint = endpoint;
+	}
+
+	ResourceLink(WebTarget target, String resourceType, String resourceId) {
+		this(target, target.getUri(), resourceType, resourceId);
+	}
+
+	private ResourceLink(WebTarget target, URI uri, String resourceType, String resourceId) {
+		this(target, uri.getPath(), resourceType, resourceId, uri);
+	}
+
+	//relative path appended to this link with a single WebTarget copy, i.e. "{docId}/attachments/" of the docs feed
+	ResourceLink resolve(String relativePath, String resourceType, String resourceId) {
+		return new ResourceLink(target.path(relativePath), path.concat(relativePath), resourceType, resourceId, endpoint);
+	}
+
+	//member of this feed, i.e. docs/{docId}/ of the docs feed
+	ResourceLink child(String id) {
+		return resolve(id.concat("/"), resourceType, id);
+	}
+
+	//links of one collection, its feeds are reused by every request to the collection
+	static final class Collection {
+		final ResourceLink collection;
+		final ResourceLink docs;
+		final ResourceLink sprocs;
+		final ResourceLink triggers;
+		final ResourceLink udfs;
+
+		Collection(WebTarget endpoint, URI endpointUri, String dbResourceId, String collectionResId) {
+			String path = "/dbs/" + dbResourceId + "/colls/" + collectionResId + "/";
+			this.collection = new ResourceLink(endpoint.path(path), path, "colls", collectionResId, endpointUri);
+			this.docs = collection.resolve("docs/", "docs", collectionResId);
+			this.sprocs = collection.resolve("sprocs/", "sprocs", collectionResId);
+			this.triggers = collection.resolve("triggers/", "triggers", collectionResId);
+			this.udfs = collection.resolve("udfs/", "udfs", collectionResId);
+		}
+
+		ResourceLink document(String documentResId) {
+			return docs.child(documentResId);
+		}
+
+		ResourceLink attachments(String documentResId) {
+			return docs.resolve(documentResId + "/attachments/", "attachments", documentResId);
+		}
+
+		ResourceLink attachment(String documentResId, String attachmentResId) {
+			return docs.resolve(documentResId + "/attachments/" + attachmentResId + "/", "attachments", attachmentResId);
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.Response;
+
+/**
+ Retry policy for DocumentDB 429 "request rate too large" responses.
+
+ The delay requested by the service in the x-ms-retry-after-ms header is honored, falling back to exponential backoff when the header is missing, and
+ a random jitter is added so throttled clients do not retry in lock step. A call gives up, and the 429 is surfaced as a WebApplicationException, once
+ either the retry count or the total wait for that call would be exceeded. The counters are shared by every call using the policy.
+
+ */
+public class RetryPolicy {
+
+	public static final int TOO_MANY_REQUESTS = 429;
+	public static final String RETRY_AFTER_HEADER = "x-ms-retry-after-ms";
+
+	//asynchronous retries are scheduled rather than blocking a client callback thread
+	static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "documentdb-retry");
+		t.setDaemon(true);
+		return t;
+	});
+
+	int maxRetries = 9;
+	long maxWait = 30000;
+	long baseDelay = 100;
+	double jitter = 0.2;
+
+	private final AtomicLong throttled = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong exhausted = new AtomicLong();
+	private final AtomicLong waitedMillis = new AtomicLong();
+
+	public RetryPolicy setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+		return this;
+	}
+
+	//maximum total milliseconds a single call may spend waiting between retries
+	public RetryPolicy setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+		return this;
+	}
+
+	//backoff base in milliseconds when the response has no x-ms-retry-after-ms header
+	public RetryPolicy setBaseDelay(long baseDelay) {
+		this.baseDelay = baseDelay;
+		return this;
+	}
+
+	//fraction of the delay added at random, 0.2 waits between 100% and 120% of the delay
+	public RetryPolicy setJitter(double jitter) {
+		this.jitter = jitter;
+		return this;
+	}
+
+	//milliseconds to wait before retrying the response, or -1 if the response should be returned to the caller
+	public long retryDelay(Response response, int attempt, long waited) {
+		if (response.getStatus() != TOO_MANY_REQUESTS) {
+			return -1;
+		}
+		throttled.incrementAndGet();
+		long delay = -1;
+		String retryAfter = response.getHeaderString(RETRY_AFTER_HEADER);
+		if (retryAfter != null) {
+			try {
+				delay = Long.parseLong(retryAfter.trim());
+			} catch (NumberFormatException e) {
+			}
+		}
+		if (delay < 0) {
+			delay = baseDelay << Math.min(attempt, 16);
+		}
+		if (jitter > 0) {
+			delay += (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+		}
+		if (attempt >= maxRetries || waited + delay > maxWait) {
+			exhausted.incrementAndGet();
+			return -1;
+		}
+		retried.incrementAndGet();
+		waitedMillis.addAndGet(delay);
+		return delay;
+	}
+
+	//429 responses received
+	public long getThrottled() {
+		return throttled.get();
+	}
+
+	//requests resent after a 429
+	public long getRetried() {
+		return retried.get();
+	}
+
+	//calls that failed with a 429 after running out of retries or wait time
+	public long getExhausted() {
+		return exhausted.get();
+	}
+
+	public long getWaitedMillis() {
+		return waitedMillis.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("throttled: %d retried: %d exhausted: %d waited: %dms", getThrottled(), getRetried(), getExhausted(), getWaitedMillis());
+	}
+
+}
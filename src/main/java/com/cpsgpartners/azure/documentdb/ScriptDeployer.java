@@ -0,0 +1,241 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import javax.ws.rs.WebApplicationException;
+
+import com.cpsgpartners.azure.documentdb.DocumentDB.TriggerOperation;
+import com.cpsgpartners.azure.documentdb.DocumentDB.TriggerType;
+
+/**
+ Idempotent deployment of stored procedures, triggers and user defined functions to one or more collections, typically at service start up.
+
+ Each collection's existing scripts are listed, the three feeds in parallel and every page of each, and a script is only created when its id is
+ missing or replaced when the SHA-256 of the deployed body differs from the SHA-256 of the given body, or for a trigger when its type or operation
+ differs, so a restart with unchanged scripts costs one read per script type and collection. All collections are deployed concurrently. Existing
+ scripts that are not part of the deployment are left untouched.
+
+ for example,
+
+ ScriptDeployer deployer = new ScriptDeployer(db).addStoredProcedure("bulkImport", bulkImportJs).addUDF("tax", taxJs);
+ deployer.addTrigger("stamp", stampJs, TriggerType.Pre, TriggerOperation.Create);
+ ScriptDeployer.Report report = deployer.deploy(dbId, collId1, collId2);
+ System.out.println(report);
+
+ */
+public class ScriptDeployer {
+
+	public static enum ScriptType {
+		StoredProcedure("sprocs", "StoredProcedures"), Trigger("triggers", "Triggers"), UDF("udfs", "UserDefinedFunctions");
+
+		final String resourceType;
+		final String feed;
+
+		ScriptType(String resourceType, String feed) {
+			this.resourceType = resourceType;
+			this.feed = feed;
+		}
+	}
+
+	static class Script {
+		final ScriptType type;
+		final String id;
+		final String body;
+		final byte[] hash;
+		//triggers only
+		final TriggerType triggerType;
+		final TriggerOperation triggerOperation;
+
+		Script(ScriptType type, String id, String body, TriggerType triggerType, TriggerOperation triggerOperation) {
+			this.type = type;
+			this.id = id;
+			this.body = body;
+			this.hash = hash(body);
+			this.triggerType = triggerType;
+			this.triggerOperation = triggerOperation;
+		}
+
+		boolean changed(JsonObject deployed) {
+			if (!MessageDigest.isEqual(hash, hash(deployed.getString("body", "")))) {
+				return true;
+			}
+			return type == ScriptType.Trigger && !(triggerType.name().equals(deployed.getString("triggerType", null)) && triggerOperation.name().equals(deployed.getString("triggerOperation", null)));
+		}
+	}
+
+	public static class Report {
+		//collectionResId/resourceType/id of each script
+		private final List<String> created = Collections.synchronizedList(new ArrayList<String>());
+		private final List<String> replaced = Collections.synchronizedList(new ArrayList<String>());
+		private final List<String> unchanged = Collections.synchronizedList(new ArrayList<String>());
+
+		public List<String> getCreated() {
+			return created;
+		}
+
+		public List<String> getReplaced() {
+			return replaced;
+		}
+
+		public List<String> getUnchanged() {
+			return unchanged;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("created: %d replaced: %d unchanged: %d", created.size(), replaced.size(), unchanged.size());
+		}
+	}
+
+	private final DocumentDB db;
+	private final List<Script> scripts = new ArrayList<Script>();
+
+	public ScriptDeployer(DocumentDB db) {
+		this.db = db;
+	}
+
+	public ScriptDeployer addStoredProcedure(String id, String body) {
+		return add(ScriptType.StoredProcedure, id, body);
+	}
+
+	public ScriptDeployer addTrigger(String id, String body, TriggerType triggerType, TriggerOperation triggerOperation) {
+		if (triggerType == null || triggerOperation == null) {
+			throw new IllegalArgumentException("a trigger needs a type and an operation");
+		}
+		scripts.add(new Script(ScriptType.Trigger, id, body, triggerType, triggerOperation));
+		return this;
+	}
+
+	public ScriptDeployer addUDF(String id, String body) {
+		return add(ScriptType.UDF, id, body);
+	}
+
+	//stored procedures and user defined functions, triggers are added with addTrigger
+	public ScriptDeployer add(ScriptType type, String id, String body) {
+		if (type == ScriptType.Trigger) {
+			throw new IllegalArgumentException("a trigger needs a type and an operation, use addTrigger");
+		}
+		scripts.add(new Script(type, id, body, null, null));
+		return this;
+	}
+
+	public Report deploy(String dbResourceId, String... collectionResIds) throws WebApplicationException {
+		return QueryIterator.await(deployAsync(dbResourceId, collectionResIds));
+	}
+
+	public CompletableFuture<Report> deployAsync(String dbResourceId, String... collectionResIds) {
+		Report report = new Report();
+		CompletableFuture<?>[] deployments = new CompletableFuture<?>[collectionResIds.length];
+		for (int i = 0; i < collectionResIds.length; i++) {
+			deployments[i] = deploy(dbResourceId, collectionResIds[i], report);
+		}
+		return CompletableFuture.allOf(deployments).thenApply(v -> report);
+	}
+
+	private CompletableFuture<Void> deploy(String dbResourceId, String collectionResId, Report report) {
+		ResourceLink.Collection links = db.collection(dbResourceId, collectionResId);
+		CompletableFuture<List<JsonObject>> sprocs = contains(ScriptType.StoredProcedure) ? db.readFeedAsync(links.sprocs) : null;
+		CompletableFuture<List<JsonObject>> triggers = contains(ScriptType.Trigger) ? db.readFeedAsync(links.triggers) : null;
+		CompletableFuture<List<JsonObject>> udfs = contains(ScriptType.UDF) ? db.readFeedAsync(links.udfs) : null;
+		List<CompletableFuture<?>> feeds = new ArrayList<CompletableFuture<?>>();
+		for (CompletableFuture<List<JsonObject>> feed : Arrays.asList(sprocs, triggers, udfs)) {
+			if (feed != null) {
+				feeds.add(feed);
+			}
+		}
+		return allOf(feeds).thenCompose(v -> {
+			Map<ScriptType, Map<String, JsonObject>> existing = new HashMap<ScriptType, Map<String, JsonObject>>();
+			existing.put(ScriptType.StoredProcedure, byId(sprocs, ScriptType.StoredProcedure));
+			existing.put(ScriptType.Trigger, byId(triggers, ScriptType.Trigger));
+			existing.put(ScriptType.UDF, byId(udfs, ScriptType.UDF));
+			List<CompletableFuture<?>> changes = new ArrayList<CompletableFuture<?>>();
+			for (Script script : scripts) {
+				JsonObject deployed = existing.get(script.type).get(script.id);
+				String name = collectionResId + "/" + script.type.resourceType + "/" + script.id;
+				if (deployed == null) {
+					changes.add(create(dbResourceId, collectionResId, script));
+					report.created.add(name);
+				} else if (script.changed(deployed)) {
+					changes.add(replace(dbResourceId, collectionResId, deployed.getString("_rid"), script));
+					report.replaced.add(name);
+				} else {
+					report.unchanged.add(name);
+				}
+			}
+			return allOf(changes);
+		});
+	}
+
+	private static CompletableFuture<Void> allOf(List<CompletableFuture<?>> futures) {
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+	}
+
+	private boolean contains(ScriptType type) {
+		for (Script script : scripts) {
+			if (script.type == type) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private CompletableFuture<JsonObject> create(String dbResourceId, String collectionResId, Script script) {
+		switch (script.type) {
+		case StoredProcedure:
+			return db.createStoredProcedureAsync(dbResourceId, collectionResId, script.id, script.body);
+		case Trigger:
+			return db.createTriggerAsync(dbResourceId, collectionResId, script.id, script.body, script.triggerType, script.triggerOperation);
+		default:
+			return db.createUDFAsync(dbResourceId, collectionResId, script.id, script.body);
+		}
+	}
+
+	private CompletableFuture<JsonObject> replace(String dbResourceId, String collectionResId, String resourceId, Script script) {
+		switch (script.type) {
+		case StoredProcedure:
+			return db.replaceStoredProcedureAsync(dbResourceId, collectionResId, resourceId, script.id, script.body);
+		case Trigger:
+			return db.replaceTriggerAsync(dbResourceId, collectionResId, resourceId, script.id, script.body, script.triggerType, script.triggerOperation);
+		default:
+			return db.replaceUDFAsync(dbResourceId, collectionResId, resourceId, script.id, script.body);
+		}
+	}
+
+	private static Map<String, JsonObject> byId(CompletableFuture<List<JsonObject>> feed, ScriptType type) {
+		Map<String, JsonObject> scripts = new HashMap<String, JsonObject>();
+		if (feed == null) {
+			return scripts;
+		}
+		for (JsonObject page : feed.join()) {
+			JsonArray resources = page.getJsonArray(type.feed);
+			if (resources != null) {
+				for (JsonValue value : resources) {
+					JsonObject script = (JsonObject) value;
+					scripts.put(script.getString("id"), script);
+				}
+			}
+		}
+		return scripts;
+	}
+
+	static byte[] hash(String body) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new WebApplicationException(e);
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+package com.cpsgpartners.azure.documentdb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ Thread safe store of the DocumentDB x-ms-session-token values used for Session consistency.
+
+ Tokens are scoped to the collection, so a write to one document gives read-your-writes to reads and queries of any resource in the same collection,
+ rather than only to the exact request path. Database level requests are scoped to the database. The store is split into independently locked,
+ access ordered segments which each evict their least recently used collection once full, bounding memory regardless of how many collections are
+ touched. When responses for the same collection race, the token with the highest LSN is kept.
+
+ */
+public class SessionTokenStore {
+
+	public static final int DEFAULT_MAX_COLLECTIONS = 4096;
+	public static final int DEFAULT_CONCURRENCY = 16;
+
+	private final Segment[] segments;
+	private final int mask;
+
+	public SessionTokenStore() {
+		this(DEFAULT_MAX_COLLECTIONS, DEFAULT_CONCURRENCY);
+	}
+
+	public SessionTokenStore(int maxCollections, int concurrency) {
+		int size = 1;
+		while (size < concurrency) {
+			size <<= 1;
+		}
+		int perSegment = Math.max(1, (maxCollections + size - 1) / size);
+		segments = new Segment[size];
+		for (int i = 0; i < size; i++) {
+			segments[i] = new Segment(perSegment);
+		}
+		mask = size - 1;
+	}
+
+	public String get(String path) {
+		String key = scope(path);
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.get(key);
+		}
+	}
+
+	public void update(String path, String token) {
+		if (token == null || token.isEmpty()) {
+			return;
+		}
+		String key = scope(path);
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			String current = segment.get(key);
+			if (current == null || newer(token, current)) {
+				segment.put(key, token);
+			}
+		}
+	}
+
+	public void remove(String path) {
+		String key = scope(path);
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.remove(key);
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	private Segment segmentFor(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & mask];
+	}
+
+	//reduces a request path such as /dbs/db/colls/coll/docs/doc/ to dbs/db/colls/coll
+	static String scope(String path) {
+		int start = 0;
+		int end = path.length();
+		while (start < end && path.charAt(start) == '/') {
+			start++;
+		}
+		while (end > start && path.charAt(end - 1) == '/') {
+			end--;
+		}
+		//keep at most the first four segments, dbs/{db}/colls/{coll}
+		int segments = 0;
+		for (int i = start; i < end; i++) {
+			if (path.charAt(i) == '/' && ++segments == 4) {
+				end = i;
+				break;
+			}
+		}
+		if (segments < 3 && end > start && segments % 2 == 0) {
+			//resource type without id, i.e. /dbs/{db}/colls/ scopes to the database
+			int slash = path.lastIndexOf('/', end - 1);
+			if (slash >= start) {
+				end = slash;
+			}
+		}
+		return path.substring(start, end);
+	}
+
+	//tokens are either a bare LSN or {partition}:{LSN}, anything else is treated as newer
+	static boolean newer(String token, String current) {
+		long tokenLSN = lsn(token);
+		long currentLSN = lsn(current);
+		if (tokenLSN < 0 || currentLSN < 0) {
+			return true;
+		}
+		return tokenLSN >= currentLSN;
+	}
+
+	static long lsn(String token) {
+		if (token.indexOf(',') >= 0) {
+			return -1;
+		}
+		int colon = token.lastIndexOf(':');
+		try {
+			return Long.parseLong(colon >= 0 ? token.substring(colon + 1) : token);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static class Segment extends LinkedHashMap<String, String> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int max;
+
+		Segment(int max) {
+			super(Math.min(max, 64), 0.75f, true);
+			this.max = max;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > max;
+		}
+	}
+
+}
@@ -1,15 +1,17 @@
 package com.cpsgpartners.azure.search;
 
+import java.net.URI;
+
 import javax.json.JsonObject;
 import javax.ws.rs.WebApplicationException;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation.Builder;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import com.cpsgpartners.azure.common.Transport;
+
 //import org.glassfish.jersey.filter.LoggingFilter;
 
 public class Search {
@@ -17,14 +19,27 @@ public class Search {
 	public static final String AZURE_SEARCH_VERSION = "2015-02-28";
 
 	private final String masterKey;
-	private final Client client;
+	private final Transport transport;
 	private final WebTarget endpoint;
 
 	public Search(String id, String masterKey) {
+		this(id, masterKey, new Transport());
+	}
+
+	public Search(String id, String masterKey, Transport transport) {
+		this(URI.create(String.format(AZURE_DOCUMENTDB_ENDPOINT, id)), masterKey, transport);
+	}
+
+	//service endpoint other than https://{id}.search.windows.net, i.e. a local stand-in
+	public Search(URI endpointUri, String masterKey, Transport transport) {
 		this.masterKey = masterKey;
-		client = ClientBuilder.newClient();
-		//client.register(new LoggingFilter());
-		endpoint = client.target(String.format(AZURE_DOCUMENTDB_ENDPOINT, id));
+		this.transport = transport;
+		//endpoint.register(new LoggingFilter());
+		endpoint = transport.target(endpointUri.toString());
+	}
+
+	public Transport getTransport() {
+		return transport;
 	}
 
 	public JsonObject createIndex(JsonObject index) throws WebApplicationException {
@@ -150,6 +165,11 @@ public class Search {
 	}
 
 	public JsonObject searchDocuments(String indexName, SearchQuery query) throws WebApplicationException {
+		return operation(searchTarget(indexName, query), "GET", Response.Status.OK, null);
+	}
+
+	//the request URL of searchDocuments
+	public WebTarget searchTarget(String indexName, SearchQuery query) {
 		WebTarget lookup = endpoint.path("indexes").path(indexName).path("docs");
 		if (query.search != null) {
 			lookup = lookup.queryParam("search", query.search);
@@ -192,9 +212,7 @@ public class Search {
 			lookup = lookup.queryParam("scoringParameter", query.scoringParameter);
 		}
 
-		lookup = lookup.queryParam("api-version", AZURE_SEARCH_VERSION);
-
-		return operation(lookup, "GET", Response.Status.OK, null);
+		return lookup.queryParam("api-version", AZURE_SEARCH_VERSION);
 	}
 
 	public static class SuggestQuery {
@@ -310,9 +328,18 @@ public class Search {
 		Builder builder = target.request();
 		builder.header("api-key", masterKey);
 
-		Response response = builder.method(method, body);
+		Transport.Lease lease = transport.lease(target.getUri());
+		Response response;
+		try {
+			response = lease.bind(builder).method(method, body);
+		} catch (RuntimeException e) {
+			lease.close();
+			throw e;
+		}
 
 		if (expectedStatus != null && response.getStatusInfo().getStatusCode() != expectedStatus.getStatusCode()) {
+			//the error body is read so the connection is released
+			response.bufferEntity();
 			throw new WebApplicationException(response);
 		}
 
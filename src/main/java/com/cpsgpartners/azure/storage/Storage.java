@@ -5,25 +5,18 @@ import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLDecoder;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import javax.ws.rs.WebApplicationException;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation.Builder;
 import javax.ws.rs.client.WebTarget;
@@ -35,6 +28,10 @@ import javax.ws.rs.core.UriBuilder;
 
 import org.w3c.dom.Document;
 
+import com.cpsgpartners.azure.common.Compression;
+import com.cpsgpartners.azure.common.SharedKeySigner;
+import com.cpsgpartners.azure.common.Transport;
+
 //import org.glassfish.jersey.filter.LoggingFilter;
 
 //https://github.com/Azure/azure-storage-java
@@ -45,19 +42,48 @@ public class Storage {
 	public static final DateTimeFormatter ISO8061_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 	public static final DateTimeFormatter ISO8061_DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssX");
 	//DateTimeFormatter.RFC_1123_DATE_TIME does not pad the date as required by Azure
-	public static final DateTimeFormatter RFC1123_DATE_TIME = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss z");
+	public static final DateTimeFormatter RFC1123_DATE_TIME = SharedKeySigner.RFC1123_DATE_TIME;
 
 	private final String id;
-	private final String masterKey;
-	private final Client client;
+	private final SharedKeySigner signer;
+	private final String authorizationPrefix;
+	private final Transport transport;
 	private final WebTarget endpoint;
+	private volatile boolean compressUploads;
 
 	public Storage(String id, String masterKey) {
+		this(id, masterKey, new Transport());//.property("jersey.config.client.suppressHttpComplianceValidation", "true");//otherwise container put without body or delete with body causes error;
+	}
+
+	public Storage(String id, String masterKey, Transport transport) {
+		this(URI.create(String.format(AZURE_STORAGE_ENDPOINT, id)), id, masterKey, transport);
+	}
+
+	//blob endpoint other than https://{id}.blob.core.windows.net, i.e. the emulator or a local stand-in. The id is still signed as the account name
+	public Storage(URI endpointUri, String id, String masterKey, Transport transport) {
 		this.id = id;
-		this.masterKey = masterKey;
-		client = ClientBuilder.newClient();//.property("jersey.config.client.suppressHttpComplianceValidation", "true");//otherwise container put without body or delete with body causes error;
-		//client.register(new LoggingFilter());
-		endpoint = client.target(String.format(AZURE_STORAGE_ENDPOINT, id));
+		this.signer = new SharedKeySigner(masterKey);
+		this.authorizationPrefix = "SharedKeyLite " + id + ":";
+		this.transport = transport;
+		//endpoint.register(new LoggingFilter());
+		endpoint = transport.target(endpointUri.toString());
+	}
+
+	public Transport getTransport() {
+		return transport;
+	}
+
+	//blobs are uploaded gzip encoded and stored with Content-Encoding gzip, requires compression to be enabled on the Transport
+	public Storage setCompressUploads(boolean compressUploads) {
+		if (compressUploads && transport.getCompression() == null) {
+			throw new IllegalStateException("compression is not enabled on the Transport");
+		}
+		this.compressUploads = compressUploads;
+		return this;
+	}
+
+	public boolean isCompressUploads() {
+		return compressUploads;
 	}
 
 	//leases currently not supported
@@ -115,11 +141,15 @@ public class Storage {
 		MultivaluedMap<String, Object> headers = new MultivaluedHashMap<String, Object>();
 		headers.add("x-ms-blob-content-disposition", String.format("attachment; filename=\"%s\"", blob.fileName));
 		headers.add("x-ms-blob-type", "BlockBlob");
-		operation(endpoint.path(containerName).path(blobName), "PUT", headers, Response.Status.CREATED, Entity.entity(blob.content, blob.contentType), null);
+		boolean gzip = compressUploads;
+		if (gzip) {
+			headers.add("x-ms-blob-content-encoding", Compression.GZIP);
+		}
+		operation(endpoint.path(containerName).path(blobName), "PUT", headers, Response.Status.CREATED, Entity.entity(blob.content, blob.contentType), null, gzip);
 	}
 
 	public void deleteBlob(String containerName, String blobName) throws WebApplicationException {
-		operation(endpoint.path(containerName).path(blobName), "DELETE", null, Response.Status.ACCEPTED, null, Response.class);
+		operation(endpoint.path(containerName).path(blobName), "DELETE", null, Response.Status.ACCEPTED, null, null);
 	}
 
 	//TODO possibly specify last modified header
@@ -161,7 +191,7 @@ public class Storage {
 		request.queryParam("se", expiryTimeStr);
 		request.queryParam("sp", permissions);
 
-		StringBuilder stringToSign = new StringBuilder();
+		StringBuilder stringToSign = signer.stringToSign();
 		stringToSign.append(permissions).append("\n");
 		stringToSign.append(startTimeStr != null ? startTimeStr : "").append("\n");
 		stringToSign.append(expiryTimeStr).append("\n");
@@ -174,32 +204,40 @@ public class Storage {
 		stringToSign.append("\n"); //No Content Language
 		//		/stringToSign.append("\n"); //No Content Type
 
-		try {
-			Mac sha256_HMAC = Mac.getInstance("HMACSHA256");
-			SecretKeySpec secret_key = new SecretKeySpec(Base64.getDecoder().decode(masterKey), "HmacSHA256");
-			sha256_HMAC.init(secret_key);
-			String signature = Base64.getEncoder().encodeToString(sha256_HMAC.doFinal(stringToSign.toString().getBytes()));
-			request.queryParam("sig", signature);
-		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
-			throw new WebApplicationException(e);
-		}
+		request.queryParam("sig", signer.sign(stringToSign));
 
 		return request.build().toString();
 	}
 
 	public <T> T operation(WebTarget target, String method, MultivaluedMap<String, Object> headers, Response.Status expectedStatus, Entity<?> requestContent, Class<T> responseType) throws WebApplicationException {
+		return operation(target, method, headers, expectedStatus, requestContent, responseType, false);
+	}
+
+	<T> T operation(WebTarget target, String method, MultivaluedMap<String, Object> headers, Response.Status expectedStatus, Entity<?> requestContent, Class<T> responseType, boolean gzip) throws WebApplicationException {
 		Builder builder = target.request();
+		if (gzip) {
+			builder.property(Compression.GZIP_PROPERTY, Boolean.TRUE);
+		}
 		if (headers == null) {
 			headers = new MultivaluedHashMap<String, Object>();
 		}
 
 		setSharedKeyLiteHeader(target.getUri(), builder, method, requestContent != null ? requestContent.getMediaType().toString() : null, headers);
 		builder.accept(MediaType.APPLICATION_XML_TYPE);
-		Response response = builder.method(method, requestContent);
+		Transport.Lease lease = transport.lease(target.getUri());
+		Response response;
+		try {
+			response = lease.bind(builder).method(method, requestContent);
+		} catch (RuntimeException e) {
+			lease.close();
+			throw e;
+		}
 
 		//https://myaccount.blob.core.windows.net/mycontainer?restype=container
 
 		if (expectedStatus != null && response.getStatusInfo().getStatusCode() != expectedStatus.getStatusCode()) {
+			//the error body is read so the connection is released
+			response.bufferEntity();
 			throw new WebApplicationException(response);
 		}
 		if (responseType != null) {
@@ -223,15 +261,14 @@ public class Storage {
 	//https://msdn.microsoft.com/en-us/library/azure/dd179428.aspx
 	public void setSharedKeyLiteHeader(URI requestURI, Builder builder, String method, String contentType, MultivaluedMap<String, Object> headers) throws WebApplicationException {
 		//x-ms-blob-public-access container blob
-		ZonedDateTime currentTime = ZonedDateTime.now(ZoneId.of("GMT"));
-		String date = RFC1123_DATE_TIME.format(currentTime);
+		String date = SharedKeySigner.currentDate();
 
 		headers.add("x-ms-date", date);
 		headers.add("x-ms-version", AZURE_STORAGE_VERSION);
 
 		builder.headers(headers);
 
-		StringBuilder stringToSign = new StringBuilder();
+		StringBuilder stringToSign = signer.stringToSign();
 		stringToSign.append(method).append("\n");
 		stringToSign.append("\n"); //No Content-MD5
 		stringToSign.append(contentType != null ? contentType : "").append("\n");
@@ -247,23 +284,14 @@ public class Storage {
 		}
 		//canonicalize(stringToSign, parseQuery(requestURI.getQuery())); //apparently not needed with lite
 
-		try {
-			Mac sha256_HMAC = Mac.getInstance("HMACSHA256");
-			SecretKeySpec secret_key = new SecretKeySpec(Base64.getDecoder().decode(masterKey), "HmacSHA256");
-			sha256_HMAC.init(secret_key);
-			String signature = Base64.getEncoder().encodeToString(sha256_HMAC.doFinal(stringToSign.toString().getBytes()));
-			builder.header("Authorization", String.format("SharedKeyLite %s:%s", id, signature));
-		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
-			throw new WebApplicationException(e);
-		}
+		builder.header("Authorization", authorizationPrefix + signer.sign(stringToSign));
 
 	}
 
 	//TODO this could be implemented but it is challenging to get content-length and jax-rs overwrites some of the headers during posting
 	public void setSharedKeyHeader(Builder builder, String method, MultivaluedMap<String, Object> headers) {
 
-		ZonedDateTime currentTime = ZonedDateTime.now(ZoneId.of("GMT"));
-		String date = RFC1123_DATE_TIME.format(currentTime);
+		String date = SharedKeySigner.currentDate();
 		StringBuilder authHeader = new StringBuilder();
 		authHeader.append(method).append("\n");
 		//authHeader.append(headers.getFirst(key)).append("\n");
@@ -0,0 +1,120 @@
+package com.cpsgpartners.azure.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.Response;
+
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+//the pool accounting of a RESTEasy Transport against a local server
+public class TransportTest {
+
+	HttpServer server;
+	URI uri;
+
+	@Before
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.start();
+		uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+	}
+
+	@After
+	public void stop() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testIdleEviction() throws InterruptedException {
+		try (Transport transport = new Transport(new ResteasyClientBuilder(), new Transport.Config().setIdleTimeout(0))) {
+			assertEquals("ok", get(transport, uri));
+			Transport.PoolStats stats = transport.getStats(uri);
+			assertEquals(0, stats.getLeased());
+			assertEquals(1, stats.getIdle());
+			assertEquals(1, stats.getKeepAlive());
+			assertEquals(0, stats.getFailed());
+			//evicted before the next lease once the eviction interval has passed
+			Thread.sleep(1100);
+			transport.lease(uri).close();
+			assertEquals(0, transport.getStats(uri).getIdle());
+			assertEquals("ok", get(transport, uri));
+			assertEquals(1, transport.getStats(uri).getIdle());
+		}
+	}
+
+	@Test
+	public void testFailed() throws IOException {
+		URI closed;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			closed = URI.create("http://127.0.0.1:" + socket.getLocalPort() + "/");
+		}
+		try (Transport transport = new Transport(new ResteasyClientBuilder(), new Transport.Config())) {
+			try {
+				get(transport, closed);
+				fail("connected to a closed port");
+			} catch (ProcessingException e) {
+				//expected
+			}
+			Transport.PoolStats stats = transport.getStats(closed);
+			assertEquals(0, stats.getLeased());
+			assertEquals(1, stats.getFailed());
+			assertEquals(0, stats.getClosed());
+			assertEquals(0, stats.getKeepAlive());
+			//a lease never used for a request is not a failure
+			transport.lease(closed).close();
+			assertEquals(1, transport.getStats(closed).getFailed());
+		}
+	}
+
+	@Test
+	public void testAbandoned() {
+		try (Transport transport = new Transport(new ResteasyClientBuilder(), new Transport.Config())) {
+			Transport.Lease lease = transport.lease(uri);
+			lease.abandon();
+			try {
+				lease.bind(transport.target(uri.toString()).request()).get();
+				fail("abandoned request sent");
+			} catch (ProcessingException e) {
+				assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof CancellationException);
+			}
+			Transport.PoolStats stats = transport.getStats(uri);
+			assertEquals(0, stats.getLeased());
+			assertEquals(0, stats.getFailed());
+			assertEquals(0, stats.getKeepAlive());
+		}
+	}
+
+	static String get(Transport transport, URI uri) {
+		Transport.Lease lease = transport.lease(uri);
+		Response response;
+		try {
+			response = lease.bind(transport.target(uri.toString()).request()).get();
+		} catch (RuntimeException e) {
+			lease.close();
+			throw e;
+		}
+		return response.readEntity(String.class);
+	}
+
+}
@@ -0,0 +1,196 @@
+package com.cpsgpartners.azure.documentdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cpsgpartners.azure.common.Transport;
+
+public class ChangeFeedReaderTest {
+
+	static final String MASTER_KEY = Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef".getBytes());
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testLoadStore() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("orders.checkpoint");
+		assertNull(ChangeFeedReader.load(file));
+		assertNull(ChangeFeedReader.load(null));
+		ChangeFeedReader.store(file, "\"42\"");
+		assertEquals("\"42\"", ChangeFeedReader.load(file));
+		ChangeFeedReader.store(file, "\"7\"");
+		assertEquals("\"7\"", ChangeFeedReader.load(file));
+		//only the checkpoint file is left behind
+		assertEquals(1, folder.getRoot().list().length);
+		Files.write(file, " \"9\"\n".getBytes(StandardCharsets.UTF_8));
+		assertEquals("\"9\"", ChangeFeedReader.load(file));
+		Files.write(file, new byte[0]);
+		assertNull(ChangeFeedReader.load(file));
+		ChangeFeedReader.store(null, "\"1\"");
+	}
+
+	@Test
+	public void testResume() throws IOException {
+		IncrementalFeed feed = new IncrementalFeed();
+		DocumentDB db = documentDB(feed);
+		Path file = folder.getRoot().toPath().resolve("orders.checkpoint");
+		feed.add(5);
+
+		ChangeFeedReader reader = new ChangeFeedReader(db, "db", "coll", file).setPageSize(2);
+		assertNull(reader.getCheckpoint());
+		List<String> ids = new ArrayList<String>();
+		assertTrue(reader.poll(batch -> ids(batch, ids)));
+		assertEquals("[0, 1]", ids.toString());
+		assertEquals("\"2\"", reader.getCheckpoint());
+		assertEquals("\"2\"", ChangeFeedReader.load(file));
+
+		//a restarted reader continues after the stored checkpoint
+		reader = new ChangeFeedReader(db, "db", "coll", file).setPageSize(2);
+		assertEquals("\"2\"", reader.getCheckpoint());
+		assertEquals(3, reader.drain(batch -> ids(batch, ids)));
+		assertEquals("[0, 1, 2, 3, 4]", ids.toString());
+		assertEquals("\"5\"", ChangeFeedReader.load(file));
+		assertFalse(reader.poll(batch -> fail("no changes expected")));
+
+		feed.add(1);
+		assertEquals(1, new ChangeFeedReader(db, "db", "coll", file).drain(batch -> ids(batch, ids)));
+		assertEquals("[0, 1, 2, 3, 4, 5]", ids.toString());
+	}
+
+	//a consumer that fails leaves the checkpoint alone, so the batch is read again
+	@Test
+	public void testRedeliver() throws IOException {
+		IncrementalFeed feed = new IncrementalFeed();
+		DocumentDB db = documentDB(feed);
+		Path file = folder.getRoot().toPath().resolve("orders.checkpoint");
+		feed.add(3);
+		ChangeFeedReader reader = new ChangeFeedReader(db, "db", "coll", file).setPageSize(2);
+		try {
+			reader.poll(batch -> {
+				throw new IllegalStateException("consumer failed");
+			});
+			fail("consumer failure swallowed");
+		} catch (IllegalStateException e) {
+			//expected
+		}
+		assertNull(reader.getCheckpoint());
+		assertNull(ChangeFeedReader.load(file));
+		List<String> ids = new ArrayList<String>();
+		assertEquals(3, reader.drain(batch -> ids(batch, ids)));
+		assertEquals("[0, 1, 2]", ids.toString());
+	}
+
+	@Test
+	public void testHeaders() {
+		IncrementalFeed feed = new IncrementalFeed();
+		DocumentDB db = documentDB(feed);
+		feed.add(3);
+		ChangeFeedReader reader = new ChangeFeedReader(db, "db", "coll", null).setPageSize(2);
+		reader.drain(batch -> {
+		});
+
+		MultivaluedMap<String, Object> first = feed.requests.get(0);
+		assertEquals("Incremental feed", first.getFirst("A-IM"));
+		assertEquals(ChangeFeedReader.DEFAULT_VERSION, first.getFirst("x-ms-version"));
+		assertEquals(1, first.get("x-ms-version").size());
+		assertEquals("2", String.valueOf(first.getFirst("x-ms-max-item-count")));
+		assertNull(first.getFirst("x-ms-continuation"));
+		assertNull(first.getFirst(HttpHeaders.IF_NONE_MATCH));
+
+		MultivaluedMap<String, Object> second = feed.requests.get(1);
+		assertEquals("\"2\"", second.getFirst("x-ms-continuation"));
+		assertEquals("\"2\"", second.getFirst(HttpHeaders.IF_NONE_MATCH));
+
+		reader.setVersion("2018-12-31").poll(batch -> {
+		});
+		MultivaluedMap<String, Object> last = feed.requests.get(feed.requests.size() - 1);
+		assertEquals("2018-12-31", last.getFirst("x-ms-version"));
+		assertEquals(1, last.get("x-ms-version").size());
+		assertEquals("\"3\"", last.getFirst("x-ms-continuation"));
+		//other requests keep the version of DocumentDB
+		try {
+			db.getDocument("db", "coll", "0", JsonObject.class);
+		} catch (RuntimeException e) {
+			//the feed only serves the incremental feed
+		}
+		assertEquals(DocumentDB.AZURE_DOCUMENTDB_VERSION, feed.requests.get(feed.requests.size() - 1).getFirst("x-ms-version"));
+	}
+
+	static DocumentDB documentDB(IncrementalFeed feed) {
+		Transport transport = new Transport(ClientBuilder.newBuilder().register(feed), new Transport.Config());
+		return new DocumentDB(URI.create("https://account.documents.azure.com/"), MASTER_KEY, DocumentDB.ConsistencyLevel.Session, transport);
+	}
+
+	static void ids(List<JsonValue> batch, List<String> ids) {
+		for (JsonValue document : batch) {
+			ids.add(((JsonObject) document).getString("id"));
+		}
+	}
+
+	//serves the incremental feed of one collection, the ETag and continuation are the number of changes read so far
+	static class IncrementalFeed implements ClientRequestFilter {
+		final List<JsonObject> changes = new CopyOnWriteArrayList<JsonObject>();
+		final List<MultivaluedMap<String, Object>> requests = new CopyOnWriteArrayList<MultivaluedMap<String, Object>>();
+
+		void add(int count) {
+			for (int i = 0; i < count; i++) {
+				changes.add(Json.createObjectBuilder().add("id", String.valueOf(changes.size())).build());
+			}
+		}
+
+		@Override
+		public void filter(ClientRequestContext request) {
+			requests.add(new MultivaluedHashMap<String, Object>(request.getHeaders()));
+			if (request.getHeaderString("A-IM") == null) {
+				request.abortWith(Response.status(Response.Status.NOT_FOUND).build());
+				return;
+			}
+			String continuation = request.getHeaderString("x-ms-continuation");
+			int from = continuation != null ? Integer.parseInt(continuation.replace("\"", "")) : 0;
+			String max = request.getHeaderString("x-ms-max-item-count");
+			int to = Math.min(changes.size(), from + (max != null ? Integer.parseInt(max) : 100));
+			if (continuation != null && from == to) {
+				request.abortWith(Response.notModified().header(HttpHeaders.ETAG, continuation).build());
+				return;
+			}
+			JsonArrayBuilder documents = Json.createArrayBuilder();
+			for (int i = from; i < to; i++) {
+				documents.add(changes.get(i));
+			}
+			JsonObject page = Json.createObjectBuilder().add("_rid", "coll").add("Documents", documents).add("_count", to - from).build();
+			request.abortWith(Response.ok(page.toString(), MediaType.APPLICATION_JSON_TYPE).header(HttpHeaders.ETAG, "\"" + to + "\"").build());
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+package com.cpsgpartners.azure.documentdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonReader;
+import javax.json.JsonStructure;
+import javax.json.stream.JsonParser.Event;
+import javax.ws.rs.WebApplicationException;
+
+import org.junit.Test;
+
+public class JsonTokenizerTest {
+
+	static final String DOCUMENT = "{\"id\":\"a\\\"b\\\\c\\/d\",\"text\":\"line\\nnext\\ttab\\u0001\",\"unicode\":\"héllo € 😀\",\"escaped\":\"\\u00e9\\ud83d\\ude00\","
+			+ "\"numbers\":[0,-1,1.50,1e10,-2.5E-3,12345678901234567890],\"flags\":[true,false,null],\"nested\":{\"a\":[[],{},[{\"b\":{\"c\":[1,[2,[3]]]}}]]},\"empty\":\"\"}";
+
+	@Test
+	public void testEvents() throws IOException {
+		JsonTokenizer jr = tokenizer("{\"a\" : [1, \"x\", true, false, null, {}], \"b\":{\"c\":-2.5}}", 8192);
+		List<Event> events = new ArrayList<Event>();
+		List<String> values = new ArrayList<String>();
+		Event event;
+		while ((event = jr.next()) != null) {
+			events.add(event);
+			if (event == Event.KEY_NAME || event == Event.VALUE_STRING || event == Event.VALUE_NUMBER) {
+				values.add(jr.getString());
+			}
+		}
+		assertEquals(Arrays.asList(Event.START_OBJECT, Event.KEY_NAME, Event.START_ARRAY, Event.VALUE_NUMBER, Event.VALUE_STRING, Event.VALUE_TRUE, Event.VALUE_FALSE, Event.VALUE_NULL,
+				Event.START_OBJECT, Event.END_OBJECT, Event.END_ARRAY, Event.KEY_NAME, Event.START_OBJECT, Event.KEY_NAME, Event.VALUE_NUMBER, Event.END_OBJECT, Event.END_OBJECT), events);
+		assertEquals("[a, 1, x, b, c, -2.5]", values.toString());
+		assertEquals(0, jr.getDepth());
+	}
+
+	@Test
+	public void testEscapesAndUnicode() throws IOException {
+		JsonTokenizer jr = tokenizer(DOCUMENT, 8192);
+		assertEquals(Event.START_OBJECT, jr.next());
+		assertEquals(Event.KEY_NAME, jr.next());
+		assertEquals(Event.VALUE_STRING, jr.next());
+		assertEquals("a\"b\\c/d", jr.getString());
+		//raw token keeps the escapes and quotes as they appeared
+		assertEquals("\"a\\\"b\\\\c\\/d\"", raw(jr));
+		jr.next();
+		jr.next();
+		assertEquals("line\nnext\ttab\u0001", jr.getString());
+		jr.next();
+		jr.next();
+		assertEquals("héllo € 😀", jr.getString());
+		assertFalse(jr.matches("unicode".getBytes(StandardCharsets.UTF_8)));
+		jr.next();
+		assertTrue(jr.matches("escaped".getBytes(StandardCharsets.UTF_8)));
+		jr.next();
+		assertEquals("é😀", jr.getString());
+		assertTrue(jr.matches("é😀".getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void testRawNumbers() throws IOException {
+		JsonTokenizer jr = tokenizer("[0,-1,1.50,1e10,-2.5E-3,12345678901234567890]", 8192);
+		jr.next();
+		List<String> numbers = new ArrayList<String>();
+		Event event;
+		while ((event = jr.next()) != Event.END_ARRAY) {
+			assertEquals(Event.VALUE_NUMBER, event);
+			numbers.add(raw(jr));
+		}
+		assertEquals("[0, -1, 1.50, 1e10, -2.5E-3, 12345678901234567890]", numbers.toString());
+	}
+
+	//a number ending the input, read across refills
+	@Test
+	public void testNumberAtEnd() throws IOException {
+		for (int size = 1; size <= 8; size++) {
+			JsonTokenizer jr = tokenizer("[1]  -12.5e+3", size);
+			jr.skip(jr.next());
+			assertEquals(Event.VALUE_NUMBER, jr.next());
+			assertEquals("-12.5e+3", raw(jr));
+			assertNull(jr.next());
+		}
+	}
+
+	@Test
+	public void testSkip() throws IOException {
+		JsonTokenizer jr = tokenizer("{\"skip\":{\"a\":[1,{\"b\":[]}],\"c\":\"}\"},\"keep\":1}", 8192);
+		jr.next();
+		jr.next();
+		jr.skip(jr.next());
+		assertEquals(Event.KEY_NAME, jr.next());
+		assertEquals("keep", jr.getString());
+		assertEquals(Event.VALUE_NUMBER, jr.next());
+		assertEquals(Event.END_OBJECT, jr.next());
+		assertNull(jr.next());
+	}
+
+	//tokens straddling buffer refills, down to a buffer smaller than a single token
+	@Test
+	public void testRoundTripSmallBuffers() throws IOException {
+		JsonStructure expected = parse(DOCUMENT);
+		for (int size = 1; size <= 64; size++) {
+			String copied = copy(DOCUMENT, size);
+			assertEquals("buffer size " + size, expected, parse(copied));
+		}
+		//copied through untouched apart from the whitespace between tokens
+		assertEquals(DOCUMENT, copy(DOCUMENT, 3));
+		assertEquals(DOCUMENT, copy(DOCUMENT.replace(",", " ,\n\t").replace(":", " : "), 5));
+	}
+
+	@Test
+	public void testDeepNesting() throws IOException {
+		StringBuilder json = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			json.append(i % 2 == 0 ? "{\"n\":" : "[");
+		}
+		json.append("1");
+		for (int i = 99; i >= 0; i--) {
+			json.append(i % 2 == 0 ? "}" : "]");
+		}
+		assertEquals(json.toString(), copy(json.toString(), 16));
+	}
+
+	@Test
+	public void testMalformed() throws IOException {
+		malformed("{\"a\":[1,2}", 8192, true);
+		malformed("{\"a\":1", 8192, false);
+		malformed("[1,2", 4, false);
+		malformed("{\"a\":\"unterminated", 8192, false);
+		malformed("{\"a\":\"unterminated\\", 4, false);
+		malformed("{\"a\":#}", 8192, false);
+		malformed("{\"a\":'x'}", 8192, false);
+	}
+
+	private static void malformed(String json, int bufferSize, boolean parsesLoosely) throws IOException {
+		JsonTokenizer jr = tokenizer(json, bufferSize);
+		try {
+			while (jr.next() != null) {
+			}
+			if (!parsesLoosely) {
+				fail("accepted malformed JSON " + json);
+			}
+		} catch (WebApplicationException e) {
+			//expected
+		}
+	}
+
+	static JsonTokenizer tokenizer(String json, int bufferSize) {
+		return new JsonTokenizer(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), new byte[bufferSize]);
+	}
+
+	static String raw(JsonTokenizer jr) {
+		return new String(jr.getBuffer(), jr.getStart(), jr.getLength(), StandardCharsets.UTF_8);
+	}
+
+	static String copy(String json, int bufferSize) throws IOException {
+		JsonTokenizer jr = tokenizer(json, bufferSize);
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		JsonWriter jw = new JsonWriter(os, new byte[Math.max(bufferSize, JsonWriter.MIN_BUFFER_SIZE)]);
+		ParsedAzureStreamingOutput.copy(jr, jw, jr.next());
+		jw.close();
+		return new String(os.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	static JsonStructure parse(String json) {
+		try (JsonReader reader = Json.createReader(new StringReader(json))) {
+			return reader.read();
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.cpsgpartners.azure.documentdb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.junit.Test;
+
+public class JsonWriterTest {
+
+	static final String TEXT = "quote \" backslash \\ slash / newline \n return \r tab \t backspace \b formfeed \f control \u0001\u001f é € 😀";
+
+	@Test
+	public void testNesting() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		JsonWriter jw = new JsonWriter(os);
+		jw.startObject();
+		jw.key("a").startArray().value(1).value(true).value(false).nullValue().value((String) null).startObject().end().startArray().end().end();
+		jw.key("b").startObject().key("c").number("1.50e+10").key("d").value("x").end();
+		jw.end();
+		jw.close();
+		assertEquals("{\"a\":[1,true,false,null,null,{},[]],\"b\":{\"c\":1.50e+10,\"d\":\"x\"}}", new String(os.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(os.size(), jw.getBytesWritten());
+	}
+
+	@Test
+	public void testEscapes() throws IOException {
+		String json = write(TEXT, 8192);
+		assertEquals("{\"text\":\"quote \\\" backslash \\\\ slash / newline \\n return \\r tab \\t backspace \\b formfeed \\f control \\u0001\\u001f é € 😀\"}", json);
+		assertEquals(TEXT, read(json).getString("text"));
+	}
+
+	@Test
+	public void testUnpairedSurrogates() throws IOException {
+		String text = "a\ud83db\ude00c";
+		String json = write(text, 8192);
+		assertEquals("{\"text\":\"a\\ud83db\\ude00c\"}", json);
+		assertEquals(text, read(json).getString("text"));
+	}
+
+	//multibyte characters and escapes straddling the buffer boundary
+	@Test
+	public void testSmallBuffers() throws IOException {
+		String expected = write(TEXT, 8192);
+		for (int size = JsonWriter.MIN_BUFFER_SIZE; size <= 32; size++) {
+			assertEquals("buffer size " + size, expected, write(TEXT, size));
+		}
+	}
+
+	@Test
+	public void testRaw() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		JsonWriter jw = new JsonWriter(os, new byte[JsonWriter.MIN_BUFFER_SIZE]);
+		byte[] raw = "xx{\"nested\":[1,2,3]}xx".getBytes(StandardCharsets.UTF_8);
+		byte[] key = "\"k\"".getBytes(StandardCharsets.UTF_8);
+		jw.startObject().rawKey(key, 0, key.length).raw(raw, 2, raw.length - 4).end();
+		jw.close();
+		assertEquals("{\"k\":{\"nested\":[1,2,3]}}", new String(os.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBufferTooSmall() {
+		new JsonWriter(new ByteArrayOutputStream(), new byte[JsonWriter.MIN_BUFFER_SIZE - 1]);
+	}
+
+	static String write(String text, int bufferSize) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		JsonWriter jw = new JsonWriter(os, new byte[bufferSize]);
+		jw.startObject().key("text").value(text).end();
+		jw.close();
+		return new String(os.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	static JsonObject read(String json) {
+		try (JsonReader reader = Json.createReader(new StringReader(json))) {
+			return reader.readObject();
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.cpsgpartners.azure.documentdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
+import org.junit.Test;
+
+public class MetadataCacheTest {
+
+	@Test
+	public void testInvalidatePathById() {
+		MetadataCache cache = cache();
+		cache.invalidatePath("/dbs/Orders/colls/Lines/docs/1/");
+		assertNull(cache.collection("d9RzAA==", "Lines"));
+		//the collections of other databases are kept
+		assertEquals("eKRzAKRFKgw=", cache.collection("eKRzAA==", "Lines"));
+	}
+
+	@Test
+	public void testInvalidatePathByRid() {
+		MetadataCache cache = cache();
+		cache.invalidatePath("/dbs/d9RzAA==/colls/d9RzAJRFKgw=/docs/");
+		assertNull(cache.collection("d9RzAA==", "Lines"));
+		assertEquals("eKRzAKRFKgw=", cache.collection("eKRzAA==", "Lines"));
+	}
+
+	//a database the database feed does not know cannot be told apart from the others
+	@Test
+	public void testInvalidateUnknown() {
+		MetadataCache cache = cache();
+		cache.invalidate("Recreated");
+		assertNull(cache.collection("d9RzAA==", "Lines"));
+		assertNull(cache.collection("eKRzAA==", "Lines"));
+	}
+
+	@Test
+	public void testCreatedById() {
+		MetadataCache cache = cache();
+		cache.created("Archive");
+		assertEquals("d9RzAJRFKgw=", cache.collection("d9RzAA==", "Lines"));
+		assertNull(cache.collection("eKRzAA==", "Lines"));
+	}
+
+	static MetadataCache cache() {
+		MetadataCache cache = new MetadataCache();
+		cache.databases(Collections.singletonList(feed("Databases", resource("Orders", "d9RzAA=="), resource("Archive", "eKRzAA=="))));
+		cache.collections("d9RzAA==", Collections.singletonList(feed("DocumentCollections", resource("Lines", "d9RzAJRFKgw="))));
+		cache.collections("eKRzAA==", Collections.singletonList(feed("DocumentCollections", resource("Lines", "eKRzAKRFKgw="))));
+		assertEquals("d9RzAA==", cache.database("Orders"));
+		assertEquals("d9RzAJRFKgw=", cache.collection("d9RzAA==", "Lines"));
+		return cache;
+	}
+
+	static JsonObject feed(String name, JsonObject... resources) {
+		JsonArrayBuilder array = Json.createArrayBuilder();
+		for (JsonObject resource : resources) {
+			array.add(resource);
+		}
+		return Json.createObjectBuilder().add(name, array).build();
+	}
+
+	static JsonObject resource(String id, String rid) {
+		return Json.createObjectBuilder().add("id", id).add("_rid", rid).build();
+	}
+
+}
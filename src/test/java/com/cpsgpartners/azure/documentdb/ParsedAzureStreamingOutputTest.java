@@ -0,0 +1,99 @@
+package com.cpsgpartners.azure.documentdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.junit.Test;
+
+public class ParsedAzureStreamingOutputTest {
+
+	static final String DOCUMENT = "{\"id\":\"1\",\"name\":\"a \\\"b\\\" é\",\"price\":1.50,\"address\":{\"city\":\"Denver\",\"zip\":\"80202\",\"geo\":{\"lat\":39.7,\"lon\":-104.9}},"
+			+ "\"items\":[{\"sku\":\"x\",\"qty\":2},{\"sku\":\"y\",\"qty\":1e2}],\"_rid\":\"rid1\",\"_self\":\"dbs/a/colls/b/docs/rid1/\",\"_etag\":\"\\\"0\\\"\",\"_ts\":1440000000,\"_attachments\":\"attachments/\"}";
+
+	static final String FEED = "{\"_rid\":\"coll\",\"Documents\":[" + DOCUMENT + "," + DOCUMENT.replace("\"id\":\"1\"", "\"id\":\"2\"") + "],\"_count\":2}";
+
+	@Test
+	public void testUnfiltered() throws IOException {
+		assertEquals(FEED, write(new ParsedAzureStreamingOutput(null), FEED, null));
+		assertEquals(DOCUMENT, write(new ParsedAzureStreamingOutput(null).setFeed(false), DOCUMENT, null));
+	}
+
+	@Test
+	public void testContinuation() throws IOException {
+		assertEquals("{\"_continuation\":\"+RID:abc\\\"\"," + FEED.substring(1), write(new ParsedAzureStreamingOutput(null), FEED, "+RID:abc\""));
+	}
+
+	@Test
+	public void testInclude() throws IOException {
+		ParsedAzureStreamingOutput output = new ParsedAzureStreamingOutput(null).setInclude("id", "price", "address.geo.lat", "items.sku");
+		String document = "{\"id\":\"1\",\"price\":1.50,\"address\":{\"geo\":{\"lat\":39.7}},\"items\":[{\"sku\":\"x\"},{\"sku\":\"y\"}]}";
+		assertEquals(feed(document, document.replace("\"id\":\"1\"", "\"id\":\"2\"")), write(output, FEED, null));
+		//a whole object below an included path
+		output = new ParsedAzureStreamingOutput(null).setFeed(false).setInclude("address");
+		assertEquals("{\"address\":{\"city\":\"Denver\",\"zip\":\"80202\",\"geo\":{\"lat\":39.7,\"lon\":-104.9}}}", write(output, DOCUMENT, null));
+	}
+
+	@Test
+	public void testExclude() throws IOException {
+		ParsedAzureStreamingOutput output = new ParsedAzureStreamingOutput(null).setFeed(false).setExclude("name", "address.geo", "items.qty", "_rid");
+		assertEquals("{\"id\":\"1\",\"price\":1.50,\"address\":{\"city\":\"Denver\",\"zip\":\"80202\"},\"items\":[{\"sku\":\"x\"},{\"sku\":\"y\"}],"
+				+ "\"_self\":\"dbs/a/colls/b/docs/rid1/\",\"_etag\":\"\\\"0\\\"\",\"_ts\":1440000000,\"_attachments\":\"attachments/\"}", write(output, DOCUMENT, null));
+	}
+
+	@Test
+	public void testRename() throws IOException {
+		ParsedAzureStreamingOutput output = new ParsedAzureStreamingOutput(null).setFeed(false).setInclude("id", "address.city", "items.sku").setRename("id", "key")
+				.setRename("address.city", "town").setRename("items.sku", "code");
+		assertEquals("{\"key\":\"1\",\"address\":{\"town\":\"Denver\"},\"items\":[{\"code\":\"x\"},{\"code\":\"y\"}]}", write(output, DOCUMENT, null));
+		//renamed without filtering the rest
+		output = new ParsedAzureStreamingOutput(null).setFeed(false).setDropSystemProperties(true).setRename("name", "title");
+		assertEquals(DOCUMENT.substring(0, DOCUMENT.indexOf(",\"_rid\"")).replace("\"name\"", "\"title\"") + "}", write(output, DOCUMENT, null));
+	}
+
+	@Test
+	public void testDropSystemProperties() throws IOException {
+		String document = DOCUMENT.substring(0, DOCUMENT.indexOf(",\"_rid\"")) + "}";
+		//only those of the documents, not of the feed
+		assertEquals("{\"_rid\":\"coll\",\"Documents\":[" + document + "," + document.replace("\"id\":\"1\"", "\"id\":\"2\"") + "],\"_count\":2}",
+				write(new ParsedAzureStreamingOutput(null).setDropSystemProperties(true), FEED, null));
+		assertEquals(document, write(new ParsedAzureStreamingOutput(null).setFeed(false).setDropSystemProperties(true), DOCUMENT, null));
+		//nested fields with system names are kept
+		String nested = "{\"id\":\"1\",\"ref\":{\"_rid\":\"other\"},\"_ts\":1}";
+		assertEquals("{\"id\":\"1\",\"ref\":{\"_rid\":\"other\"}}", write(new ParsedAzureStreamingOutput(null).setFeed(false).setDropSystemProperties(true), nested, null));
+	}
+
+	@Test
+	public void testMalformed() throws IOException {
+		ParsedAzureStreamingOutput output = new ParsedAzureStreamingOutput(null).setInclude("id");
+		malformed(output, FEED.substring(0, FEED.length() / 2));
+		malformed(output, "{\"Documents\":[{\"id\":\"1}]}");
+		malformed(output, "{\"Documents\":[{\"id\":@}]}");
+	}
+
+	private static void malformed(ParsedAzureStreamingOutput output, String json) throws IOException {
+		try {
+			write(output, json, null);
+			fail("accepted malformed JSON " + json);
+		} catch (WebApplicationException e) {
+			//expected
+		}
+	}
+
+	static String feed(String... documents) {
+		return "{\"_rid\":\"coll\",\"Documents\":[" + String.join(",", documents) + "],\"_count\":2}";
+	}
+
+	static String write(ParsedAzureStreamingOutput output, String json, String continuation) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		output.write(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), continuation, os);
+		return new String(os.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
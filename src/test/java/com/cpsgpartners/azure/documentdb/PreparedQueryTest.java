@@ -0,0 +1,125 @@
+package com.cpsgpartners.azure.documentdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.ws.rs.WebApplicationException;
+
+import org.junit.Test;
+
+//request bodies of PreparedQuery against the JsonObject DocumentDB.queryDocument builds, in this package as queryDocument is not public
+public class PreparedQueryTest {
+
+	@Test
+	public void testStringParameters() {
+		assertBody("SELECT * FROM c");
+		assertBody("SELECT * FROM c WHERE c.id = @id", "@id", "order-1");
+		assertBody("SELECT * FROM c WHERE c.type = @type AND c.sequence > @sequence", "@type", "order", "@sequence", "42");
+		//each name once, in order of first appearance
+		assertBody("SELECT * FROM c WHERE c.b = @b OR c.a = @a OR c.c = @b", "@b", "x", "@a", "y");
+		assertBody("SELECT * FROM c WHERE c.id = @id_2", "@id_2", "");
+	}
+
+	@Test
+	public void testLiterals() {
+		assertBody("SELECT * FROM c WHERE c.email = 'someone@example.com' AND c.id = @id", "@id", "1");
+		assertBody("SELECT * FROM c WHERE c.name = \"@not\" AND c.id = @id", "@id", "1");
+		assertBody("SELECT * FROM c WHERE c.name = 'it\\'s @not' AND c.note = \"say \\\"@not\\\"\" AND c.id = @id", "@id", "1");
+		assertBody("SELECT * FROM c WHERE c.a = '\"@not' AND c.b = \"'@not\" AND c.id = @id", "@id", "1");
+		assertBody("SELECT * FROM c WHERE c.email = 'a@b' OR c.email = 'c@d'");
+	}
+
+	@Test
+	public void testEscapedValues() {
+		assertBody("SELECT * FROM c WHERE c.text = @text", "@text", "quote \" backslash \\ newline \n tab \t control \u0001 é € 😀 @id");
+		assertBody("SELECT * FROM c WHERE c.text = \"é\" AND c.tab = '\t' AND c.id = @id", "@id", "\"quoted\"");
+	}
+
+	@Test
+	public void testValueTypes() {
+		PreparedQuery query = new PreparedQuery("SELECT * FROM c WHERE c.a = @a AND c.b = @b AND c.c = @c AND c.d = @d AND c.e = @e AND c.f = @f AND c.g = @g AND c.h = @h AND c.i = @i");
+		JsonObject json = Json.createObjectBuilder().add("x", 1).build();
+		JsonObject expected = Json.createObjectBuilder().add("query", query.getQuery())
+				.add("parameters", Json.createArrayBuilder().add(parameter("@a", 7)).add(parameter("@b", 12345678901L)).add(parameter("@c", new BigDecimal("1.50")))
+						.add(Json.createObjectBuilder().add("name", "@d").add("value", 2.5)).add(Json.createObjectBuilder().add("name", "@e").add("value", true))
+						.add(Json.createObjectBuilder().add("name", "@f").addNull("value")).add(Json.createObjectBuilder().add("name", "@g").add("value", json))
+						.add(Json.createObjectBuilder().add("name", "@h").add("value", Json.createArrayBuilder().add("x").add(1).addNull()))
+						.add(Json.createObjectBuilder().add("name", "@i").add("value", Json.createArrayBuilder().add(true).add("y"))))
+				.build();
+		assertEquals(expected, read(query.body(7, 12345678901L, new BigDecimal("1.50"), 2.5, true, null, json, Arrays.asList("x", 1, null), new Object[] { true, "y" })));
+	}
+
+	@Test
+	public void testInvalid() {
+		invalid("");
+		invalid("SELECT * FROM c WHERE c.id = @");
+		invalid("SELECT * FROM c WHERE c.id = @1");
+		invalid("SELECT * FROM c WHERE c.name = 'unterminated");
+		PreparedQuery query = new PreparedQuery("SELECT * FROM c WHERE c.id = @id");
+		try {
+			query.body();
+			fail("missing value accepted");
+		} catch (WebApplicationException e) {
+			//expected
+		}
+		try {
+			query.body(Double.NaN);
+			fail("NaN accepted");
+		} catch (WebApplicationException e) {
+			//expected
+		}
+		//the encoder of the thread is still usable
+		assertEquals(DocumentDB.queryDocument(query.getQuery(), parameters("@id", "1")), read(query.body("1")));
+	}
+
+	static void assertBody(String query, String... parameters) {
+		PreparedQuery prepared = new PreparedQuery(query);
+		Map<String, String> map = parameters(parameters);
+		assertEquals(query, Arrays.asList(map.keySet().toArray()), prepared.getParameters());
+		//twice, the second body is written by the encoder the first one reused
+		for (int i = 0; i < 2; i++) {
+			assertEquals(query, DocumentDB.queryDocument(query, map), read(prepared.body(map.values().toArray())));
+		}
+	}
+
+	static Map<String, String> parameters(String... parameters) {
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		for (int i = 0; i < parameters.length; i += 2) {
+			map.put(parameters[i], parameters[i + 1]);
+		}
+		return map;
+	}
+
+	static JsonObject parameter(String name, long value) {
+		return Json.createObjectBuilder().add("name", name).add("value", value).build();
+	}
+
+	static JsonObject parameter(String name, BigDecimal value) {
+		return Json.createObjectBuilder().add("name", name).add("value", value).build();
+	}
+
+	static void invalid(String query) {
+		try {
+			new PreparedQuery(query);
+			fail("accepted " + query);
+		} catch (WebApplicationException e) {
+			//expected
+		}
+	}
+
+	static JsonObject read(byte[] body) {
+		try (JsonReader reader = Json.createReader(new ByteArrayInputStream(body))) {
+			return reader.readObject();
+		}
+	}
+
+}
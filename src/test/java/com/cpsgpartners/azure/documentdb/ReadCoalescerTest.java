@@ -0,0 +1,210 @@
+package com.cpsgpartners.azure.documentdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cpsgpartners.azure.common.Transport;
+
+//single flight reads of DocumentDB against a stub collection that holds its reads until released
+public class ReadCoalescerTest {
+
+	static final String MASTER_KEY = Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef".getBytes());
+	static final int READERS = 8;
+
+	Collection collection;
+	ReadCoalescer coalescer;
+	DocumentDB db;
+	ExecutorService executor;
+
+	@Before
+	public void setup() {
+		collection = new Collection();
+		coalescer = new ReadCoalescer();
+		Transport transport = new Transport(ClientBuilder.newBuilder().register(collection), new Transport.Config());
+		db = new DocumentDB(URI.create("https://account.documents.azure.com/"), MASTER_KEY, DocumentDB.ConsistencyLevel.Session, transport).setReadCoalescer(coalescer);
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		collection.release();
+		executor.shutdownNow();
+		db.getTransport().close();
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		collection.hold();
+		List<Future<JsonObject>> reads = new ArrayList<Future<JsonObject>>();
+		for (int i = 0; i < READERS; i++) {
+			reads.add(executor.submit(() -> db.getDocument("db", "coll", "doc1", JsonObject.class)));
+		}
+		await(() -> coalescer.getCoalesced() == READERS - 1);
+		assertEquals(1, coalescer.getInFlight());
+		collection.release();
+		JsonObject first = reads.get(0).get(10, TimeUnit.SECONDS);
+		for (Future<JsonObject> read : reads) {
+			assertSame(first, read.get(10, TimeUnit.SECONDS));
+		}
+		assertEquals(1, collection.reads.get());
+		assertEquals(1, coalescer.getReads());
+		assertEquals(0, coalescer.getInFlight());
+		//nothing is kept once the flight lands
+		db.getDocument("db", "coll", "doc1", JsonObject.class);
+		assertEquals(2, collection.reads.get());
+	}
+
+	//a read issued after a write does not join the read sent before it
+	@Test
+	public void testWriteStartsNewFlight() throws Exception {
+		collection.hold();
+		Future<JsonObject> before = executor.submit(() -> db.getDocument("db", "coll", "doc1", JsonObject.class));
+		await(() -> collection.reads.get() == 1);
+		db.createDocument("db", "coll", Json.createObjectBuilder().add("id", "doc2").build(), JsonObject.class, null);
+		assertEquals(1, coalescer.getInvalidations());
+		assertEquals(0, coalescer.getInFlight());
+		Future<JsonObject> after = executor.submit(() -> db.getDocument("db", "coll", "doc1", JsonObject.class));
+		await(() -> collection.reads.get() == 2);
+		Future<JsonObject> joined = executor.submit(() -> db.getDocument("db", "coll", "doc1", JsonObject.class));
+		await(() -> coalescer.getCoalesced() == 1);
+		collection.release();
+		assertEquals(0, before.get(10, TimeUnit.SECONDS).getInt("version"));
+		assertEquals(1, after.get(10, TimeUnit.SECONDS).getInt("version"));
+		assertSame(after.get(), joined.get(10, TimeUnit.SECONDS));
+		assertEquals(2, collection.reads.get());
+		assertEquals(0, coalescer.getInFlight());
+	}
+
+	//the error is shared and the failed flight is not joined afterwards
+	@Test
+	public void testFailedFlight() throws Exception {
+		collection.hold();
+		List<Future<JsonObject>> reads = new ArrayList<Future<JsonObject>>();
+		for (int i = 0; i < READERS; i++) {
+			reads.add(executor.submit(() -> db.getDocument("db", "coll", "missing", JsonObject.class)));
+		}
+		await(() -> coalescer.getCoalesced() == READERS - 1);
+		collection.release();
+		for (Future<JsonObject> read : reads) {
+			try {
+				read.get(10, TimeUnit.SECONDS);
+				fail("missing document read");
+			} catch (ExecutionException e) {
+				assertTrue(String.valueOf(e.getCause()), DocumentDB.notFound(e.getCause()));
+			}
+		}
+		assertEquals(1, collection.reads.get());
+		assertEquals(0, coalescer.getInFlight());
+		try {
+			db.getDocument("db", "coll", "missing", JsonObject.class);
+			fail("missing document read");
+		} catch (WebApplicationException e) {
+			assertEquals(Response.Status.NOT_FOUND.getStatusCode(), e.getResponse().getStatus());
+		}
+		assertEquals(2, collection.reads.get());
+	}
+
+	//cancelling one caller's future leaves the shared request to the others
+	@Test
+	public void testCancelledCaller() throws Exception {
+		collection.hold();
+		CompletableFuture<JsonObject> first = db.getDocumentAsync("db", "coll", "doc1", JsonObject.class);
+		CompletableFuture<JsonObject> second = db.getDocumentAsync("db", "coll", "doc1", JsonObject.class);
+		CompletableFuture<JsonObject> third = db.getDocumentAsync("db", "coll", "doc1", JsonObject.class);
+		assertEquals(2, coalescer.getCoalesced());
+		assertTrue(first.cancel(true));
+		assertFalse(second.isDone());
+		collection.release();
+		JsonObject document = second.get(10, TimeUnit.SECONDS);
+		assertEquals("doc1", document.getString("id"));
+		assertSame(document, third.get(10, TimeUnit.SECONDS));
+		assertEquals(1, collection.reads.get());
+		await(() -> coalescer.getInFlight() == 0);
+	}
+
+	static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("timed out");
+			}
+			Thread.sleep(5);
+		}
+	}
+
+	//documents of one collection, a read reports the number of writes made before it and waits while the collection is held
+	static class Collection implements ClientRequestFilter {
+		final AtomicInteger reads = new AtomicInteger();
+		final AtomicInteger writes = new AtomicInteger();
+		volatile CountDownLatch gate;
+
+		void hold() {
+			gate = new CountDownLatch(1);
+		}
+
+		void release() {
+			CountDownLatch g = gate;
+			if (g != null) {
+				g.countDown();
+			}
+		}
+
+		@Override
+		public void filter(ClientRequestContext request) {
+			String path = request.getUri().getPath();
+			if (!"GET".equals(request.getMethod())) {
+				writes.incrementAndGet();
+				request.abortWith(Response.status(Response.Status.CREATED).entity("{}").type(MediaType.APPLICATION_JSON_TYPE).build());
+				return;
+			}
+			reads.incrementAndGet();
+			int version = writes.get();
+			CountDownLatch g = gate;
+			if (g != null) {
+				try {
+					g.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (path.endsWith("/missing/")) {
+				request.abortWith(Response.status(Response.Status.NOT_FOUND).build());
+				return;
+			}
+			String id = path.substring(path.lastIndexOf('/', path.length() - 2) + 1, path.length() - 1);
+			JsonObject document = Json.createObjectBuilder().add("id", id).add("version", version).build();
+			request.abortWith(Response.ok(document.toString(), MediaType.APPLICATION_JSON_TYPE).build());
+		}
+	}
+
+}
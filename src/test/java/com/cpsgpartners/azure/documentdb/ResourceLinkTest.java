@@ -0,0 +1,155 @@
+package com.cpsgpartners.azure.documentdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Base64;
+import java.util.regex.Matcher;
+
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.UriBuilderException;
+
+import org.junit.Test;
+
+//links and DocumentDB.parse against the String.format paths and DOCUMENTDB_URI_PATTERN regex they replaced, in this package as the links are not public
+public class ResourceLinkTest {
+
+	static final String MASTER_KEY = Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef".getBytes());
+
+	static final String DB = "d9RzAA==";
+	static final String COLL = "d9RzAJRFKgw=";
+	static final String DOC = "d9RzAJRFKgwBAAAAAAAAAA==";
+	static final String ATT = "d9RzAJRFKgwBAAAAAAAAAGZt3Nw=";
+
+	@Test
+	public void testLinks() {
+		DocumentDB db = new DocumentDB("account", MASTER_KEY, DocumentDB.ConsistencyLevel.Session);
+		WebTarget endpoint = db.getTransport().target(String.format(DocumentDB.AZURE_DOCUMENTDB_ENDPOINT, "account"));
+		ResourceLink.Collection collection = db.collection(DB, COLL);
+		assertLink(endpoint, String.format("/dbs/%s", DB), "dbs", DB, db.database(DB));
+		assertLink(endpoint, String.format("/dbs/%s/colls/", DB), "colls", DB, db.collections(DB));
+		assertLink(endpoint, String.format("/dbs/%s/colls/%s/", DB, COLL), "colls", COLL, collection.collection);
+		assertLink(endpoint, String.format("/dbs/%s/colls/%s/docs/", DB, COLL), "docs", COLL, collection.docs);
+		assertLink(endpoint, String.format("/dbs/%s/colls/%s/sprocs/", DB, COLL), "sprocs", COLL, collection.sprocs);
+		assertLink(endpoint, String.format("/dbs/%s/colls/%s/triggers/", DB, COLL), "triggers", COLL, collection.triggers);
+		assertLink(endpoint, String.format("/dbs/%s/colls/%s/udfs/", DB, COLL), "udfs", COLL, collection.udfs);
+		assertLink(endpoint, String.format("/dbs/%s/colls/%s/docs/%s/", DB, COLL, DOC), "docs", DOC, collection.document(DOC));
+		assertLink(endpoint, String.format("/dbs/%s/colls/%s/docs/%s/attachments/", DB, COLL, DOC), "attachments", DOC, collection.attachments(DOC));
+		assertLink(endpoint, String.format("/dbs/%s/colls/%s/docs/%s/attachments/%s/", DB, COLL, DOC, ATT), "attachments", ATT, collection.attachment(DOC, ATT));
+		assertLink(endpoint, String.format("/dbs/%s/colls/%s/sprocs/%s/", DB, COLL, DOC), "sprocs", DOC, collection.sprocs.child(DOC));
+	}
+
+	//collections addressed by id share a name across databases
+	@Test
+	public void testSameCollectionName() {
+		DocumentDB db = new DocumentDB("account", MASTER_KEY, DocumentDB.ConsistencyLevel.Session);
+		ResourceLink.Collection orders = db.collection("Orders", "Lines");
+		ResourceLink.Collection archive = db.collection("Archive", "Lines");
+		assertEquals("/dbs/Orders/colls/Lines/docs/", orders.docs.path);
+		assertEquals("/dbs/Archive/colls/Lines/docs/", archive.docs.path);
+		assertSame(orders, db.collection("Orders", "Lines"));
+		assertSame(archive, db.collection("Archive", "Lines"));
+	}
+
+	@Test
+	public void testResourceShapes() {
+		assertId("dbs/" + DB + "/", DB, "", "", "", "");
+		assertId("dbs/" + DB + "/colls/" + COLL + "/", DB, COLL, "", "", "");
+		assertId("dbs/" + DB + "/colls/" + COLL + "/docs/" + DOC + "/", DB, COLL, "docs", DOC, "");
+		assertId("dbs/" + DB + "/colls/" + COLL + "/sprocs/" + DOC + "/", DB, COLL, "sprocs", DOC, "");
+		assertId("dbs/" + DB + "/users/" + DOC + "/", DB, "", "users", DOC, "");
+		assertId("dbs/" + DB + "/colls/" + COLL + "/docs/" + DOC + "/attachments/" + ATT + "/", DB, COLL, "docs", DOC, ATT);
+		assertId("dbs/" + DB + "/colls/" + COLL + "/docs/" + DOC + "/attachments/" + ATT, DB, COLL, "docs", DOC, ATT);
+		assertId("dbs/" + DB + "/colls/" + COLL + "/attachments/" + ATT + "/", DB, COLL, "attachments", ATT, "");
+		assertId("dbs/" + DB + "/colls/" + COLL + "/attachments/" + ATT, DB, COLL, "", "", ATT);
+		assertId("dbs/Orders/colls/Lines/docs/order-1/", "Orders", "Lines", "docs", "order-1", "");
+	}
+
+	@Test
+	public void testInvalid() {
+		for (String idURI : new String[] { "", "dbs", "dbs/", "dbs/" + DB, "/dbs/" + DB + "/", "dbs//", "dbs/" + DB + "//", "colls/" + COLL + "/", "dbs/" + DB + "/colls/" + COLL,
+				"dbs/" + DB + "/colls/" + COLL + "/docs/" + DOC, "dbs/" + DB + "/colls/" + COLL + "/docs/" + DOC + "/extra/", "dbs/" + DB + "/colls/" + COLL + "/docs/" + DOC + "/attachments/" + ATT + "/x/" }) {
+			assertNull(idURI, legacyParse(idURI));
+			try {
+				DocumentDB.parse(idURI);
+				fail("parsed " + idURI);
+			} catch (UriBuilderException e) {
+				//expected
+			}
+		}
+	}
+
+	//every path of up to six segments drawn from the names the pattern gives meaning to, with and without the trailing slash
+	@Test
+	public void testAgreesWithPattern() {
+		String[] names = { "dbs", "colls", "docs", "attachments", "a", "b" };
+		for (int count = 1; count <= 6; count++) {
+			int[] index = new int[count];
+			for (;;) {
+				StringBuilder sb = new StringBuilder();
+				for (int i = 0; i < count; i++) {
+					sb.append(names[index[i]]).append('/');
+				}
+				compare(sb.toString());
+				compare(sb.substring(0, sb.length() - 1));
+				int i = count - 1;
+				while (i >= 0 && ++index[i] == names.length) {
+					index[i--] = 0;
+				}
+				if (i < 0) {
+					break;
+				}
+			}
+		}
+	}
+
+	static void assertLink(WebTarget endpoint, String path, String resourceType, String resourceId, ResourceLink link) {
+		WebTarget target = endpoint.path(path);
+		assertEquals(path, target.getUri().getPath(), link.path);
+		assertEquals(path, target.getUri(), link.target.getUri());
+		assertEquals(path, target.getUri().getHost(), link.endpoint.getHost());
+		assertEquals(path, resourceType, link.resourceType);
+		assertEquals(path, resourceId, link.resourceId);
+	}
+
+	static void assertId(String idURI, String dbId, String collId, String resType, String resId, String attId) {
+		DocumentDB.Id id = DocumentDB.parse(idURI);
+		assertEquals(idURI, dbId, id.getDbId());
+		assertEquals(idURI, collId, id.getCollId());
+		assertEquals(idURI, resType, id.getResType());
+		assertEquals(idURI, resId, id.getResId());
+		assertEquals(idURI, attId, id.getAttId());
+		compare(idURI);
+	}
+
+	static void compare(String idURI) {
+		DocumentDB.Id expected = legacyParse(idURI);
+		DocumentDB.Id actual;
+		try {
+			actual = DocumentDB.parse(idURI);
+		} catch (UriBuilderException e) {
+			actual = null;
+		}
+		if (expected == null || actual == null) {
+			assertEquals(idURI, expected == null, actual == null);
+			return;
+		}
+		assertEquals(idURI, expected.getDbId(), actual.getDbId());
+		assertEquals(idURI, expected.getCollId(), actual.getCollId());
+		assertEquals(idURI, expected.getResType(), actual.getResType());
+		assertEquals(idURI, expected.getResId(), actual.getResId());
+		assertEquals(idURI, expected.getAttId(), actual.getAttId());
+		assertEquals(idURI, expected.getURI(), actual.getURI());
+	}
+
+	static DocumentDB.Id legacyParse(String idURI) {
+		Matcher m = DocumentDB.DOCUMENTDB_URI_PATTERN.matcher(idURI);
+		if (m.matches()) {
+			return new DocumentDB.Id(m.group(1) != null ? m.group(1) : "", m.group(3) != null ? m.group(3) : "", m.group(5) != null ? m.group(5) : "", m.group(6) != null ? m.group(6) : "", m.group(8) != null ? m.group(8) : "");
+		}
+		return null;
+	}
+
+}
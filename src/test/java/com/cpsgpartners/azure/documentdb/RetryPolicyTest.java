@@ -0,0 +1,88 @@
+package com.cpsgpartners.azure.documentdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+	@Test
+	public void testNotThrottled() {
+		RetryPolicy policy = new RetryPolicy();
+		assertEquals(-1, policy.retryDelay(Response.ok().build(), 0, 0));
+		assertEquals(-1, policy.retryDelay(Response.status(Response.Status.SERVICE_UNAVAILABLE).header(RetryPolicy.RETRY_AFTER_HEADER, "10").build(), 0, 0));
+		assertEquals(0, policy.getThrottled());
+	}
+
+	@Test
+	public void testRetryAfter() {
+		RetryPolicy policy = new RetryPolicy().setJitter(0);
+		assertEquals(250, policy.retryDelay(throttled("250"), 0, 0));
+		assertEquals(250, policy.retryDelay(throttled(" 250 "), 5, 0));
+		assertEquals(0, policy.retryDelay(throttled("0"), 0, 0));
+	}
+
+	@Test
+	public void testBackoff() {
+		RetryPolicy policy = new RetryPolicy().setJitter(0).setBaseDelay(100).setMaxWait(Long.MAX_VALUE).setMaxRetries(100);
+		assertEquals(100, policy.retryDelay(throttled(null), 0, 0));
+		assertEquals(200, policy.retryDelay(throttled(null), 1, 0));
+		assertEquals(800, policy.retryDelay(throttled(null), 3, 0));
+		//the exponent stops growing at 16
+		assertEquals(100L << 16, policy.retryDelay(throttled(null), 40, 0));
+		//a malformed or negative header falls back to backoff
+		assertEquals(400, policy.retryDelay(throttled("soon"), 2, 0));
+		assertEquals(400, policy.retryDelay(throttled("-5"), 2, 0));
+		assertEquals(400, policy.retryDelay(throttled(""), 2, 0));
+	}
+
+	@Test
+	public void testJitterBounds() {
+		RetryPolicy policy = new RetryPolicy().setJitter(0.2);
+		for (int i = 0; i < 1000; i++) {
+			long delay = policy.retryDelay(throttled("1000"), 0, 0);
+			assertTrue(String.valueOf(delay), delay >= 1000 && delay <= 1200);
+			delay = policy.retryDelay(throttled(null), 2, 0);
+			assertTrue(String.valueOf(delay), delay >= 400 && delay <= 480);
+		}
+	}
+
+	@Test
+	public void testGiveUp() {
+		RetryPolicy policy = new RetryPolicy().setJitter(0).setMaxRetries(3).setMaxWait(1000);
+		assertEquals(100, policy.retryDelay(throttled("100"), 2, 0));
+		assertEquals(-1, policy.retryDelay(throttled("100"), 3, 0));
+		//the delay would take the call past its total wait
+		assertEquals(100, policy.retryDelay(throttled("100"), 0, 900));
+		assertEquals(-1, policy.retryDelay(throttled("100"), 0, 901));
+		assertEquals(-1, policy.retryDelay(throttled("5000"), 0, 0));
+		assertEquals(-1, new RetryPolicy().setMaxRetries(0).retryDelay(throttled("1"), 0, 0));
+	}
+
+	@Test
+	public void testCounters() {
+		RetryPolicy policy = new RetryPolicy().setJitter(0).setMaxRetries(2);
+		policy.retryDelay(Response.ok().build(), 0, 0);
+		assertEquals(50, policy.retryDelay(throttled("50"), 0, 0));
+		assertEquals(70, policy.retryDelay(throttled("70"), 1, 50));
+		assertEquals(-1, policy.retryDelay(throttled("90"), 2, 120));
+		assertEquals(3, policy.getThrottled());
+		assertEquals(2, policy.getRetried());
+		assertEquals(1, policy.getExhausted());
+		//only the delays actually waited
+		assertEquals(120, policy.getWaitedMillis());
+		assertEquals("throttled: 3 retried: 2 exhausted: 1 waited: 120ms", policy.toString());
+	}
+
+	static Response throttled(String retryAfter) {
+		Response.ResponseBuilder builder = Response.status(RetryPolicy.TOO_MANY_REQUESTS);
+		if (retryAfter != null) {
+			builder.header(RetryPolicy.RETRY_AFTER_HEADER, retryAfter);
+		}
+		return builder.build();
+	}
+
+}
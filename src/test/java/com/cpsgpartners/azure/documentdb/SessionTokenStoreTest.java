@@ -0,0 +1,88 @@
+package com.cpsgpartners.azure.documentdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SessionTokenStoreTest {
+
+	@Test
+	public void testCollectionScope() {
+		SessionTokenStore store = new SessionTokenStore();
+		store.update("/dbs/db1/colls/coll1/docs/doc1/", "0:10");
+		assertEquals("0:10", store.get("/dbs/db1/colls/coll1/docs/"));
+		assertEquals("0:10", store.get("/dbs/db1/colls/coll1/docs/doc2/"));
+		assertNull(store.get("/dbs/db1/colls/coll2/docs/doc1/"));
+
+		store.update("/dbs/db1/colls/", "0:3");
+		assertEquals("0:3", store.get("/dbs/db1"));
+		assertEquals("0:10", store.get("/dbs/db1/colls/coll1/"));
+
+		//stale responses do not roll the token back
+		store.update("/dbs/db1/colls/coll1/docs/doc3/", "0:9");
+		assertEquals("0:10", store.get("/dbs/db1/colls/coll1/docs/doc3/"));
+	}
+
+	@Test
+	public void testBounded() {
+		SessionTokenStore store = new SessionTokenStore(64, 4);
+		for (int i = 0; i < 10000; i++) {
+			store.update(String.format("/dbs/db/colls/coll%d/docs/doc/", i), "0:" + i);
+		}
+		assertTrue(store.size() <= 64);
+		assertEquals("0:9999", store.get("/dbs/db/colls/coll9999/docs/"));
+	}
+
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		final int threads = 32;
+		final int collections = 50;
+		final int updates = 20000;
+		final SessionTokenStore store = new SessionTokenStore(1024, 8);
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+		for (int t = 0; t < threads; t++) {
+			results.add(executor.submit(() -> {
+				long[] max = new long[collections];
+				start.await();
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = 0; i < updates; i++) {
+					int coll = random.nextInt(collections);
+					long lsn = random.nextLong(1, Long.MAX_VALUE / 2);
+					store.update(String.format("/dbs/db/colls/c%d/docs/d%d/", coll, i), "0:" + lsn);
+					max[coll] = Math.max(max[coll], lsn);
+					String token = store.get(String.format("/dbs/db/colls/c%d/docs/", coll));
+					//another thread may only have moved the token forward
+					assertTrue(Long.parseLong(token.substring(2)) >= lsn);
+				}
+				return max;
+			}));
+		}
+		start.countDown();
+		long[] expected = new long[collections];
+		for (Future<long[]> result : results) {
+			long[] max = result.get(60, TimeUnit.SECONDS);
+			for (int i = 0; i < collections; i++) {
+				expected[i] = Math.max(expected[i], max[i]);
+			}
+		}
+		executor.shutdown();
+		assertEquals(collections, store.size());
+		for (int i = 0; i < collections; i++) {
+			assertEquals("0:" + expected[i], store.get(String.format("/dbs/db/colls/c%d/", i)));
+		}
+	}
+
+}
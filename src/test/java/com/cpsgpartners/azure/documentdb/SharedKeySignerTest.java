@@ -0,0 +1,137 @@
+package com.cpsgpartners.azure.documentdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.net.URLEncoder;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+import com.cpsgpartners.azure.common.SharedKeySigner;
+
+//the signatures of the Mac and String.format code DocumentDB.setHeaders and Storage ran per request before the signer, in this package for DocumentDB.authorization
+public class SharedKeySignerTest {
+
+	static final String[] KEYS = { Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef".getBytes()),
+			"C2y6yDjf5/R+ob0N8A7Cgv30VRDJIWEHLM+4QDU5DE2nQ9nDuVTqobD4b8mGGyPMbIZnqyMsEcaGQy67XIw/Jw==", Base64.getEncoder().encodeToString(new byte[] { 1 }) };
+
+	static final ZonedDateTime[] DATES = { ZonedDateTime.of(2015, 8, 1, 9, 5, 7, 0, ZoneId.of("GMT")), ZonedDateTime.of(2016, 12, 31, 23, 59, 59, 0, ZoneId.of("GMT")),
+			ZonedDateTime.of(2020, 2, 29, 0, 0, 0, 0, ZoneId.of("GMT")) };
+
+	static final String[][] RESOURCES = { { "GET", "docs", "d9RzAJRFKgwBAAAAAAAAAA==" }, { "POST", "docs", "dbs/Orders/colls/Lines" }, { "PUT", "colls", "dbs/MixedCase/colls/ABC" },
+			{ "DELETE", "dbs", "" }, { "GET", "docs", "dbs/données/colls/Ünïcode/docs/é😀" }, { "GET", "attachments", repeat("dbs/LongName/", 40) } };
+
+	@Test
+	public void testDocumentDBSignature() throws Exception {
+		for (String key : KEYS) {
+			SharedKeySigner signer = new SharedKeySigner(key);
+			for (ZonedDateTime time : DATES) {
+				String date = DocumentDB.RFC1123_DATE_TIME.format(time);
+				for (String[] resource : RESOURCES) {
+					StringBuilder stringToSign = signer.stringToSign();
+					stringToSign.append(resource[0]).append('\n').append(resource[1]).append('\n').append(resource[2]).append('\n').append(date).append('\n').append('\n');
+					String signature = signer.signLowerCase(stringToSign);
+					assertEquals(legacySignature(key, resource[0], resource[1], resource[2], date), signature);
+					assertEquals(legacyAuthorization(key, resource[0], resource[1], resource[2], date), DocumentDB.authorization(signature));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testStorageSignature() throws Exception {
+		for (String key : KEYS) {
+			SharedKeySigner signer = new SharedKeySigner(key);
+			for (ZonedDateTime time : DATES) {
+				String date = DocumentDB.RFC1123_DATE_TIME.format(time);
+				for (String[] resource : RESOURCES) {
+					String stringToSign = resource[0] + "\n\n\n" + date + "\n/Account/" + resource[2];
+					StringBuilder sb = signer.stringToSign();
+					sb.append(stringToSign);
+					assertEquals(legacyMac(key, stringToSign), signer.sign(sb));
+				}
+			}
+		}
+	}
+
+	//the per thread state of one signer on many threads
+	@Test
+	public void testConcurrentSigners() throws Exception {
+		SharedKeySigner signer = new SharedKeySigner(KEYS[1]);
+		String date = DocumentDB.RFC1123_DATE_TIME.format(DATES[0]);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int t = 0; t < 4; t++) {
+				results.add(executor.submit(() -> {
+					for (int i = 0; i < 500; i++) {
+						String[] resource = RESOURCES[i % RESOURCES.length];
+						StringBuilder stringToSign = signer.stringToSign();
+						stringToSign.append(resource[0]).append('\n').append(resource[1]).append('\n').append(resource[2]).append('\n').append(date).append('\n').append('\n');
+						assertEquals(legacySignature(KEYS[1], resource[0], resource[1], resource[2], date), signer.signLowerCase(stringToSign));
+					}
+					return null;
+				}));
+			}
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testCurrentDate() {
+		for (int attempt = 0; attempt < 5; attempt++) {
+			String before = DocumentDB.RFC1123_DATE_TIME.format(ZonedDateTime.now(ZoneId.of("GMT")));
+			String date = SharedKeySigner.currentDate();
+			String after = DocumentDB.RFC1123_DATE_TIME.format(ZonedDateTime.now(ZoneId.of("GMT")));
+			if (before.equals(after)) {
+				assertEquals(before, date);
+				return;
+			}
+		}
+		fail("the clock kept crossing second boundaries");
+	}
+
+	@Test
+	public void testDatePadding() {
+		assertEquals("Sat, 01 Aug 2015 09:05:07 GMT", DocumentDB.RFC1123_DATE_TIME.format(DATES[0]));
+	}
+
+	static String legacySignature(String masterKey, String verb, String resourceType, String resourceId, String date) throws Exception {
+		return legacyMac(masterKey, String.format("%s\n%s\n%s\n%s\n%s\n", verb, resourceType, resourceId, date, "").toLowerCase());
+	}
+
+	static String legacyAuthorization(String masterKey, String verb, String resourceType, String resourceId, String date) throws Exception {
+		return URLEncoder.encode(String.format("type=master&ver=1.0&sig=%s", legacySignature(masterKey, verb, resourceType, resourceId, date)), "UTF-8");
+	}
+
+	static String legacyMac(String masterKey, String stringToSign) throws Exception {
+		Mac sha256_HMAC = Mac.getInstance("HMACSHA256");
+		SecretKeySpec secret_key = new SecretKeySpec(Base64.getDecoder().decode(masterKey), "HmacSHA256");
+		sha256_HMAC.init(secret_key);
+		return Base64.getEncoder().encodeToString(sha256_HMAC.doFinal(stringToSign.getBytes("UTF-8")));
+	}
+
+	static String repeat(String s, int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+
+}